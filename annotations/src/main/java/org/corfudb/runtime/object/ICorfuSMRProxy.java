@@ -48,6 +48,13 @@ public interface ICorfuSMRProxy<T> {
      */
     void sync();
 
+    /**
+     * Update the proxy to the given version, which the caller obtained from the sequencer.
+     *
+     * @param timestamp             The version to update the proxy to.
+     */
+    void sync(long timestamp);
+
     /** Get the ID of the stream this proxy is subscribed to.
      *
      * @return  The UUID of the stream this proxy is subscribed to.
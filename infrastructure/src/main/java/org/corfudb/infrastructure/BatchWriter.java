@@ -1,87 +1,165 @@
 package org.corfudb.infrastructure;
 
-import com.github.benmanes.caffeine.cache.CacheWriter;
-import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.infrastructure.log.StreamLog;
 import org.corfudb.protocols.wireprotocol.LogData;
-import org.corfudb.runtime.exceptions.DataOutrankedException;
-import org.corfudb.runtime.exceptions.OverwriteException;
-import org.corfudb.runtime.exceptions.TrimmedException;
 
-import javax.annotation.Nonnull;
-import java.util.LinkedList;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
- * BatchWriter is a class that will intercept write-through calls to batch and
- * sync writes.
+ * BatchWriter is a class that batches and syncs the writes of the log unit.
+ * <p>
+ * Operations are queued and processed by a single thread, which group-commits them:
+ * the writes of a batch are appended to the stream log together, and the futures of
+ * the operations are completed according to the {@link Durability} of the writer. A
+ * batch is closed when no more operations are queued, when it holds more than
+ * {@link #MAX_BATCH_BYTES} of data, or once it has been open for
+ * {@link #MAX_BATCH_LATENCY_NANOS}.
  */
 @Slf4j
-public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
+public class BatchWriter implements AutoCloseable {
 
-    static final int BATCH_SIZE = 50;
+    /**
+     * When the operations of the writer are acknowledged.
+     */
+    public enum Durability {
+        /**
+         * Sync the log after every batch, and acknowledge the operations of the batch once synced.
+         */
+        SYNC,
+        /**
+         * Sync the log once the sync interval has elapsed or the sync size has been written,
+         * and acknowledge the operations once synced.
+         */
+        PERIODIC,
+        /**
+         * Acknowledge the operations as soon as they are applied to the log, which is synced
+         * as in the periodic mode. Only safe when the data is replicated.
+         */
+        ASYNC
+    }
+
+    static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+    static final long MAX_BATCH_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
     private StreamLog streamLog;
     private BlockingQueue<BatchWriterOperation> operationsQueue;
+    private final Map<Long, CompletableFuture<Void>> pendingWrites = new ConcurrentHashMap<>();
     final ExecutorService writerService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
             .setDaemon(false)
             .setNameFormat("LogUnit-Write-Processor-%d")
             .build());
 
+    @Getter
+    private final Durability durability;
+    private final long syncIntervalNanos;
+    private final long syncBytes;
+
+    // State of the write processor since the last sync
+    private final List<BatchWriterOperation> unacknowledged = new ArrayList<>();
+    private int unsyncedOperations = 0;
+    private long unsyncedBytes = 0;
+    private long lastSyncNanos = System.nanoTime();
+
+    private final Timer timerSync;
+    private final Timer timerAck;
+    private final Histogram histogramBatchSize;
+    private final Histogram histogramSyncBytes;
+
+    /**
+     * Create a writer which syncs the log after every batch.
+     */
     public BatchWriter(StreamLog streamLog) {
+        this(streamLog, Durability.SYNC, Duration.ZERO, 0, new MetricRegistry(), "");
+    }
+
+    /**
+     * @param streamLog     The log to write to.
+     * @param durability    When operations are acknowledged.
+     * @param syncInterval  The maximum time between syncs, unless the durability is SYNC.
+     * @param syncBytes     The amount of data after which the log is synced, unless the durability is SYNC.
+     * @param metrics       The registry of the writer's metrics.
+     * @param metricsPrefix The prefix of the writer's metrics.
+     */
+    public BatchWriter(StreamLog streamLog, Durability durability, Duration syncInterval, long syncBytes,
+                       MetricRegistry metrics, String metricsPrefix) {
         this.streamLog = streamLog;
+        this.durability = durability;
+        this.syncIntervalNanos = syncInterval.toNanos();
+        this.syncBytes = syncBytes;
+
+        String prefix = metricsPrefix + durability.name().toLowerCase() + ".";
+        timerSync = metrics.timer(prefix + "sync");
+        timerAck = metrics.timer(prefix + "ack");
+        histogramBatchSize = metrics.histogram(prefix + "batch-size");
+        histogramSyncBytes = metrics.histogram(prefix + "sync-bytes");
+
         operationsQueue = new LinkedBlockingQueue<>();
         writerService.submit(this::batchWriteProcessor);
     }
 
-    @Override
-    public void write(@Nonnull K key, @Nonnull V value) {
-        try {
-            CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.WRITE,
-                    (Long) key, (LogData) value, cf));
-            cf.get();
-        } catch (Exception e) {
-            log.trace("Write Exception {}", e);
-            if (e.getCause() instanceof RuntimeException) {
-                throw (RuntimeException)e.getCause();
-            } else {
-                throw new RuntimeException(e);
-            }
-        }
+    /**
+     * Queue a write.
+     *
+     * @param address The address to write.
+     * @param logData The data to write.
+     * @return A future which completes once the write is acknowledged according to
+     * the durability of the writer, or completes exceptionally if the write failed.
+     */
+    public CompletableFuture<Void> write(long address, LogData logData) {
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        pendingWrites.put(address, cf);
+        operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.WRITE, address, logData, cf));
+        return cf;
     }
 
-    public void trim(@Nonnull long address) {
-        try {
-            CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.TRIM, address, null, cf));
-            cf.get();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Get the write to an address which isn't durable yet, if there is one. Data
+     * read from such an address must not be served before the write completes.
+     *
+     * @param address The address to look up.
+     * @return The future of the last write queued to the address, or null.
+     */
+    @Nullable
+    public CompletableFuture<Void> getPendingWrite(long address) {
+        return pendingWrites.get(address);
     }
 
-    public void prefixTrim(@Nonnull long address) {
-        try {
-            CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.PREFIX_TRIM, address, null, cf));
-            cf.get();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    public CompletableFuture<Void> trim(long address) {
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.TRIM, address, null, cf));
+        return cf;
     }
 
-    @Override
-    public void delete(K key, V value, RemovalCause removalCause) {
+    public CompletableFuture<Void> prefixTrim(long address) {
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.PREFIX_TRIM, address, null, cf));
+        return cf;
     }
 
     private void handleOperationResults(BatchWriterOperation operation) {
+        timerAck.update(System.nanoTime() - operation.getEnqueueTime(), TimeUnit.NANOSECONDS);
+
+        if (operation.getType() == BatchWriterOperation.Type.WRITE) {
+            pendingWrites.remove(operation.getAddress(), operation.getFuture());
+        }
+
         if (operation.getException() == null) {
             operation.getFuture().complete(null);
         } else {
@@ -90,76 +168,195 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
     }
 
     private void batchWriteProcessor() {
-        try {
-            BatchWriterOperation lastOp = null;
-            int processed = 0;
-            List<BatchWriterOperation> res = new LinkedList();
+        List<BatchWriterOperation> batch = new ArrayList<>();
 
-            while (true) {
-                BatchWriterOperation currOp;
+        while (true) {
+            try {
+                BatchWriterOperation currOp = nextOperation();
 
-                if (lastOp == null) {
-                    currOp = operationsQueue.take();
-                } else {
-                    currOp = operationsQueue.poll();
+                if (currOp == null) {
+                    // The sync interval elapsed while the writer was idle
+                    sync();
+                    continue;
+                }
 
-                    if (currOp == null || processed == BATCH_SIZE || currOp == BatchWriterOperation.SHUTDOWN) {
-                        streamLog.sync(true);
-                        log.trace("Sync'd {} writes", processed);
+                long deadline = System.nanoTime() + MAX_BATCH_LATENCY_NANOS;
+                long batchBytes = 0;
 
-                        for (BatchWriterOperation operation : res) {
-                            handleOperationResults(operation);
-                        }
-                        res.clear();
-                        processed = 0;
+                while (currOp != null && currOp != BatchWriterOperation.SHUTDOWN) {
+                    batch.add(currOp);
+                    if (currOp.getLogData() != null) {
+                        batchBytes += currOp.getLogData().getSizeEstimate();
                     }
+
+                    if (batchBytes >= MAX_BATCH_BYTES || System.nanoTime() - deadline >= 0) {
+                        break;
+                    }
+                    currOp = operationsQueue.poll();
+                }
+
+                processBatch(batch);
+                unsyncedOperations += batch.size();
+                unsyncedBytes += batchBytes;
+                histogramBatchSize.update(batch.size());
+
+                if (durability == Durability.ASYNC) {
+                    batch.forEach(this::handleOperationResults);
+                } else {
+                    unacknowledged.addAll(batch);
+                }
+                batch.clear();
+
+                if (durability == Durability.SYNC || currOp == BatchWriterOperation.SHUTDOWN
+                        || unsyncedBytes >= syncBytes || System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+                    sync();
                 }
 
                 if (currOp == BatchWriterOperation.SHUTDOWN) {
                     log.trace("Shutting down the write processor");
                     break;
                 }
-                if (currOp == null) {
-                    lastOp = null;
-                    continue;
+            } catch (InterruptedException e) {
+                log.warn("Write processor interrupted, failing the queued operations");
+                failOperations(batch, e);
+                List<BatchWriterOperation> queued = new ArrayList<>();
+                operationsQueue.drainTo(queued);
+                queued.remove(BatchWriterOperation.SHUTDOWN);
+                failOperations(queued, e);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                // The writer has to keep running, or the futures of the following
+                // operations would never complete
+                log.error("Caught exception in the write processor, failing {} operations",
+                        batch.size() + unacknowledged.size(), e);
+                failOperations(batch, e);
+            }
+        }
+    }
+
+    /**
+     * Fail the given operations and the operations which weren't acknowledged yet,
+     * and clear them.
+     *
+     * @param operations The operations which were being processed.
+     * @param cause      The reason the operations failed.
+     */
+    private void failOperations(List<BatchWriterOperation> operations, Exception cause) {
+        List<BatchWriterOperation> failed = new ArrayList<>(unacknowledged);
+        failed.addAll(operations);
+        for (BatchWriterOperation operation : failed) {
+            if (operation.getException() == null) {
+                operation.setException(cause);
+            }
+            handleOperationResults(operation);
+        }
+
+        operations.clear();
+        unacknowledged.clear();
+        unsyncedOperations = 0;
+        unsyncedBytes = 0;
+    }
+
+    /**
+     * Wait for the next operation, for no longer than the time left until the next sync
+     * if some operations haven't been synced yet.
+     *
+     * @return The next operation, or null if the log has to be synced first.
+     */
+    private BatchWriterOperation nextOperation() throws InterruptedException {
+        if (unsyncedOperations == 0) {
+            return operationsQueue.take();
+        }
+
+        long timeout = lastSyncNanos + syncIntervalNanos - System.nanoTime();
+        return operationsQueue.poll(Math.max(timeout, 0), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Apply a batch of operations to the stream log.
+     */
+    private void processBatch(List<BatchWriterOperation> batch) {
+        Map<Long, BatchWriterOperation> writes = new LinkedHashMap<>();
+
+        for (BatchWriterOperation currOp : batch) {
+            if (currOp.getType() == BatchWriterOperation.Type.WRITE) {
+                if (writes.containsKey(currOp.getAddress())) {
+                    // Writes to the same address must be applied in order
+                    appendWrites(writes);
                 }
+                writes.put(currOp.getAddress(), currOp);
+                continue;
+            }
+
+            // Writes queued before another operation are applied before it
+            appendWrites(writes);
 
+            try {
                 if (currOp.getType() == BatchWriterOperation.Type.TRIM) {
                     streamLog.trim(currOp.getAddress());
-                    currOp.setException(null);
-                    res.add(currOp);
                 } else if (currOp.getType() == BatchWriterOperation.Type.PREFIX_TRIM) {
-                    try {
-                        streamLog.prefixTrim(currOp.getAddress());
-                        currOp.setException(null);
-                        res.add(currOp);
-                    } catch (TrimmedException e) {
-                        currOp.setException(e);
-                        res.add(currOp);
-                    }
-
-                } else if (currOp.getType() == BatchWriterOperation.Type.WRITE) {
-                    try {
-                        streamLog.append(currOp.getAddress(), currOp.getLogData());
-                        currOp.setException(null);
-                        res.add(currOp);
-                    } catch (OverwriteException | DataOutrankedException e) {
-                        currOp.setException(e);
-                        res.add(currOp);
-                    } catch (Exception e) {
-                        currOp.setException(e);
-                        res.add(currOp);
-                    }
+                    streamLog.prefixTrim(currOp.getAddress());
                 } else {
                     log.warn("Unknown BatchWriterOperation {}", currOp);
                 }
+            } catch (Exception e) {
+                currOp.setException(e);
+            }
+        }
+
+        appendWrites(writes);
+    }
+
+    /**
+     * Sync the stream log, and acknowledge the operations which were waiting for it.
+     */
+    private void sync() {
+        if (unsyncedOperations == 0) {
+            return;
+        }
+
+        Exception failure = null;
+        try (Timer.Context ignored = timerSync.time()) {
+            streamLog.sync(true);
+            log.trace("Sync'd {} operations", unsyncedOperations);
+        } catch (Exception e) {
+            log.error("Failed to sync {} operations", unsyncedOperations, e);
+            failure = e;
+        }
+        histogramSyncBytes.update(unsyncedBytes);
 
-                processed++;
-                lastOp = currOp;
+        for (BatchWriterOperation operation : unacknowledged) {
+            if (failure != null && operation.getException() == null) {
+                operation.setException(failure);
             }
+            handleOperationResults(operation);
+        }
+
+        unacknowledged.clear();
+        unsyncedOperations = 0;
+        unsyncedBytes = 0;
+        lastSyncNanos = System.nanoTime();
+    }
+
+    /**
+     * Append a group of writes to distinct addresses, and clear the group.
+     */
+    private void appendWrites(Map<Long, BatchWriterOperation> writes) {
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        Map<Long, LogData> entries = new LinkedHashMap<>();
+        writes.forEach((address, operation) -> entries.put(address, operation.getLogData()));
+
+        try {
+            streamLog.append(entries).forEach((address, e) -> writes.get(address).setException(e));
         } catch (Exception e) {
-            log.error("Caught exception in the write processor {}", e);
+            writes.values().forEach(operation -> operation.setException(e));
         }
+
+        writes.clear();
     }
 
     @Override
@@ -168,4 +365,4 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
         writerService.shutdown();
     }
 
-}
\ No newline at end of file
+}
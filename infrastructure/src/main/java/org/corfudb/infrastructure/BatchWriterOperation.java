@@ -22,6 +22,7 @@ public class BatchWriterOperation {
     private final Long address;
     private final LogData logData;
     private final CompletableFuture future;
+    private final long enqueueTime = System.nanoTime();
     private Exception exception;
 
     public static BatchWriterOperation SHUTDOWN = new BatchWriterOperation(Type.SHUTDOWN,null, null, null);
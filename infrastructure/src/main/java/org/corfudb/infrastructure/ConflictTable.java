@@ -0,0 +1,302 @@
+package org.corfudb.infrastructure;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The latest commit timestamps of recent conflict keys, for transaction resolution.
+ * <p>
+ * Keys and timestamps are kept in primitive arrays, in an open-addressing table with
+ * linear probing. The table keeps a window of the last {@link #maxSize} updates: once
+ * the window is full, the oldest update is evicted, and its timestamp is folded into a
+ * wildcard which stands for all the keys which aren't in the table anymore. Since the
+ * timestamps of updates only grow, the wildcard is always the timestamp of the last
+ * update evicted.
+ * <p>
+ * This class is not thread-safe, the sequencer only accesses it under its
+ * transaction lock.
+ */
+public class ConflictTable {
+
+    /** The timestamp of a key which isn't in the table, never a valid timestamp. */
+    public static final long ABSENT = Long.MIN_VALUE;
+
+    private static final long EMPTY = ABSENT;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /** The maximum number of updates in the window. */
+    private final int maxSize;
+
+    private final int initialCapacity;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size = 0;
+
+    /** The updates of the window, in the order they were made. */
+    private long[] windowKeys;
+    private long[] windowValues;
+    private int windowHead = 0;
+    private int windowSize = 0;
+
+    private long wildcard;
+    private long evictions = 0;
+
+    /**
+     * A copy of the most recent updates of a table, which can restore the table.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Window {
+        /** The keys of the updates, oldest first. */
+        final long[] keys;
+        /** The timestamps of the updates, oldest first. */
+        final long[] timestamps;
+        /** The latest timestamp of the keys which aren't in the window. */
+        final long wildcard;
+    }
+
+    /**
+     * @param maxSize   The maximum number of updates kept.
+     * @param wildcard  The initial wildcard.
+     */
+    public ConflictTable(int maxSize, long wildcard) {
+        this.maxSize = Math.max(maxSize, 1);
+        this.wildcard = wildcard;
+        initialCapacity = Math.min(INITIAL_CAPACITY, Integer.highestOneBit(this.maxSize));
+        allocate(initialCapacity);
+    }
+
+    /**
+     * Get the key of a conflict parameter of a stream. The bits of the stream ID
+     * and of the parameter are mixed into all the bits of the key, so that distinct
+     * parameters rarely share a key.
+     *
+     * @param streamID      The stream ID.
+     * @param conflictParam The conflict parameter.
+     * @return              The conflict key.
+     */
+    public static long getKey(UUID streamID, int conflictParam) {
+        long h = mix(streamID.getMostSignificantBits() + GOLDEN_GAMMA);
+        h = mix(h ^ (streamID.getLeastSignificantBits() + GOLDEN_GAMMA));
+        return mix(h ^ (conflictParam + GOLDEN_GAMMA));
+    }
+
+    /** The finalizer of SplitMix64. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param key   A conflict key.
+     * @return      The latest timestamp of the key, or {@link #ABSENT} if the key
+     *              isn't in the table, in which case the wildcard applies.
+     */
+    public long get(long key) {
+        for (int slot = (int) key & mask; values[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Record an update of a key, evicting the oldest update if the window is full.
+     *
+     * @param key       A conflict key.
+     * @param timestamp The timestamp of the update, no smaller than any previous one.
+     */
+    public void put(long key, long timestamp) {
+        if (windowSize == maxSize) {
+            evictOldest();
+        }
+        if (windowSize == windowKeys.length) {
+            resizeWindow(windowKeys.length * 2);
+        }
+        int tail = (windowHead + windowSize) & (windowKeys.length - 1);
+        windowKeys[tail] = key;
+        windowValues[tail] = timestamp;
+        windowSize++;
+
+        int slot = (int) key & mask;
+        while (values[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] = timestamp;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = timestamp;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * Remove all the keys, and restart from the given wildcard.
+     *
+     * @param newWildcard The timestamp every key is now assumed to have been updated at.
+     */
+    public void clear(long newWildcard) {
+        wildcard = newWildcard;
+        size = 0;
+        windowHead = 0;
+        windowSize = 0;
+        allocate(initialCapacity);
+    }
+
+    /**
+     * Copy the most recent updates which weren't superseded by a later update of
+     * their key. The updates left out are folded into the wildcard of the copy.
+     *
+     * @param limit The maximum number of updates to copy.
+     * @return      The window of updates.
+     */
+    public Window getWindow(int limit) {
+        long[] copyKeys = new long[Math.min(limit, size)];
+        long[] copyTimestamps = new long[copyKeys.length];
+        long copyWildcard = wildcard;
+
+        // Newest first, since the oldest updates are the ones left out
+        int count = 0;
+        for (int i = windowSize - 1; i >= 0; i--) {
+            int index = (windowHead + i) & (windowKeys.length - 1);
+            if (get(windowKeys[index]) != windowValues[index]) {
+                continue;
+            }
+            if (count == copyKeys.length) {
+                copyWildcard = Math.max(copyWildcard, windowValues[index]);
+                break;
+            }
+            copyKeys[copyKeys.length - 1 - count] = windowKeys[index];
+            copyTimestamps[copyKeys.length - 1 - count] = windowValues[index];
+            count++;
+        }
+
+        return new Window(Arrays.copyOfRange(copyKeys, copyKeys.length - count, copyKeys.length),
+                Arrays.copyOfRange(copyTimestamps, copyKeys.length - count, copyKeys.length),
+                copyWildcard);
+    }
+
+    /**
+     * Replace the content of the table with a window of updates.
+     *
+     * @param window The window, from {@link #getWindow(int)}.
+     */
+    public void restore(Window window) {
+        clear(window.getWildcard());
+        for (int i = 0; i < window.getKeys().length; i++) {
+            put(window.getKeys()[i], window.getTimestamps()[i]);
+        }
+    }
+
+    /**
+     * @return The latest timestamp of the keys which aren't in the table.
+     */
+    public long getWildcard() {
+        return wildcard;
+    }
+
+    /**
+     * @return The number of keys in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of keys evicted from the table.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    private void evictOldest() {
+        long key = windowKeys[windowHead];
+        long timestamp = windowValues[windowHead];
+        windowHead = (windowHead + 1) & (windowKeys.length - 1);
+        windowSize--;
+
+        // Otherwise the key was updated again later, and stays
+        for (int slot = (int) key & mask; values[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                if (values[slot] == timestamp) {
+                    removeAt(slot);
+                    wildcard = Math.max(wildcard, timestamp);
+                    evictions++;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the key of a slot, shifting back the keys after it which can't be
+     * found past the empty slot anymore.
+     */
+    private void removeAt(int slot) {
+        int hole = slot;
+        for (int i = (slot + 1) & mask; values[i] != EMPTY; i = (i + 1) & mask) {
+            int home = (int) keys[i] & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = EMPTY;
+        size--;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * 2];
+        values = new long[capacity * 2];
+        Arrays.fill(values, EMPTY);
+        mask = keys.length - 1;
+        windowKeys = new long[capacity];
+        windowValues = new long[capacity];
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, EMPTY);
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != EMPTY) {
+                int slot = (int) oldKeys[i] & mask;
+                while (values[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void resizeWindow(int capacity) {
+        long[] newKeys = new long[capacity];
+        long[] newValues = new long[capacity];
+        for (int i = 0; i < windowSize; i++) {
+            int from = (windowHead + i) & (windowKeys.length - 1);
+            newKeys[i] = windowKeys[from];
+            newValues[i] = windowValues[from];
+        }
+        windowKeys = newKeys;
+        windowValues = newValues;
+        windowHead = 0;
+    }
+}
@@ -90,7 +90,7 @@ public class CorfuServer {
             "Corfu Server, the server for the Corfu Infrastructure.\n"
                     + "\n"
                     + "Usage:\n"
-                    + "\tcorfu_server (-l <path>|-m) [-ns] [-a <address>] [-t <token>] [-c <ratio>] [-d <level>] [-p <seconds>] [-M <address>:<port>] [-e [-u <keystore> -f <keystore_password_file>] [-r <truststore> -w <truststore_password_file>] [-b] [-g -o <username_file> -j <password_file>] [-x <ciphers>] [-z <tls-protocols>]] <port>\n"
+                    + "\tcorfu_server (-l <path>|-m) [-ns] [-a <address>] [-t <token>] [--snapshot-interval=<seconds>] [-c <ratio>] [--cache-off-heap-size=<bytes>] [--prefetch-depth=<count>] [--mmap-reads] [--durability=<mode>] [--sync-interval=<ms>] [--sync-bytes=<bytes>] [-d <level>] [-p <seconds>] [--compaction-rate=<bytes>] [--max-open-segments=<count>] [-M <address>:<port>] [-e [-u <keystore> -f <keystore_password_file>] [-r <truststore> -w <truststore_password_file>] [-b] [-g -o <username_file> -j <password_file>] [-x <ciphers>] [-z <tls-protocols>]] <port>\n"
                     + "\n"
                     + "Options:\n"
                     + " -l <path>, --log-path=<path>                                                           Set the path to the storage file for the log unit.\n"
@@ -103,10 +103,29 @@ public class CorfuServer {
                     + "                                                                                        (e.g. ratio = 0.5 means the cache size will be 0.5 * jvm max heap size\n"
                     + "                                                                                        If there is no log, then this will be the size of the log unit\n"
                     + "                                                                                        evicted entries will be auto-trimmed. [default: 0.5].\n"
+                    + " --cache-off-heap-size=<bytes>                                                          The size of the second cache tier, kept in direct memory, which holds\n"
+                    + "                                                                                        the entries evicted from the heap cache, or 0 to disable it [default: 0].\n"
+                    + " --prefetch-depth=<count>                                                               The number of addresses read ahead of clients which read the log\n"
+                    + "                                                                                        sequentially or at a fixed stride, or 0 to disable it [default: 0].\n"
+                    + " --mmap-reads                                                                           Serve reads of sealed log segments from memory-mapped files.\n"
+                    + " --durability=<mode>                                                                    When writes are acknowledged: sync (after each batch is synced),\n"
+                    + "                                                                                        periodic (once synced, the log being synced every sync interval or\n"
+                    + "                                                                                        sync bytes), or async (once written, the log being synced as in\n"
+                    + "                                                                                        periodic mode). Async should only be used with replication [default: sync].\n"
+                    + " --sync-interval=<ms>                                                                   The maximum time between syncs of the log, in periodic and async\n"
+                    + "                                                                                        durability modes [default: 10].\n"
+                    + " --sync-bytes=<bytes>                                                                   The amount of data written after which the log is synced, in\n"
+                    + "                                                                                        periodic and async durability modes [default: 16777216].\n"
                     + " -t <token>, --initial-token=<token>                                                    The first token the sequencer will issue, or -1 to recover\n"
                     + "                                                                                        from the log. [default: -1].\n"
-                    + " -p <seconds>, --compact=<seconds>                                                      The rate the log unit should compact entries (find the,\n"
-                    + "                                                                                        contiguous tail) in seconds [default: 60].\n"
+                    + " --snapshot-interval=<seconds>                                                          The interval in seconds at which the sequencer snapshots its state, to\n"
+                    + "                                                                                        resume from it when it is promoted again, or 0 to disable it [default: 0].\n"
+                    + " -p <seconds>, --compact=<seconds>                                                      The interval in seconds at which the log unit compacts the\n"
+                    + "                                                                                        segments with the most reclaimable space [default: 60].\n"
+                    + " --compaction-rate=<bytes>                                                              The maximum number of bytes per second compaction copies, or 0\n"
+                    + "                                                                                        to compact without throttling [default: 0].\n"
+                    + " --max-open-segments=<count>                                                            The maximum number of log segments kept open, beyond which the\n"
+                    + "                                                                                        least recently used sealed segments are closed [default: 256].\n"
                     + " -d <level>, --log-level=<level>                                                        Set the logging level, valid levels are: \n"
                     + "                                                                                        ERROR,WARN,INFO,DEBUG,TRACE [default: INFO].\n"
                     + " -M <address>:<port>, --management-server=<address>:<port>                              Layout endpoint to seed Management Server\n"
@@ -1,13 +1,18 @@
 package org.corfudb.infrastructure;
 
+import com.google.common.collect.Range;
 import lombok.extern.slf4j.Slf4j;
+import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.runtime.CorfuRuntime;
 import org.corfudb.runtime.clients.LogUnitClient;
 import org.corfudb.runtime.exceptions.OutrankedException;
 import org.corfudb.runtime.exceptions.QuorumUnreachableException;
 import org.corfudb.runtime.view.Layout;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -24,6 +29,16 @@ public class FailureHandlerDispatcher {
      */
     private volatile long prepareRank = 1;
 
+    /**
+     * The number of addresses at the end of the log scanned to recover the sequencer.
+     */
+    private static final long SEQUENCER_SCAN_LIMIT = 10_000L;
+
+    /**
+     * The number of addresses read from a log unit at a time by the scan.
+     */
+    private static final long SEQUENCER_SCAN_BATCH_SIZE = 1_000L;
+
     /**
      * Recover cluster from layout.
      * @param recoveryLayout    Layout to use to recover
@@ -174,12 +189,78 @@ public class FailureHandlerDispatcher {
                     }
                 }
             }
+            // The new sequencer may resume from its own snapshot only if no other
+            // sequencer issued tokens since it took it.
+            boolean resume = originalLayout.getSequencers().get(0).equals(newLayout.getSequencers().get(0));
+            long scanStart = Math.max(0L, maxTokenRequested + 1 - SEQUENCER_SCAN_LIMIT);
             try {
                 // Configuring the new sequencer.
-                newLayout.getSequencer(0).reset(maxTokenRequested + 1).get();
+                Map<UUID, Long> streamTails = scanStreamTails(runtime, originalLayout, scanStart, maxTokenRequested);
+                if (streamTails == null) {
+                    newLayout.getSequencer(0).reset(maxTokenRequested + 1).get();
+                } else {
+                    newLayout.getSequencer(0)
+                            .recover(maxTokenRequested + 1, scanStart, streamTails, resume).get();
+                }
             } catch (InterruptedException e) {
                 log.error("Sequencer Reset interrupted : {}", e);
             }
         }
     }
+
+    /**
+     * Collects the last address of every stream written in a range of the log, so that the
+     * new sequencer can issue backpointers and resolve transactions after these addresses.
+     * Each stripe is read from the first log unit of its chain which responds.
+     *
+     * @param runtime   Runtime to read the log units.
+     * @param layout    Layout of the log units.
+     * @param start     First address to scan.
+     * @param end       Last address to scan.
+     * @return          The tail of every stream written in the range, or null if a
+     *                  stripe couldn't be read.
+     */
+    private Map<UUID, Long> scanStreamTails(CorfuRuntime runtime, Layout layout, long start, long end) {
+        Map<UUID, Long> streamTails = new HashMap<>();
+        for (Layout.LayoutSegment segment : layout.getSegments()) {
+            long segmentEnd = segment.getEnd() == -1 ? end : Math.min(end, segment.getEnd() - 1);
+            long segmentStart = Math.max(start, segment.getStart());
+            for (Layout.LayoutStripe stripe : segment.getStripes()) {
+                for (long batchStart = segmentStart; batchStart <= segmentEnd;
+                     batchStart += SEQUENCER_SCAN_BATCH_SIZE) {
+                    Range<Long> range = Range.closed(batchStart,
+                            Math.min(segmentEnd, batchStart + SEQUENCER_SCAN_BATCH_SIZE - 1));
+                    Map<Long, LogData> entries = readStripe(runtime, stripe, range);
+                    if (entries == null) {
+                        log.warn("Unable to scan addresses {} for the sequencer", range);
+                        return null;
+                    }
+                    entries.forEach((address, entry) -> {
+                        if (!entry.isEmpty() && !entry.isHole()) {
+                            entry.getStreams().forEach(id -> streamTails.merge(id, address, Math::max));
+                        }
+                    });
+                }
+            }
+        }
+        return streamTails;
+    }
+
+    /**
+     * Reads a range of addresses from the first log unit of a stripe which responds.
+     * The head of the chain holds every entry of the stripe.
+     *
+     * @return The entries read, or null if no log unit responded.
+     */
+    private Map<Long, LogData> readStripe(CorfuRuntime runtime, Layout.LayoutStripe stripe, Range<Long> range) {
+        for (String logServer : stripe.getLogServers()) {
+            try {
+                return runtime.getRouter(logServer).getClient(LogUnitClient.class)
+                        .read(null, range).get().getReadSet();
+            } catch (Exception e) {
+                log.error("Exception while scanning log unit {} : {}", logServer, e);
+            }
+        }
+        return null;
+    }
 }
\ No newline at end of file
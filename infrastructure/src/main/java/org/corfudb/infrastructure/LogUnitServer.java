@@ -1,14 +1,30 @@
 package org.corfudb.infrastructure;
 
 import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 
 import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.CacheWriter;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.github.benmanes.caffeine.cache.RemovalCause;
@@ -31,6 +47,7 @@ import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.TrimmedException;
 import org.corfudb.runtime.exceptions.ValueAdoptedException;
 import org.corfudb.util.MetricsUtils;
+import org.corfudb.util.OffHeapCache;
 import org.corfudb.util.Utils;
 
 
@@ -62,6 +79,18 @@ public class LogUnitServer extends AbstractServer {
 
     private ScheduledFuture<?> compactor;
 
+    /**
+     * The threads which serve the reads that wait for pending writes, so that these reads
+     * neither block the writer nor run on the common fork-join pool.
+     */
+    private final ExecutorService deferredReads =
+            Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("LogUnit-DeferredRead-%d")
+                            .build());
+
     /**
      * The options map.
      */
@@ -81,12 +110,37 @@ public class LogUnitServer extends AbstractServer {
     private final LoadingCache<Long, ILogData> dataCache;
     private final long maxCacheSize;
 
+    /**
+     * A second cache tier in direct memory, which holds the entries evicted from the
+     * data cache, or null if it is disabled.
+     */
+    @Nullable
+    private final OffHeapCache offHeapCache;
+
     private final StreamLog streamLog;
 
-    private final BatchWriter<Long, ILogData> batchWriter;
+    private final BatchWriter batchWriter;
+
+    /**
+     * Reads ahead of the clients which scan the log, or null if it is disabled.
+     */
+    @Nullable
+    private final ReadAheadPrefetcher prefetcher;
 
     private static final String metricsPrefix = "corfu.server.logunit.";
 
+    private static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(10);
+    private static final long DEFAULT_SYNC_BYTES = 16 * 1024 * 1024;
+    private static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.ofSeconds(60);
+    private static final int READ_BATCH_SIZE = 1000;
+
+    /**
+     * An estimate of the heap used by a cached entry besides its data, and by
+     * each of its backpointers.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int BACKPOINTER_OVERHEAD = 64;
+
     public LogUnitServer(ServerContext serverContext) {
         this.opts = serverContext.getServerConfig();
         double cacheSizeHeapRatio = Double.parseDouble((String) opts.get("--cache-heap-ratio"));
@@ -103,21 +157,81 @@ public class LogUnitServer extends AbstractServer {
             streamLog = new StreamLogFiles(serverContext, (Boolean) opts.get("--no-verify"));
         }
 
-        batchWriter = new BatchWriter(streamLog);
+        MetricRegistry metrics = serverContext.getMetrics();
+
+        BatchWriter.Durability durability = opts.get("--durability") == null ? BatchWriter.Durability.SYNC
+                : BatchWriter.Durability.valueOf(((String) opts.get("--durability")).toUpperCase());
+        Duration syncInterval = opts.get("--sync-interval") == null ? DEFAULT_SYNC_INTERVAL
+                : Duration.ofMillis(Utils.parseLong(opts.get("--sync-interval")));
+        long syncBytes = opts.get("--sync-bytes") == null ? DEFAULT_SYNC_BYTES
+                : Utils.parseLong(opts.get("--sync-bytes"));
+        log.info("Log unit durability {}, sync interval {}, sync bytes {}", durability, syncInterval, syncBytes);
+
+        batchWriter = new BatchWriter(streamLog, durability, syncInterval, syncBytes, metrics,
+                metricsPrefix + "durability.");
+
+        long offHeapCacheSize = Utils.parseLong(opts.get("--cache-off-heap-size"));
+        if (offHeapCacheSize > 0) {
+            log.info("Log unit off-heap cache size {}", Utils.convertToByteStringRepresentation(offHeapCacheSize));
+            offHeapCache = new OffHeapCache(offHeapCacheSize, metrics, metricsPrefix + "cache.off-heap.");
+        } else {
+            offHeapCache = null;
+        }
 
         dataCache = Caffeine.<Long, ILogData>newBuilder()
-                .<Long, ILogData>weigher((k, v) -> ((LogData)v).getData() == null ? 1 : ((LogData)v).getData().length)
+                .<Long, ILogData>weigher((k, v) -> getHeapWeight(v))
                 .maximumWeight(maxCacheSize)
+                .writer(new CacheWriter<Long, ILogData>() {
+                    @Override
+                    public void write(@Nonnull Long address, @Nonnull ILogData entry) {
+                        handleWrite(address);
+                    }
+
+                    @Override
+                    public void delete(@Nonnull Long address, @Nullable ILogData entry,
+                                       @Nonnull RemovalCause cause) {
+                        handleRemoval(address, entry, cause);
+                    }
+                })
                 .removalListener(this::handleEviction)
-                .writer(batchWriter)
                 .recordStats()
-                .build(this::handleRetrieval);
+                .build(new CacheLoader<Long, ILogData>() {
+                    @Override
+                    public ILogData load(@Nonnull Long address) {
+                        return handleRetrieval(address);
+                    }
+
+                    @Override
+                    public Map<Long, ILogData> loadAll(@Nonnull Iterable<? extends Long> addresses) {
+                        return handleRetrieval(addresses);
+                    }
+                });
 
-        MetricRegistry metrics = serverContext.getMetrics();
         MetricsUtils.addCacheGauges(metrics, metricsPrefix + "cache.", dataCache);
 
-        Runnable task = () -> streamLog.compact();
-        compactor = scheduler.scheduleAtFixedRate(task, 10,45, TimeUnit.MINUTES);
+        int prefetchDepth = (int) Utils.parseLong(opts.get("--prefetch-depth"));
+        if (prefetchDepth > 0) {
+            log.info("Log unit prefetch depth {}", prefetchDepth);
+            prefetcher = new ReadAheadPrefetcher(prefetchDepth, dataCache::getAll, streamLog::getGlobalTail,
+                    metrics, metricsPrefix + "prefetch.");
+        } else {
+            prefetcher = null;
+        }
+
+        Duration compactionInterval = opts.get("--compact") == null ? DEFAULT_COMPACTION_INTERVAL
+                : Duration.ofSeconds(Utils.parseLong(opts.get("--compact")));
+        log.info("Log unit compaction interval {}", compactionInterval);
+
+        Runnable task = () -> {
+            try {
+                streamLog.compact();
+            } catch (Exception e) {
+                // An exception would cancel the following runs
+                log.error("Compaction failed", e);
+            }
+        };
+        compactor = scheduler.scheduleWithFixedDelay(task, compactionInterval.toMillis(),
+                compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -130,7 +244,8 @@ public class LogUnitServer extends AbstractServer {
     }
 
     /**
-     * Service an incoming write request.
+     * Service an incoming write request. The write is queued to the batch writer, and
+     * WRITE_OK is sent once it is durable, without blocking the handler thread.
      */
     @ServerHandler(type = CorfuMsgType.WRITE, opTimer = metricsPrefix + "write")
     public void write(CorfuPayloadMsg<WriteRequest> msg, ChannelHandlerContext ctx, IServerRouter r,
@@ -138,17 +253,35 @@ public class LogUnitServer extends AbstractServer {
         log.debug("log write: global: {}, streams: {}, backpointers: {}", msg
                 .getPayload().getGlobalAddress(), msg.getPayload().getData().getBackpointerMap());
 
-        try {
-            dataCache.put(msg.getPayload().getGlobalAddress(), msg.getPayload().getData());
-            r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
+        write(msg.getPayload().getGlobalAddress(), msg.getPayload().getData(), msg, ctx, r);
+    }
 
-        } catch (OverwriteException ex) {
+    /**
+     * Write an entry and respond to the request once it is durable. The entry is only
+     * cached after it has been written, so reads never serve a write that could be lost.
+     *
+     * @return A future which completes once the response has been sent.
+     */
+    private CompletableFuture<Void> write(long address, LogData data, CorfuMsg msg, ChannelHandlerContext ctx,
+                                          IServerRouter r) {
+        return batchWriter.write(address, data).handle((x, ex) -> {
+            Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+
+            if (cause == null) {
+                dataCache.put(address, data);
+                r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
+            } else if (cause instanceof OverwriteException) {
                 r.sendResponse(ctx, msg, CorfuMsgType.ERROR_OVERWRITE.msg());
-        } catch (DataOutrankedException e) {
-            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_OUTRANKED.msg());
-        } catch (ValueAdoptedException e) {
-            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_VALUE_ADOPTED.payloadMsg(e.getReadResponse()));
-        }
+            } else if (cause instanceof DataOutrankedException) {
+                r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_OUTRANKED.msg());
+            } else if (cause instanceof ValueAdoptedException) {
+                r.sendResponse(ctx, msg, CorfuMsgType.ERROR_VALUE_ADOPTED
+                        .payloadMsg(((ValueAdoptedException) cause).getReadResponse()));
+            } else {
+                log.error("Write[{}]: Failed", address, cause);
+            }
+            return null;
+        });
     }
 
     @ServerHandler(type = CorfuMsgType.READ_REQUEST, opTimer = metricsPrefix + "read")
@@ -157,61 +290,208 @@ public class LogUnitServer extends AbstractServer {
         log.trace("log read: {} {}", msg.getPayload().getStreamID()  == null
                         ? "global" : msg.getPayload().getStreamID(),
                 msg.getPayload().getRange());
+        if (prefetcher != null && msg.getClientID() != null) {
+            prefetcher.onRead(msg.getClientID(), msg.getPayload().getRange().lowerEndpoint(),
+                    msg.getPayload().getRange().upperEndpoint());
+        }
+
+        afterPendingWrites(LongStream.rangeClosed(msg.getPayload().getRange().lowerEndpoint(),
+                msg.getPayload().getRange().upperEndpoint()), () -> serveRead(msg, ctx, r));
+    }
+
+    private void serveRead(CorfuPayloadMsg<ReadRequest> msg, ChannelHandlerContext ctx, IServerRouter r) {
         ReadResponse rr = new ReadResponse();
         try {
-            for (Long l = msg.getPayload().getRange().lowerEndpoint();
-                 l < msg.getPayload().getRange().upperEndpoint() + 1L; l++) {
-                ILogData e = dataCache.get(l);
-                if (e == null) {
-                    rr.put(l, LogData.EMPTY);
-                } else if (e.getType() == DataType.HOLE) {
-                    rr.put(l, LogData.HOLE);
-                } else {
-                    rr.put(l, (LogData)e);
-                }
+            // Large ranges are loaded a batch at a time, so that a single request
+            // doesn't plan and buffer the reads of the whole range at once
+            long end = msg.getPayload().getRange().upperEndpoint() + 1L;
+            for (long start = msg.getPayload().getRange().lowerEndpoint(); start < end; start += READ_BATCH_SIZE) {
+                readBatch(LongStream.range(start, Math.min(start + READ_BATCH_SIZE, end))
+                        .boxed()
+                        .collect(Collectors.toList()), rr);
             }
             r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(rr));
         } catch (TrimmedException e) {
+            rr.releaseResources();
             r.sendResponse(ctx, msg, CorfuMsgType.ERROR_TRIMMED.msg());
         } catch (DataCorruptionException e) {
+            rr.releaseResources();
             r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
         }
     }
 
-    @ServerHandler(type = CorfuMsgType.FILL_HOLE, opTimer = metricsPrefix + "fill-hole")
-    private void fillHole(CorfuPayloadMsg<TrimRequest> msg, ChannelHandlerContext ctx, IServerRouter r,
-                          boolean isMetricsEnabled) {
+    /**
+     * Service a request to read a list of addresses, so that a client reading scattered
+     * addresses, such as the entries of a stream, needs a single request per log unit.
+     */
+    @ServerHandler(type = CorfuMsgType.MULTIPLE_READ_REQUEST, opTimer = metricsPrefix + "multipleRead")
+    private void multipleRead(CorfuPayloadMsg<MultipleReadRequest> msg, ChannelHandlerContext ctx,
+                              IServerRouter r, boolean isMetricsEnabled) {
+        List<Long> addresses = msg.getPayload().getAddresses();
+        log.trace("log multiple read: {}", addresses);
+
+        afterPendingWrites(addresses.stream().mapToLong(Long::longValue),
+                () -> serveMultipleRead(addresses, msg, ctx, r));
+    }
+
+    private void serveMultipleRead(List<Long> addresses, CorfuMsg msg, ChannelHandlerContext ctx, IServerRouter r) {
+        ReadResponse rr = new ReadResponse();
         try {
-            dataCache.put(msg.getPayload().getAddress(), LogData.HOLE);
-            r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
+            for (int start = 0; start < addresses.size(); start += READ_BATCH_SIZE) {
+                readBatch(addresses.subList(start, Math.min(start + READ_BATCH_SIZE, addresses.size())), rr);
+            }
+            r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(rr));
+        } catch (TrimmedException e) {
+            rr.releaseResources();
+            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_TRIMMED.msg());
+        } catch (DataCorruptionException e) {
+            rr.releaseResources();
+            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
+        }
+    }
 
-        } catch (OverwriteException e) {
-            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_OVERWRITE.msg());
-        } catch (DataOutrankedException e) {
-            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_OUTRANKED.msg());
-        } catch (ValueAdoptedException e) {
+    /**
+     * Service a request for the metadata of a range of addresses, so that clients following
+     * backpointers don't transfer the payloads of the entries they skip.
+     */
+    @ServerHandler(type = CorfuMsgType.READ_METADATA_REQUEST, opTimer = metricsPrefix + "readMetadata")
+    private void readMetadata(CorfuPayloadMsg<ReadRequest> msg, ChannelHandlerContext ctx,
+                              IServerRouter r, boolean isMetricsEnabled) {
+        log.trace("log read metadata: {}", msg.getPayload().getRange());
+
+        afterPendingWrites(LongStream.rangeClosed(msg.getPayload().getRange().lowerEndpoint(),
+                msg.getPayload().getRange().upperEndpoint()), () -> serveReadMetadata(msg, ctx, r));
+    }
+
+    private void serveReadMetadata(CorfuPayloadMsg<ReadRequest> msg, ChannelHandlerContext ctx, IServerRouter r) {
+        Map<Long, LogEntryMetadata> entries = new HashMap<>();
+        try {
+            long end = msg.getPayload().getRange().upperEndpoint() + 1L;
+            for (long start = msg.getPayload().getRange().lowerEndpoint(); start < end; start += READ_BATCH_SIZE) {
+                List<Long> batch = LongStream.range(start, Math.min(start + READ_BATCH_SIZE, end))
+                        .boxed()
+                        .collect(Collectors.toList());
+                Map<Long, ILogData> batchEntries = dataCache.getAll(batch);
+                for (Long l : batch) {
+                    ILogData e = batchEntries.get(l);
+                    entries.put(l, e == null ? LogEntryMetadata.EMPTY : new LogEntryMetadata(e));
+                }
+            }
+            r.sendResponse(ctx, msg, CorfuMsgType.READ_METADATA_RESPONSE
+                    .payloadMsg(new ReadMetadataResponse(entries)));
+        } catch (TrimmedException e) {
+            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_TRIMMED.msg());
+        } catch (DataCorruptionException e) {
+            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
+        }
+    }
 
-            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_VALUE_ADOPTED.payloadMsg(e.getReadResponse()));
+    /**
+     * Run a read once the writes to the addresses it covers which aren't durable yet
+     * have completed, so that it doesn't miss entries that are being written. The
+     * cache loader doesn't wait for these writes, as it would block the writer while
+     * it holds the lock of the cache entry.
+     *
+     * @param addresses The addresses read.
+     * @param read      The read, which runs right away if no write is pending.
+     */
+    private void afterPendingWrites(LongStream addresses, Runnable read) {
+        CompletableFuture<?>[] pending = addresses.mapToObj(batchWriter::getPendingWrite)
+                .filter(Objects::nonNull)
+                .toArray(CompletableFuture[]::new);
+        if (pending.length == 0) {
+            read.run();
+            return;
         }
+
+        // Don't serve the read on the writer thread
+        CompletableFuture.allOf(pending)
+                .handleAsync((x, ex) -> {
+                    read.run();
+                    return null;
+                }, deferredReads)
+                .exceptionally(ex -> {
+                    log.error("Failed to serve a read after the pending writes", ex);
+                    return null;
+                });
+    }
+
+    /**
+     * Load a batch of addresses through the cache into a read response, with the
+     * addresses which weren't written as empty entries.
+     */
+    private void readBatch(List<Long> batch, ReadResponse rr) {
+        Map<Long, ILogData> entries = dataCache.getAll(batch);
+        for (Long l : batch) {
+            ILogData e = entries.get(l);
+            if (e == null) {
+                rr.put(l, LogData.EMPTY);
+            } else if (e.getType() == DataType.HOLE) {
+                rr.put(l, LogData.HOLE);
+            } else {
+                // The entry may be evicted, and the storage it shares its data with
+                // freed, before the response is sent, so the response retains the
+                // storage. Entries whose storage was freed while the batch was being
+                // loaded are read again.
+                LogData data = (LogData) e;
+                while (data != null && !rr.putRetained(l, data)) {
+                    dataCache.invalidate(l);
+                    data = (LogData) dataCache.get(l);
+                }
+                if (data == null) {
+                    rr.put(l, LogData.EMPTY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Service a request for the addresses of a stream in a range, from the stream index of
+     * the log, so that clients don't have to follow the backpointers of the stream.
+     */
+    @ServerHandler(type = CorfuMsgType.STREAM_ADDRESSES_REQUEST, opTimer = metricsPrefix + "stream-addresses")
+    private void getStreamAddresses(CorfuPayloadMsg<ReadRequest> msg, ChannelHandlerContext ctx, IServerRouter r,
+                                    boolean isMetricsEnabled) {
+        ReadRequest request = msg.getPayload();
+        log.trace("stream addresses: {} {}", request.getStreamID(), request.getRange());
+        try {
+            List<Long> addresses = streamLog.getStreamAddresses(request.getStreamID(),
+                    request.getRange().lowerEndpoint(), request.getRange().upperEndpoint());
+            r.sendResponse(ctx, msg, CorfuMsgType.STREAM_ADDRESSES_RESPONSE
+                    .payloadMsg(new StreamAddressesResponse(addresses)));
+        } catch (DataCorruptionException e) {
+            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
+        }
+    }
+
+    @ServerHandler(type = CorfuMsgType.FILL_HOLE, opTimer = metricsPrefix + "fill-hole")
+    private void fillHole(CorfuPayloadMsg<TrimRequest> msg, ChannelHandlerContext ctx, IServerRouter r,
+                          boolean isMetricsEnabled) {
+        write(msg.getPayload().getAddress(), LogData.HOLE, msg, ctx, r);
     }
 
     @ServerHandler(type = CorfuMsgType.TRIM, opTimer = metricsPrefix + "fill-hole")
     private void trim(CorfuPayloadMsg<TrimRequest> msg, ChannelHandlerContext ctx, IServerRouter r,
                       boolean isMetricsEnabled) {
-        batchWriter.trim(msg.getPayload().getAddress());
         //TODO(Maithem): should we return an error if the write fails
-        r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
+        batchWriter.trim(msg.getPayload().getAddress())
+                .whenComplete((x, ex) -> r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg()));
     }
 
     @ServerHandler(type = CorfuMsgType.PREFIX_TRIM)
     private void prefixTrim(CorfuPayloadMsg<TrimRequest> msg, ChannelHandlerContext ctx, IServerRouter r,
                             boolean isMetricsEnabled) {
-        try {
-            batchWriter.prefixTrim(msg.getPayload().getAddress());
-            r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
-        } catch (TrimmedException ex) {
-            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_TRIMMED.msg());
-        }
+        batchWriter.prefixTrim(msg.getPayload().getAddress()).whenComplete((x, ex) -> {
+            Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+
+            if (cause == null) {
+                r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
+            } else if (cause instanceof TrimmedException) {
+                r.sendResponse(ctx, msg, CorfuMsgType.ERROR_TRIMMED.msg());
+            } else {
+                log.error("PrefixTrim[{}]: Failed", msg.getPayload().getAddress(), cause);
+            }
+        });
     }
 
     @ServerHandler(type = CorfuMsgType.COMPACT_REQUEST, opTimer = metricsPrefix + "compact")
@@ -230,6 +510,9 @@ public class LogUnitServer extends AbstractServer {
     private void flushCache(CorfuMsg msg, ChannelHandlerContext ctx, IServerRouter r, boolean isMetricsEnabled) {
         try {
             dataCache.invalidateAll();
+            if (offHeapCache != null) {
+                offHeapCache.invalidateAll();
+            }
         } catch (RuntimeException e) {
             log.error("Encountered error while flushing cache {}", e);
         }
@@ -248,19 +531,120 @@ public class LogUnitServer extends AbstractServer {
      * This function should not care about trimmed addresses, as that is handled in
      * the read() and append(). Any address that cannot be retrieved should be returned as
      * unwritten (null).
+     * <p>
+     * Retrievals aren't serialized: the cache coalesces concurrent misses on the same address,
+     * and the stream log only coordinates the reads and writes of the same segment.
      */
-    public synchronized ILogData handleRetrieval(long address) {
-        LogData entry = streamLog.read(address);
+    public ILogData handleRetrieval(long address) {
+        LogData entry = getOffHeap(address);
+        if (entry != null) {
+            return entry;
+        }
+        return skipPendingWrite(address, streamLog.read(address));
+    }
+
+    /**
+     * Retrieve a batch of LogUnitEntries from disk. The stream log plans the reads of the
+     * whole batch together, so that the entries of a range are read sequentially.
+     *
+     * @param addresses The addresses to retrieve the entries from.
+     * @return The log unit entries to retrieve into the cache, keyed by address. Addresses
+     * which weren't written are left out.
+     */
+    public Map<Long, ILogData> handleRetrieval(Iterable<? extends Long> addresses) {
+        Map<Long, ILogData> retrieved = new HashMap<>();
+        List<Long> batch = new ArrayList<>();
+        for (Long address : addresses) {
+            LogData entry = getOffHeap(address);
+            if (entry != null) {
+                retrieved.put(address, entry);
+            } else {
+                batch.add(address);
+            }
+        }
+
+        Map<Long, LogData> entries = batch.isEmpty() ? Collections.emptyMap() : streamLog.read(batch);
+        for (Long address : batch) {
+            ILogData entry = skipPendingWrite(address, entries.get(address));
+            if (entry != null) {
+                retrieved.put(address, entry);
+            }
+        }
+        return retrieved;
+    }
+
+    /**
+     * The entry may have been read before it was synced, in which case it must not be
+     * served, as the write could still be lost. The address is loaded as unwritten, which
+     * isn't cached: the read raced with the write, and the handlers wait for the writes
+     * pending when a read arrives before loading, see {@link #afterPendingWrites}.
+     *
+     * @param address The address the entry was read from.
+     * @param entry   The entry read, or null if the address wasn't written.
+     * @return The entry, or null if the address wasn't written or its write is pending.
+     */
+    private LogData skipPendingWrite(long address, LogData entry) {
+        if (entry != null && batchWriter.getPendingWrite(address) != null) {
+            streamLog.release(address, entry);
+            entry = null;
+        }
+
         log.trace("Retrieved[{} : {}]", address, entry);
         return entry;
     }
 
 
-    public synchronized void handleEviction(long address, ILogData entry, RemovalCause cause) {
+    /**
+     * Get an entry from the off-heap cache, if it is enabled.
+     *
+     * @param address The address of the entry.
+     * @return The entry, or null if it isn't cached off-heap.
+     */
+    @Nullable
+    private LogData getOffHeap(long address) {
+        return offHeapCache == null ? null : offHeapCache.get(address);
+    }
+
+    /**
+     * An entry written to the data cache replaces the copy of the address in the
+     * off-heap cache, if it is enabled, which is stale. This runs atomically with
+     * the write, so it is ordered with the removals of the address.
+     */
+    private void handleWrite(long address) {
+        if (offHeapCache != null) {
+            offHeapCache.invalidate(address);
+        }
+    }
+
+    /**
+     * Entries evicted from the data cache because it is full are moved to the
+     * off-heap cache, if it is enabled. This runs atomically with the eviction, so
+     * an entry being replaced by a write can't be moved after the write invalidated
+     * the off-heap copy of the address.
+     */
+    private void handleRemoval(long address, @Nullable ILogData entry, RemovalCause cause) {
+        if (offHeapCache != null && entry != null && cause == RemovalCause.SIZE) {
+            offHeapCache.put(address, entry);
+        }
+    }
+
+    /**
+     * Entries removed from the data cache are released, once any copy to the
+     * off-heap cache is done.
+     */
+    public void handleEviction(long address, ILogData entry, RemovalCause cause) {
         log.trace("Eviction[{}]: {}", address, cause);
         streamLog.release(address, (LogData) entry);
     }
 
+    /**
+     * Estimate the heap used by a cached entry, including its metadata.
+     */
+    private static int getHeapWeight(ILogData entry) {
+        return entry.getSizeEstimate() + ENTRY_OVERHEAD
+                + entry.getBackpointerMap().size() * BACKPOINTER_OVERHEAD;
+    }
+
     /**
      * Shutdown the server.
      */
@@ -268,7 +652,14 @@ public class LogUnitServer extends AbstractServer {
     public void shutdown() {
         compactor.cancel(true);
         scheduler.shutdownNow();
+        deferredReads.shutdownNow();
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
         batchWriter.close();
+        if (offHeapCache != null) {
+            offHeapCache.close();
+        }
     }
 
     @VisibleForTesting
@@ -276,6 +667,12 @@ public class LogUnitServer extends AbstractServer {
         return dataCache;
     }
 
+    @VisibleForTesting
+    @Nullable
+    OffHeapCache getOffHeapCache() {
+        return offHeapCache;
+    }
+
     @VisibleForTesting
     long getMaxCacheSize() {
         return maxCacheSize;
@@ -83,7 +83,7 @@ public class NettyServerRouter extends ChannelInboundHandlerAdapter
      */
     public void sendResponse(ChannelHandlerContext ctx, CorfuMsg inMsg, CorfuMsg outMsg) {
         outMsg.copyBaseFields(inMsg);
-        ctx.writeAndFlush(outMsg);
+        ctx.writeAndFlush(outMsg).addListener(f -> outMsg.release());
         log.trace("Sent response: {}", outMsg);
     }
 
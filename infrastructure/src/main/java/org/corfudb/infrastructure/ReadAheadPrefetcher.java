@@ -0,0 +1,187 @@
+package org.corfudb.infrastructure;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A prefetcher which detects sequential and strided reads, and loads the addresses a
+ * client is expected to read next ahead of its requests.
+ * <p>
+ * The reads of every client are tracked separately. A read follows the pattern of a
+ * client if it starts right after the previous read ended (a sequential scan), or if it
+ * starts at the same distance from the previous read as that read did from the one before
+ * (a strided scan). Once a pattern is detected, the reads predicted to cover the next
+ * {@link #depth} addresses are loaded asynchronously, in a single batch, whenever less
+ * than half of that window is left. If the prefetcher falls too far behind, new batches
+ * are dropped rather than queued, and their addresses are predicted again on a later read.
+ */
+@Slf4j
+public class ReadAheadPrefetcher implements AutoCloseable {
+
+    private static final Duration PATTERN_EXPIRY = Duration.ofMinutes(1);
+    private static final long MAX_PATTERNS = 10_000;
+    /** The number of batches which can wait for the prefetch thread. */
+    static final int MAX_QUEUED_BATCHES = 16;
+
+    private final int depth;
+    private final Consumer<List<Long>> loader;
+    private final LongSupplier tail;
+
+    private final Cache<UUID, AccessPattern> patterns = Caffeine.newBuilder()
+            .expireAfterAccess(PATTERN_EXPIRY.toMillis(), TimeUnit.MILLISECONDS)
+            .maximumSize(MAX_PATTERNS)
+            .build();
+
+    private final ExecutorService executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_BATCHES), new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("LogUnit-Prefetch-%d")
+            .build());
+
+    private final Counter counterPrefetched;
+    private final Counter counterHits;
+
+    /**
+     * The reads of a client, and the addresses prefetched for it which it hasn't read yet.
+     */
+    private static class AccessPattern {
+        private boolean started = false;
+        private long lastFirst;
+        private long lastLast;
+        private long lastStride;
+        private long prefetchedTo = -1L;
+        private final TreeSet<Long> pending = new TreeSet<>();
+    }
+
+    /**
+     * @param depth         The number of addresses to read ahead of a client.
+     * @param loader        Loads a batch of addresses into the cache.
+     * @param tail          The global tail, beyond which nothing is prefetched.
+     * @param metrics       The registry of the prefetcher's metrics.
+     * @param metricsPrefix The prefix of the prefetcher's metrics.
+     */
+    public ReadAheadPrefetcher(int depth, Consumer<List<Long>> loader, LongSupplier tail,
+                               MetricRegistry metrics, String metricsPrefix) {
+        this.depth = depth;
+        this.loader = loader;
+        this.tail = tail;
+
+        counterPrefetched = metrics.counter(metricsPrefix + "prefetched");
+        counterHits = metrics.counter(metricsPrefix + "hits");
+        try {
+            metrics.register(metricsPrefix + "hit-rate", (Gauge<Double>) () ->
+                    counterPrefetched.getCount() == 0 ? 0.0
+                            : (double) counterHits.getCount() / counterPrefetched.getCount());
+        } catch (IllegalArgumentException e) {
+            // Re-registering metrics during test runs, not a problem
+        }
+    }
+
+    /**
+     * Record a read, and prefetch the addresses the client is expected to read next if
+     * its reads follow a pattern.
+     *
+     * @param clientId The client which issued the read.
+     * @param first    The first address read.
+     * @param last     The last address read.
+     */
+    public void onRead(UUID clientId, long first, long last) {
+        AccessPattern pattern = patterns.get(clientId, id -> new AccessPattern());
+        List<Long> prefetch = new ArrayList<>();
+
+        synchronized (pattern) {
+            int hits = pattern.pending.subSet(first, true, last, true).size();
+            if (hits > 0) {
+                pattern.pending.subSet(first, true, last, true).clear();
+                counterHits.inc(hits);
+            }
+
+            long stride = first - pattern.lastFirst;
+            boolean predictable = pattern.started && stride > 0
+                    && (first == pattern.lastLast + 1 || stride == pattern.lastStride);
+            pattern.started = true;
+            pattern.lastFirst = first;
+            pattern.lastLast = last;
+            pattern.lastStride = stride;
+
+            if (!predictable) {
+                pattern.prefetchedTo = last;
+                pattern.pending.clear();
+                return;
+            }
+
+            // Read ahead in large batches, rather than a few addresses after every read
+            if (pattern.prefetchedTo - last > depth / 2) {
+                return;
+            }
+
+            long limit = Math.min(last + depth, tail.getAsLong());
+            long width = last - first + 1;
+            for (long next = first + stride; next <= limit; next += stride) {
+                for (long address = Math.max(next, pattern.prefetchedTo + 1);
+                     address <= Math.min(next + width - 1, limit); address++) {
+                    prefetch.add(address);
+                }
+            }
+            if (prefetch.isEmpty()) {
+                return;
+            }
+
+            pattern.prefetchedTo = prefetch.get(prefetch.size() - 1);
+            pattern.pending.addAll(prefetch);
+            while (pattern.pending.size() > depth) {
+                // Addresses the client skipped
+                pattern.pending.pollFirst();
+            }
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    loader.accept(prefetch);
+                } catch (RuntimeException e) {
+                    // The client will read the addresses itself, and get the error if any
+                    log.debug("Prefetch[{}-{}]: failed", prefetch.get(0), prefetch.get(prefetch.size() - 1), e);
+                }
+            });
+            counterPrefetched.inc(prefetch.size());
+        } catch (RejectedExecutionException e) {
+            // The queue is full or the prefetcher is closed, forget the batch so that
+            // its addresses aren't counted as hits, and are predicted again
+            synchronized (pattern) {
+                pattern.pending.removeAll(prefetch);
+                if (pattern.prefetchedTo == prefetch.get(prefetch.size() - 1)) {
+                    pattern.prefetchedTo = prefetch.get(0) - 1;
+                }
+            }
+            log.trace("Prefetch[{}]: dropped {} addresses", clientId, prefetch.size());
+        }
+    }
+
+    /**
+     * Stop prefetching.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
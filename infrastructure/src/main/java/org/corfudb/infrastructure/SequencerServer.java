@@ -2,10 +2,12 @@ package org.corfudb.infrastructure;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.codahale.metrics.Gauge;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.channel.ChannelHandlerContext;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -15,16 +17,22 @@ import org.corfudb.util.MetricsUtils;
 import org.corfudb.util.Utils;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-
-import static org.corfudb.util.MetricsUtils.addCacheGauges;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This server implements the sequencer functionality of Corfu.
@@ -63,6 +71,21 @@ import static org.corfudb.util.MetricsUtils.addCacheGauges;
  * commits, the sequencer updates the tails of all the streams and the cache
  * of conflict parameters.
  *
+ * Token requests are served concurrently. Queries and raw tokens only read or
+ * atomically extend the global tail. Allocations on streams lock the stripes of
+ * their streams, so that the tail of every stream advances in the order of the
+ * global log and backpointers chain correctly, while allocations on unrelated
+ * streams proceed in parallel. Only transactions are ordered among themselves,
+ * since resolving a conflict must not interleave with updates of the conflict
+ * parameters it checks.
+ *
+ * If snapshots are enabled, the sequencer periodically saves its state in the
+ * data store of its node. When the sequencer is promoted again, it is recovered
+ * with the tails of the streams written in the last addresses of the log: if
+ * its snapshot reaches these addresses, the sequencer resumes with exact stream
+ * tails and conflict information, instead of aborting every transaction which
+ * started before the promotion.
+ *
  * Created by mwei on 12/8/15.
  */
 @Slf4j
@@ -73,6 +96,16 @@ public class SequencerServer extends AbstractServer {
      */
     private static final String PREFIX_SEQUENCER = "SEQUENCER";
 
+    /**
+     * key-name of the last snapshot of the {@link SequencerServer} state.
+     */
+    private static final String KEY_SNAPSHOT = "SNAPSHOT";
+
+    /**
+     * The maximum number of conflict-parameter updates kept in a snapshot.
+     */
+    private static final int SNAPSHOT_CONFLICT_WINDOW = 10_000;
+
     /**
      * Inherit from CorfuServer a server context
      */
@@ -98,35 +131,51 @@ public class SequencerServer extends AbstractServer {
      *      backpointers. */
     private final ConcurrentHashMap<UUID, Long> streamTailToGlobalTailMap = new ConcurrentHashMap<>();
 
+    /** The number of stripes the streams are locked by. */
+    private static final int STREAM_LOCK_STRIPES = 256;
+
+    /**  - {@link SequencerServer::streamLocks}:
+     *      serialize the updates of the tail of a stream with the checks
+     *      of that tail. Streams which map to the same stripe share a lock. */
+    private final Striped<Lock> streamLocks = Striped.lock(STREAM_LOCK_STRIPES);
+
+    /**  - {@link SequencerServer::txLock}:
+     *      orders transaction conflict resolution, and protects the
+     *      conflict-parameters cache and wildcard. */
+    private final Lock txLock = new ReentrantLock();
+
     /**  TX conflict-resolution information:
      *
      * {@link SequencerServer::conflictToGlobalTailCache}:
-     *      a cache of recent conflict keys and their latest global-log
-     *      position.
-     *
-     * {@link SequencerServer::maxConflictWildcard} :
-     *      a "wildcard" representing the maximal update timestamp of
-     *      all the confict keys which were evicted from the cache
+     *      a table of recent conflict keys and their latest global-log
+     *      position, and a "wildcard" representing the maximal update
+     *      timestamp of all the confict keys which were evicted from it.
      */
-    private long maxConflictWildcard = Address.NOT_FOUND;
-    private final long maxConflictCacheSize = 1_000_000;
-    private final Cache<Integer, Long>
-            conflictToGlobalTailCache = Caffeine.newBuilder()
-            .maximumSize(maxConflictCacheSize)
-            .removalListener((Integer K, Long V, RemovalCause cause) -> {
-                if (!RemovalCause.REPLACED.equals(cause)) {
-                    log.trace("Updating maxConflictWildcard. Old value = '{}', new value = '{}', conflictParam = '{}'. Removal cause = '{}'",
-                            maxConflictWildcard, V, K, cause);
-                    maxConflictWildcard = Math.max(V, maxConflictWildcard);
-                }
-            })
-            .recordStats()
-            .build();
+    private final int maxConflictCacheSize = 1_000_000;
+    private final ConflictTable conflictToGlobalTailCache =
+            new ConflictTable(maxConflictCacheSize, Address.NOT_FOUND);
+
+    /**  - {@link SequencerServer::conflictFloors}:
+     *      per stream, a timestamp up to which every conflict-parameter of the
+     *      stream is assumed to have been updated. These are streams written
+     *      while the sequencer wasn't serving, whose updated parameters are
+     *      unknown. Protected by the transaction lock. */
+    private final Map<UUID, Long> conflictFloors = new HashMap<>();
 
     /** flag indicating whether this sequencer is the bootstrap
      * sequencer for the log, or not.
      */
-    private boolean isFailoverSequencer = false;
+    private volatile boolean isFailoverSequencer = false;
+
+    /** Takes the periodic snapshots of the state, if they are enabled. */
+    private final ScheduledExecutorService snapshotScheduler;
+
+    /** Serializes saving the snapshot with discarding it. */
+    private final Object snapshotMonitor = new Object();
+
+    /** Incremented, under the transaction lock, whenever the sequencer is reset or
+     * recovered, so that a snapshot of the previous term isn't saved afterwards. */
+    private volatile long term = 0;
 
     /** Handler for this server */
     @Getter
@@ -148,10 +197,33 @@ public class SequencerServer extends AbstractServer {
             globalLogTail.set(initialToken);
         }
 
+        long snapshotInterval = Utils.parseLong(opts.get("--snapshot-interval"));
+        if (snapshotInterval > 0) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("Sequencer-Snapshot-%d")
+                            .build());
+            snapshotScheduler.scheduleWithFixedDelay(this::saveSnapshot, snapshotInterval,
+                    snapshotInterval, TimeUnit.SECONDS);
+        } else {
+            snapshotScheduler = null;
+        }
+
         MetricRegistry metrics = serverContext.getMetrics();
         counterTokenSum = metrics.counter(metricsPrefix + "token-sum");
         counterToken0 = metrics.counter(metricsPrefix + "token-query");
-        addCacheGauges(metrics, metricsPrefix + "conflict.cache.", conflictToGlobalTailCache);
+        try {
+            // Read without the transaction lock, so the values are only estimates
+            metrics.register(metricsPrefix + "conflict.cache.cache-size",
+                    (Gauge<Integer>) conflictToGlobalTailCache::size);
+            metrics.register(metricsPrefix + "conflict.cache.evictions",
+                    (Gauge<Long>) conflictToGlobalTailCache::getEvictions);
+            metrics.register(metricsPrefix + "conflict.cache.wildcard",
+                    (Gauge<Long>) conflictToGlobalTailCache::getWildcard);
+        } catch (IllegalArgumentException e) {
+            // Re-registering metrics during test runs, not a problem
+        }
     }
 
     /** Get the conflict hash code for a stream ID and conflict param.
@@ -160,8 +232,8 @@ public class SequencerServer extends AbstractServer {
      * @param conflictParam     The conflict parameter.
      * @return                  A conflict hash code.
      */
-    public int getConflictHashCode(UUID streamID, int conflictParam) {
-            return Objects.hash(streamID, conflictParam);
+    public long getConflictHashCode(UUID streamID, int conflictParam) {
+            return ConflictTable.getKey(streamID, conflictParam);
     }
 
     /**
@@ -197,44 +269,50 @@ public class SequencerServer extends AbstractServer {
             // if conflict-parameters are present, check for conflict based on conflict-parameter updates
             Set<Integer> conflictParamSet = entry.getValue();
             if (conflictParamSet != null && conflictParamSet.size() > 0) {
+                // the updated parameters of streams written before a recovery are unknown
+                Long floor = conflictFloors.isEmpty() ? null : conflictFloors.get(entry.getKey());
+                if (floor != null && floor > txSnapshotTimestamp) {
+                    log.debug("ABORT[{}] conflict-stream[{}](recovered ts={})",
+                            txInfo, Utils.toReadableID(entry.getKey()), floor);
+                    conflictKey.set(conflictParamSet.iterator().next());
+                    response.set(TokenType.TX_ABORT_CONFLICT);
+                    break;
+                }
+
                 // for each key pair, check for conflict;
                 // if not present, check against the wildcard
-                conflictParamSet.forEach(conflictParam -> {
-                    int conflictKeyHash = getConflictHashCode(entry.getKey(),
+                for (int conflictParam : conflictParamSet) {
+                    long conflictKeyHash = getConflictHashCode(entry.getKey(),
                             conflictParam);
-                    Long v = conflictToGlobalTailCache.getIfPresent(conflictKeyHash);
+                    long v = conflictToGlobalTailCache.get(conflictKeyHash);
 
-                    log.trace("Commit-ck[{}] conflict-key[{}](ts={})", txInfo, conflictParam, v);
-
-                    if (v != null && v > txSnapshotTimestamp ) {
+                    if (v != ConflictTable.ABSENT && v > txSnapshotTimestamp ) {
                         log.debug("ABORT[{}] conflict-key[{}](ts={})", txInfo, conflictParam, v);
                         conflictKey.set(conflictParam);
                         response.set(TokenType.TX_ABORT_CONFLICT);
+                        break;
                     }
 
-                    if (v == null && maxConflictWildcard > txSnapshotTimestamp ) {
+                    if (v == ConflictTable.ABSENT
+                            && conflictToGlobalTailCache.getWildcard() > txSnapshotTimestamp ) {
                         log.warn("ABORT[{}] conflict-key[{}](WILDCARD ts={})", txInfo, conflictParam,
-                                maxConflictWildcard);
+                                conflictToGlobalTailCache.getWildcard());
                         conflictKey.set(conflictParam);
                         response.set(TokenType.TX_ABORT_CONFLICT);
+                        break;
                     }
-                });
+                }
             }
 
             // otherwise, check for conflict based on streams updates
             else {
                 UUID streamID = entry.getKey();
-                streamTailToGlobalTailMap.compute(streamID, (k, v) -> {
-                    if (v == null) {
-                        return null;
-                    }
-                    if (v > txSnapshotTimestamp) {
-                        log.debug("ABORT[{}] conflict-stream[{}](ts={})",
-                                txInfo, Utils.toReadableID(streamID), v);
-                        response.set(TokenType.TX_ABORT_CONFLICT);
-                    }
-                    return v;
-                });
+                Long v = streamTailToGlobalTailMap.get(streamID);
+                if (v != null && v > txSnapshotTimestamp) {
+                    log.debug("ABORT[{}] conflict-stream[{}](ts={})",
+                            txInfo, Utils.toReadableID(streamID), v);
+                    response.set(TokenType.TX_ABORT_CONFLICT);
+                }
             }
         }
 
@@ -247,47 +325,49 @@ public class SequencerServer extends AbstractServer {
      * This returns information about the tail of the
      * log and/or streams without changing/allocating anything.
      *
-     * @param msg
-     * @param ctx
-     * @param r
+     * The tail of every stream in the query is returned in the backpointer map of the
+     * response. The token is the tail of the stream if the query is for a single stream,
+     * and the global tail otherwise, which is no smaller than any of the stream tails.
+     *
+     * @param req           The query.
+     * @param serverEpoch   The epoch of the server.
+     * @return              The response to the query.
      */
-    public void handleTokenQuery(CorfuPayloadMsg<TokenRequest> msg,
-                                 ChannelHandlerContext ctx, IServerRouter r) {
-        TokenRequest req = msg.getPayload();
-
-        // sanity backward-compatibility assertion; TODO: remove
-        if (req.getStreams().size() > 1) {
-            log.error("TOKEN-QUERY[{}]", req.getStreams());
-        }
-
+    public TokenResponse handleTokenQuery(TokenRequest req, long serverEpoch) {
+        ImmutableMap.Builder<UUID, Long> streamTails = ImmutableMap.builder();
         long maxStreamGlobalTail = Address.NON_EXIST;
 
-        // see if this query is for a specific stream-tail
-        if (req.getStreams().size() == 1) {
-            UUID streamID = req.getStreams().iterator().next();
+        for (UUID streamID : req.getStreams()) {
+            Long streamTail = streamTailToGlobalTailMap.get(streamID);
 
-            if (streamTailToGlobalTailMap.get(streamID) != null)
-                maxStreamGlobalTail = streamTailToGlobalTailMap.get(streamID);
+            if (streamTail != null)
+                maxStreamGlobalTail = streamTail;
 
             // if we don't have informatin about this stream tail because of fail-over,
                 // return the global tail of the log
             else if (isFailoverSequencer)
                 maxStreamGlobalTail = globalLogTail.get() - 1L;
+
+            else
+                maxStreamGlobalTail = Address.NON_EXIST;
+
+            streamTails.put(streamID, maxStreamGlobalTail);
         }
 
-        // If no streams are specified in the request, this value returns the last global token issued.
-        long responseGlobalTail = (req.getStreams().size() == 0) ? globalLogTail.get() - 1 : maxStreamGlobalTail;
-        Token token = new Token(responseGlobalTail, r.getServerEpoch());
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(
-                TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token, Collections.emptyMap())));
+        // If the request is not for a single stream, this value returns the last global token issued.
+        // It is read after the stream tails, so that it covers all of them.
+        long responseGlobalTail = (req.getStreams().size() == 1) ? maxStreamGlobalTail : globalLogTail.get() - 1;
+        Token token = new Token(responseGlobalTail, serverEpoch);
+        return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                streamTails.build());
     }
 
     /**
      * Service an incoming request to reset the sequencer.
      */
     @ServerHandler(type=CorfuMsgType.RESET_SEQUENCER, opTimer=metricsPrefix + "reset")
-    public synchronized void resetServer(CorfuPayloadMsg<Long> msg, ChannelHandlerContext ctx, IServerRouter r,
-                                         boolean isMetricsEnabled) {
+    public void resetServer(CorfuPayloadMsg<Long> msg, ChannelHandlerContext ctx, IServerRouter r,
+                            boolean isMetricsEnabled) {
          long initialToken = msg.getPayload();
 
         //
@@ -303,25 +383,180 @@ public class SequencerServer extends AbstractServer {
         // Note, this is correct, but conservative (may lead to false abort).
         // It is necessary because we reset the sequencer.
         //
-        if (initialToken > globalLogTail.get()) {
-            isFailoverSequencer = true;
-            globalLogTail.set(initialToken);
-            globalLogStart.set(initialToken);
-            maxConflictWildcard = initialToken-1;
-            conflictToGlobalTailCache.invalidateAll();
+        boolean isReset = false;
+        txLock.lock();
+        try {
+            // raw tokens extend the tail without any lock, so only move it forward atomically
+            long previousTail = globalLogTail.getAndAccumulate(initialToken, Math::max);
+            if (initialToken > previousTail) {
+                isReset = true;
+                isFailoverSequencer = true;
+                globalLogStart.set(initialToken);
+                conflictToGlobalTailCache.clear(initialToken-1);
+                conflictFloors.clear();
+                term++;
+            }
+        } finally {
+            txLock.unlock();
+        }
+        if (isReset) {
+            replaceSnapshot();
         }
 
         log.info("Sequencer reset with token = {}", initialToken);
         r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
     }
 
+    /**
+     * Service an incoming request to recover the sequencer.
+     *
+     * Like a reset, but the state of the sequencer is rebuilt from the tails of the
+     * streams written in the scanned addresses, and from the last snapshot of the
+     * sequencer if the request allows it and the snapshot reaches the scanned addresses.
+     * Otherwise, the sequencer only knows about the scanned addresses: transactions
+     * with a snapshot time before them abort, and the streams which weren't written in
+     * them are served without backpointers.
+     */
+    @ServerHandler(type=CorfuMsgType.RECOVER_SEQUENCER, opTimer=metricsPrefix + "recover")
+    public void recoverServer(CorfuPayloadMsg<SequencerRecoveryRequest> msg, ChannelHandlerContext ctx,
+                              IServerRouter r, boolean isMetricsEnabled) {
+        SequencerRecoveryRequest req = msg.getPayload();
+        final long initialToken = req.getInitialToken();
+        final long scanStart = req.getScanStart();
+        SequencerSnapshot snapshot = req.getResume() ? loadSnapshot() : null;
+
+        txLock.lock();
+        List<Lock> locks = lockAllStreams();
+        try {
+            if (initialToken <= globalLogTail.get()) {
+                // this sequencer kept serving, its state is current
+                log.info("Sequencer recovery ignored, tail {} is ahead of token {}",
+                        globalLogTail.get(), initialToken);
+            } else if (snapshot != null && snapshot.getGlobalTail() >= scanStart) {
+                streamTailToGlobalTailMap.clear();
+                streamTailToGlobalTailMap.putAll(snapshot.getStreamTails());
+                req.getStreamTails().forEach((id, tail) ->
+                        streamTailToGlobalTailMap.merge(id, tail, Math::max));
+
+                // the parameters updated after the snapshot are unknown
+                conflictToGlobalTailCache.restore(snapshot.getConflictWindow());
+                conflictFloors.clear();
+                conflictFloors.putAll(snapshot.getConflictFloors());
+                req.getStreamTails().forEach((id, tail) -> {
+                    if (tail >= snapshot.getGlobalTail()) {
+                        conflictFloors.merge(id, tail, Math::max);
+                    }
+                });
+
+                isFailoverSequencer = snapshot.isFailoverSequencer();
+                globalLogStart.set(snapshot.getGlobalLogStart());
+                globalLogTail.accumulateAndGet(Math.max(initialToken, snapshot.getGlobalTail()), Math::max);
+                log.info("Sequencer recovered from snapshot at {} and scan from {}, token = {}",
+                        snapshot.getGlobalTail(), scanStart, globalLogTail.get());
+            } else {
+                streamTailToGlobalTailMap.clear();
+                streamTailToGlobalTailMap.putAll(req.getStreamTails());
+
+                // any parameter of the scanned streams may have been updated
+                conflictToGlobalTailCache.clear(scanStart - 1);
+                conflictFloors.clear();
+                conflictFloors.putAll(req.getStreamTails());
+
+                isFailoverSequencer = true;
+                globalLogStart.set(scanStart);
+                globalLogTail.accumulateAndGet(initialToken, Math::max);
+                log.info("Sequencer recovered from scan from {}, token = {}", scanStart, initialToken);
+            }
+            term++;
+        } finally {
+            unlockStreams(locks);
+            txLock.unlock();
+        }
+        replaceSnapshot();
+
+        r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
+    }
+
+    /**
+     * Take a snapshot of the state of the sequencer, and save it in the data store,
+     * unless no token was issued since the last snapshot.
+     */
+    @VisibleForTesting
+    void saveSnapshot() {
+        synchronized (snapshotMonitor) {
+            try {
+                SequencerSnapshot last = loadSnapshot();
+                if (last != null && last.getGlobalTail() >= globalLogTail.get()) {
+                    return;
+                }
+
+                // The snapshot has to cover every token below its global tail. The stream
+                // tails are copied once the allocations of those tokens have completed, which
+                // is awaited one stripe at a time rather than by stopping every allocation.
+                // Later allocations may be included, their addresses are scanned on recovery.
+                final long snapshotTerm = term;
+                final long globalTail = globalLogTail.get();
+                for (int i = 0; i < streamLocks.size(); i++) {
+                    Lock lock = streamLocks.getAt(i);
+                    lock.lock();
+                    lock.unlock();
+                }
+                Map<UUID, Long> streamTails = new HashMap<>(streamTailToGlobalTailMap);
+
+                // Transactions allocate under the transaction lock, so the conflict window
+                // covers the transactions below the global tail once it is taken
+                SequencerSnapshot snapshot;
+                txLock.lock();
+                try {
+                    if (snapshotTerm != term) {
+                        // the sequencer was reset meanwhile, the snapshot is outdated
+                        return;
+                    }
+                    snapshot = new SequencerSnapshot(globalTail, globalLogStart.get(),
+                            isFailoverSequencer, streamTails,
+                            conflictToGlobalTailCache.getWindow(SNAPSHOT_CONFLICT_WINDOW),
+                            new HashMap<>(conflictFloors));
+                } finally {
+                    txLock.unlock();
+                }
+
+                if (snapshotTerm != term) {
+                    // the sequencer was reset meanwhile, the snapshot is outdated
+                    return;
+                }
+                serverContext.getDataStore().put(SequencerSnapshot.class, PREFIX_SEQUENCER,
+                        KEY_SNAPSHOT, snapshot);
+                log.debug("Sequencer snapshot saved at {}", snapshot.getGlobalTail());
+            } catch (RuntimeException e) {
+                log.error("Sequencer snapshot failed", e);
+            }
+        }
+    }
+
+    private SequencerSnapshot loadSnapshot() {
+        return serverContext.getDataStore().get(SequencerSnapshot.class, PREFIX_SEQUENCER, KEY_SNAPSHOT);
+    }
+
+    /**
+     * Discard the snapshot of the previous term of the sequencer, and snapshot the
+     * new term right away if snapshots are enabled.
+     */
+    private void replaceSnapshot() {
+        synchronized (snapshotMonitor) {
+            serverContext.getDataStore().delete(SequencerSnapshot.class, PREFIX_SEQUENCER, KEY_SNAPSHOT);
+        }
+        if (snapshotScheduler != null) {
+            snapshotScheduler.execute(this::saveSnapshot);
+        }
+    }
+
     /**
      * Service an incoming token request.
      */
     @ServerHandler(type=CorfuMsgType.TOKEN_REQ, opTimer=metricsPrefix + "token-req")
-    public synchronized void tokenRequest(CorfuPayloadMsg<TokenRequest> msg,
-                                          ChannelHandlerContext ctx, IServerRouter r,
-                                          boolean isMetricsEnabled) {
+    public void tokenRequest(CorfuPayloadMsg<TokenRequest> msg,
+                             ChannelHandlerContext ctx, IServerRouter r,
+                             boolean isMetricsEnabled) {
         TokenRequest req = msg.getPayload();
 
         // metrics collection
@@ -331,23 +566,61 @@ public class SequencerServer extends AbstractServer {
             MetricsUtils.incConditionalCounter(isMetricsEnabled, counterTokenSum, req.getNumTokens());
         }
 
-        // dispatch request handler according to request type
+        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(
+                handleTokenRequest(req, r.getServerEpoch())));
+    }
+
+    /**
+     * Service an incoming batch of token requests, in a single pass and in the
+     * order of the batch.
+     */
+    @ServerHandler(type=CorfuMsgType.TOKEN_BATCH_REQ, opTimer=metricsPrefix + "token-batch-req")
+    public void tokenBatchRequest(CorfuPayloadMsg<TokenBatchRequest> msg,
+                                  ChannelHandlerContext ctx, IServerRouter r,
+                                  boolean isMetricsEnabled) {
+        final long serverEpoch = r.getServerEpoch();
+        List<TokenRequest> requests = msg.getPayload().getRequests();
+        List<TokenResponse> responses = new ArrayList<>(requests.size());
+
+        long numQueries = 0;
+        long numTokens = 0;
+        for (TokenRequest req : requests) {
+            if (req.getReqType() == TokenRequest.TK_QUERY) {
+                numQueries++;
+            } else {
+                numTokens += req.getNumTokens();
+            }
+            responses.add(handleTokenRequest(req, serverEpoch));
+        }
+
+        // metrics collection
+        MetricsUtils.incConditionalCounter(isMetricsEnabled, counterToken0, numQueries);
+        MetricsUtils.incConditionalCounter(isMetricsEnabled, counterTokenSum, numTokens);
+
+        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_BATCH_RES.payloadMsg(
+                new TokenBatchResponse(responses)));
+    }
+
+    /**
+     * Dispatch a token request to the handler of its type.
+     *
+     * @param req           The token request.
+     * @param serverEpoch   The epoch of the server.
+     * @return              The response to the request.
+     */
+    private TokenResponse handleTokenRequest(TokenRequest req, long serverEpoch) {
         switch (req.getReqType()) {
             case TokenRequest.TK_QUERY:
-                handleTokenQuery(msg, ctx, r);
-                return;
+                return handleTokenQuery(req, serverEpoch);
 
             case TokenRequest.TK_RAW:
-                handleRawToken(msg, ctx, r);
-                return;
+                return handleRawToken(req, serverEpoch);
 
             case TokenRequest.TK_TX:
-                handleTxToken(msg, ctx, r);
-                return;
+                return handleTxToken(req, serverEpoch);
 
             default:
-                handleAllocation(msg, ctx, r);
-                return;
+                return handleAllocation(req, serverEpoch);
         }
     }
 
@@ -355,19 +628,14 @@ public class SequencerServer extends AbstractServer {
      * this method serves log-tokens for a raw log implementation.
      * it simply extends the global log tail and returns the global-log token
      *
-     * @param msg
-     * @param ctx
-     * @param r
+     * @param req           The token request.
+     * @param serverEpoch   The epoch of the server.
+     * @return              The response to the request.
      */
-    private void handleRawToken(CorfuPayloadMsg<TokenRequest> msg,
-                                ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleRawToken(TokenRequest req, long serverEpoch) {
         Token token = new Token(globalLogTail.getAndAdd(req.getNumTokens()), serverEpoch);
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(
-                TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token, Collections.emptyMap())));
-
+        return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                Collections.emptyMap());
     }
 
     /**
@@ -379,36 +647,89 @@ public class SequencerServer extends AbstractServer {
      *  - if the transaction may commit,
      *    then a normal allocation of log position(s) is pursued.
      *
-     * @param msg
-     * @param ctx
-     * @param r
+     * The check and the allocation are atomic with respect to other transactions,
+     * and to allocations on the streams the transaction reads or writes.
+     *
+     * @param req           The token request.
+     * @param serverEpoch   The epoch of the server.
+     * @return              The response to the request.
      */
-    private void handleTxToken(CorfuPayloadMsg<TokenRequest> msg,
-                                ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleTxToken(TokenRequest req, long serverEpoch) {
         // Since Java does not allow an easy way for a function to return multiple values, this
         // variable is passed to the consumer that will use it to indicate to us if/what key was
         // responsible for an aborted transaction.
         AtomicReference<Integer> conflictKey = new AtomicReference(TokenResponse.NO_CONFLICT_KEY);
 
-        // in the TK_TX request type, the sequencer is utilized for transaction conflict-resolution.
-        // Token allocation is conditioned on commit.
-        // First, we check if the transaction can commit.
-        TokenType tokenType = txnCanCommit(req.getTxnResolution(), conflictKey);
-        if (tokenType != TokenType.NORMAL) {
-            // If the txn aborts, then DO NOT hand out a token.
-            Token token = new Token(Address.ABORTED, serverEpoch);
-            r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(tokenType,
-                    conflictKey.get(), token, Collections.emptyMap())));
-            return;
+        Set<UUID> streams = new HashSet<>(req.getStreams());
+        streams.addAll(req.getTxnResolution().getConflictSet().keySet());
+
+        txLock.lock();
+        List<Lock> locks = lockStreams(streams);
+        try {
+            // in the TK_TX request type, the sequencer is utilized for transaction conflict-resolution.
+            // Token allocation is conditioned on commit.
+            // First, we check if the transaction can commit.
+            TokenType tokenType = txnCanCommit(req.getTxnResolution(), conflictKey);
+            if (tokenType != TokenType.NORMAL) {
+                // If the txn aborts, then DO NOT hand out a token.
+                Token token = new Token(Address.ABORTED, serverEpoch);
+                return new TokenResponse(tokenType, conflictKey.get(), token, Collections.emptyMap());
+            }
+
+            // if we get here, this means the transaction can commit.
+            // allocate() does the actual allocation of log position(s)
+            // and returns the reponse
+            return allocate(req, serverEpoch);
+        } finally {
+            unlockStreams(locks);
+            txLock.unlock();
+        }
+    }
+
+    /**
+     * this method serves token-requests on one or more streams.
+     *
+     * @param req           The token request.
+     * @param serverEpoch   The epoch of the server.
+     * @return              The response to the request.
+     */
+    private TokenResponse handleAllocation(TokenRequest req, long serverEpoch) {
+        List<Lock> locks = lockStreams(req.getStreams());
+        try {
+            return allocate(req, serverEpoch);
+        } finally {
+            unlockStreams(locks);
+        }
+    }
+
+    /**
+     * Lock the stripes of the given streams. The locks are taken in the order of
+     * the stripes, so requests on overlapping streams can't deadlock.
+     *
+     * @param streams   The streams to lock.
+     * @return          The locks taken, to be released by {@link #unlockStreams(List)}.
+     */
+    private List<Lock> lockStreams(Iterable<UUID> streams) {
+        List<Lock> locks = Lists.newArrayList(streamLocks.bulkGet(streams));
+        locks.forEach(Lock::lock);
+        return locks;
+    }
+
+    /**
+     * Lock the stripes of all the streams, in the order of the stripes.
+     */
+    private List<Lock> lockAllStreams() {
+        List<Lock> locks = new ArrayList<>(streamLocks.size());
+        for (int i = 0; i < streamLocks.size(); i++) {
+            Lock lock = streamLocks.getAt(i);
+            lock.lock();
+            locks.add(lock);
         }
+        return locks;
+    }
 
-        // if we get here, this means the transaction can commit.
-        // handleAllocation() does the actual allocation of log position(s)
-        // and returns the reponse
-        handleAllocation(msg, ctx, r);
+    private void unlockStreams(List<Lock> locks) {
+        Lists.reverse(locks).forEach(Lock::unlock);
     }
 
     /**
@@ -416,15 +737,14 @@ public class SequencerServer extends AbstractServer {
      * it also maintains stream-tails, returns a map of stream-tails for backpointers,
      * and maintains a conflict-parameters map.
      *
-     * @param msg
-     * @param ctx
-     * @param r
+     * The caller must hold the locks of the streams of the request, and the
+     * transaction lock if the request is a transaction.
+     *
+     * @param req           The token request.
+     * @param serverEpoch   The epoch of the server.
+     * @return              The response to the request.
      */
-    private void handleAllocation(CorfuPayloadMsg<TokenRequest> msg,
-                                  ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse allocate(TokenRequest req, long serverEpoch) {
         // extend the tail of the global log by the requested # of tokens
         // currentTail is the first available position in the global log
         long currentTail = globalLogTail.getAndAdd(req.getNumTokens());
@@ -438,43 +758,52 @@ public class SequencerServer extends AbstractServer {
         for (UUID id : req.getStreams()) {
 
             // step 1. and 2. (comment above)
-            streamTailToGlobalTailMap.compute(id, (k, v) -> {
-                if (v == null) {
-                    if (!isFailoverSequencer)
-                        backPointerMap.put(k, Address.NON_EXIST);
-                    else {
-                        backPointerMap.put(k, Address.NO_BACKPOINTER);
-                    }
-                    return newTail-1;
-                } else {
-                    backPointerMap.put(k, v);
-                    return newTail-1;
+            Long v = streamTailToGlobalTailMap.put(id, newTail - 1);
+            if (v == null) {
+                if (!isFailoverSequencer)
+                    backPointerMap.put(id, Address.NON_EXIST);
+                else {
+                    backPointerMap.put(id, Address.NO_BACKPOINTER);
                 }
-            });
+            } else {
+                backPointerMap.put(id, v);
+            }
         }
 
         // update the cache of conflict parameters
-        if (req.getTxnResolution() != null)
-            req.getTxnResolution().getWriteConflictParams().entrySet()
-                .stream()
-                    // for each entry
-                .forEach(txEntry ->
-                        // and for each conflict param
-                            txEntry.getValue().stream().forEach(conflictParam ->
-                                    // insert an entry with the new timestamp
-                                    // using the hash code based on the param
-                                    // and the stream id.
-                                    conflictToGlobalTailCache.put(
-                                            getConflictHashCode(txEntry
-                                                    .getKey(), conflictParam),
-                                            newTail - 1)));
+        if (req.getTxnResolution() != null) {
+            // for each entry
+            for (Map.Entry<UUID, Set<Integer>> txEntry
+                    : req.getTxnResolution().getWriteConflictParams().entrySet()) {
+                // and for each conflict param
+                for (int conflictParam : txEntry.getValue()) {
+                    // insert an entry with the new timestamp
+                    // using the hash code based on the param
+                    // and the stream id.
+                    conflictToGlobalTailCache.put(
+                            getConflictHashCode(txEntry.getKey(), conflictParam),
+                            newTail - 1);
+                }
+            }
+        }
 
         log.trace("token {} backpointers {}",
                 currentTail, backPointerMap.build());
         // return the token response with the new global tail
         // and the streams backpointers
         Token token = new Token(currentTail, serverEpoch);
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(
-                TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token, backPointerMap.build())));
+        return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                backPointerMap.build());
+    }
+
+    /**
+     * Shutdown the server.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
     }
 }
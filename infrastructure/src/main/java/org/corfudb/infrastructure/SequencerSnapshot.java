@@ -0,0 +1,39 @@
+package org.corfudb.infrastructure;
+
+import java.util.Map;
+import java.util.UUID;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The state of a sequencer at a point of the log, kept in the {@link DataStore} of its
+ * node so that it can resume serving tokens without conservative aborts when it is
+ * promoted again.
+ * <p>
+ * The snapshot is exact for all the tokens issued below {@link #globalTail}: the tails
+ * of the streams are the last tokens issued on them, and the conflict window holds the
+ * latest updates of the conflict parameters.
+ */
+@Data
+@AllArgsConstructor
+public class SequencerSnapshot {
+
+    /** The global log tail when the snapshot was taken. */
+    final long globalTail;
+
+    /** The start of the knowledge of the sequencer, see {@link SequencerServer}. */
+    final long globalLogStart;
+
+    /** Whether the sequencer was missing the tails of streams written before its start. */
+    final boolean failoverSequencer;
+
+    /** The last token issued on every stream. */
+    final Map<UUID, Long> streamTails;
+
+    /** The most recent updates of conflict parameters. */
+    final ConflictTable.Window conflictWindow;
+
+    /** The timestamps below which the conflict parameters of a stream are unknown. */
+    final Map<UUID, Long> conflictFloors;
+}
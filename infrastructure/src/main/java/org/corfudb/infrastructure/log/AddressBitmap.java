@@ -0,0 +1,151 @@
+package org.corfudb.infrastructure.log;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lombok.Getter;
+
+/**
+ * A concurrent set of the addresses of a log segment, with one bit per address.
+ * <p>
+ * The primitive methods should be preferred, the {@link java.util.Set} view is
+ * provided for code which consumes sets of addresses, such as compaction.
+ */
+public class AddressBitmap extends AbstractSet<Long> {
+
+    @Getter
+    private final long firstAddress;
+
+    private final int capacity;
+    private final AtomicLongArray words;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param firstAddress The first address of the segment.
+     * @param capacity     The number of addresses in the segment.
+     */
+    public AddressBitmap(long firstAddress, int capacity) {
+        this.firstAddress = firstAddress;
+        this.capacity = capacity;
+        this.words = new AtomicLongArray((capacity + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /**
+     * Add an address to the set.
+     *
+     * @param address An address, which must belong to the segment.
+     * @return True if the address wasn't already in the set.
+     */
+    public boolean add(long address) {
+        int index = indexOf(address);
+        if (index < 0) {
+            throw new IllegalArgumentException("Address " + address + " doesn't belong to the segment starting at "
+                    + firstAddress);
+        }
+
+        int word = index / Long.SIZE;
+        long bit = 1L << index;
+        while (true) {
+            long current = words.get(word);
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(word, current, current | bit)) {
+                size.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public boolean contains(long address) {
+        int index = indexOf(address);
+        return index >= 0 && (words.get(index / Long.SIZE) & (1L << index)) != 0;
+    }
+
+    /**
+     * Get the addresses of this set which aren't in another set of the same segment.
+     *
+     * @param other The addresses to exclude.
+     * @return A new set.
+     */
+    public AddressBitmap andNot(AddressBitmap other) {
+        if (other.firstAddress != firstAddress || other.capacity != capacity) {
+            throw new IllegalArgumentException("Bitmaps don't cover the same segment");
+        }
+
+        AddressBitmap result = new AddressBitmap(firstAddress, capacity);
+        for (int word = 0; word < words.length(); word++) {
+            long bits = words.get(word) & ~other.words.get(word);
+            result.words.set(word, bits);
+            result.size.addAndGet(Long.bitCount(bits));
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean add(Long address) {
+        return add(address.longValue());
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains(((Long) o).longValue());
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Iterate over the addresses of the set, in ascending order.
+     */
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<Long>() {
+            private int next = nextIndex(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Long next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                long address = firstAddress + next;
+                next = nextIndex(next + 1);
+                return address;
+            }
+        };
+    }
+
+    private int nextIndex(int fromIndex) {
+        int word = fromIndex / Long.SIZE;
+        if (word >= words.length()) {
+            return -1;
+        }
+
+        long bits = words.get(word) & (-1L << fromIndex);
+        while (true) {
+            if (bits != 0) {
+                return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == words.length()) {
+                return -1;
+            }
+            bits = words.get(word);
+        }
+    }
+
+    private int indexOf(long address) {
+        long index = address - firstAddress;
+        return index >= 0 && index < capacity ? (int) index : -1;
+    }
+}
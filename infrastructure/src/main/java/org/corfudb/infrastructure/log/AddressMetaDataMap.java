@@ -0,0 +1,131 @@
+package org.corfudb.infrastructure.log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lombok.Getter;
+
+import javax.annotation.Nullable;
+
+/**
+ * A map from the addresses of a log segment to the metadata of their records.
+ * <p>
+ * The addresses of a segment are dense, so instead of boxing every address and its
+ * metadata, the metadata is packed into two arrays indexed by the position of the
+ * address within the segment: one holding the offset of each record, and one holding
+ * its length and checksum. An offset of zero marks an address which isn't mapped, as
+ * records always follow the segment header.
+ * <p>
+ * A single writer may update the map while it is being read. Readers never observe
+ * the offset of a record together with the length of another, which could otherwise
+ * happen when a record is overwritten in the ranked address space.
+ */
+public class AddressMetaDataMap {
+
+    private static final long ABSENT = 0;
+    private static final long UPDATING = -1;
+
+    @Getter
+    private final long firstAddress;
+
+    private final AtomicLongArray offsets;
+    private final AtomicLongArray lengthsAndChecksums;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param firstAddress The first address of the segment.
+     * @param capacity     The number of addresses in the segment.
+     */
+    public AddressMetaDataMap(long firstAddress, int capacity) {
+        this.firstAddress = firstAddress;
+        this.offsets = new AtomicLongArray(capacity);
+        this.lengthsAndChecksums = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Get the metadata of the record at an address.
+     *
+     * @param address The address to look up.
+     * @return The metadata of the record, or null if the address isn't mapped.
+     */
+    @Nullable
+    public AddressMetaData get(long address) {
+        int index = indexOf(address);
+        if (index < 0) {
+            return null;
+        }
+
+        while (true) {
+            long offset = offsets.get(index);
+            if (offset == ABSENT) {
+                return null;
+            } else if (offset == UPDATING) {
+                Thread.yield();
+                continue;
+            }
+
+            long lengthAndChecksum = lengthsAndChecksums.get(index);
+
+            // Offsets only ever grow, so if the offset is unchanged the length and
+            // checksum we read belong to it
+            if (offsets.get(index) == offset) {
+                return new AddressMetaData((int) lengthAndChecksum, (int) (lengthAndChecksum >>> Integer.SIZE),
+                        offset);
+            }
+        }
+    }
+
+    public boolean containsKey(long address) {
+        int index = indexOf(address);
+        return index >= 0 && offsets.get(index) != ABSENT;
+    }
+
+    /**
+     * Map an address to the metadata of its record, replacing any previous mapping.
+     * Must not be called concurrently for the same map.
+     *
+     * @param address  The address of the record, which must belong to the segment.
+     * @param metaData The metadata of the record.
+     */
+    public void put(long address, AddressMetaData metaData) {
+        int index = indexOf(address);
+        if (index < 0) {
+            throw new IllegalArgumentException("Address " + address + " doesn't belong to the segment starting at "
+                    + firstAddress);
+        }
+
+        long previousOffset = offsets.getAndSet(index, UPDATING);
+        lengthsAndChecksums.set(index, ((long) metaData.length << Integer.SIZE)
+                | (metaData.checksum & 0xFFFFFFFFL));
+        offsets.set(index, metaData.offset);
+
+        if (previousOffset == ABSENT) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The number of mapped addresses.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return The highest mapped address, or -1 if no address is mapped.
+     */
+    public long getMaxAddress() {
+        for (int index = offsets.length() - 1; index >= 0; index--) {
+            if (offsets.get(index) != ABSENT) {
+                return firstAddress + index;
+            }
+        }
+
+        return -1;
+    }
+
+    private int indexOf(long address) {
+        long index = address - firstAddress;
+        return index >= 0 && index < offsets.length() ? (int) index : -1;
+    }
+}
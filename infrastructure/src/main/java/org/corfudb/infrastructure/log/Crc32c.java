@@ -0,0 +1,117 @@
+package org.corfudb.infrastructure.log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * A CRC32C (Castagnoli) checksum, which produces the same values as Guava's
+ * {@code Hashing.crc32c()}, so that it can verify existing logs.
+ * <p>
+ * java.util.zip.CRC32C is only available from Java 9, so this implementation uses
+ * the slicing-by-8 algorithm, which consumes eight bytes per table round instead of
+ * one, and reads whole words from heap and direct buffers alike.
+ */
+public final class Crc32c implements Checksum {
+
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[][] TABLES = new int[Long.BYTES][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < Byte.SIZE; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+
+        for (int table = 1; table < Long.BYTES; table++) {
+            for (int i = 0; i < 256; i++) {
+                int previous = TABLES[table - 1][i];
+                TABLES[table][i] = (previous >>> 8) ^ TABLES[0][previous & 0xFF];
+            }
+        }
+    }
+
+    private static final int[] T0 = TABLES[0];
+    private static final int[] T1 = TABLES[1];
+    private static final int[] T2 = TABLES[2];
+    private static final int[] T3 = TABLES[3];
+    private static final int[] T4 = TABLES[4];
+    private static final int[] T5 = TABLES[5];
+    private static final int[] T6 = TABLES[6];
+    private static final int[] T7 = TABLES[7];
+
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ T0[(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        update(ByteBuffer.wrap(b, off, len));
+    }
+
+    public void update(byte[] b) {
+        update(b, 0, b.length);
+    }
+
+    /**
+     * Update the checksum with the remaining bytes of a buffer. The position of
+     * the buffer is advanced to its limit.
+     *
+     * @param buf The buffer to checksum.
+     */
+    public void update(ByteBuffer buf) {
+        int position = buf.position();
+        int limit = buf.limit();
+
+        ByteBuffer words = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int c = crc;
+        for (; position + Long.BYTES <= limit; position += Long.BYTES) {
+            long word = words.getLong(position);
+            int low = c ^ (int) word;
+            int high = (int) (word >>> Integer.SIZE);
+            c = T7[low & 0xFF] ^ T6[(low >>> 8) & 0xFF] ^ T5[(low >>> 16) & 0xFF] ^ T4[low >>> 24]
+                    ^ T3[high & 0xFF] ^ T2[(high >>> 8) & 0xFF] ^ T1[(high >>> 16) & 0xFF] ^ T0[high >>> 24];
+        }
+        for (; position < limit; position++) {
+            c = (c >>> 8) ^ T0[(c ^ words.get(position)) & 0xFF];
+        }
+        crc = c;
+
+        buf.position(limit);
+    }
+
+    /**
+     * Update the checksum with a long, in little-endian order like Guava's {@code Hasher.putLong}.
+     *
+     * @param num The long to checksum.
+     */
+    public void updateLong(long num) {
+        ByteBuffer buf = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(num);
+        buf.flip();
+        update(buf);
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return The checksum as an int, as stored in the log.
+     */
+    public int getIntValue() {
+        return ~crc;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -1,10 +1,14 @@
 package org.corfudb.infrastructure.log;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicLong;
 
 import io.netty.util.internal.ConcurrentSet;
@@ -21,14 +25,14 @@ import org.corfudb.runtime.exceptions.TrimmedException;
 public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressSpace {
 
     private Map<Long, LogData> logCache;
-    private Map<UUID, Map<Long, LogData>> streamCache;
+    private Map<UUID, NavigableSet<Long>> streamAddresses;
     private Set<Long> trimmed;
     final private AtomicLong globalTail = new AtomicLong(0L);
     private volatile long startingAddress;
 
     public InMemoryStreamLog() {
         logCache = new ConcurrentHashMap();
-        streamCache = new HashMap();
+        streamAddresses = new ConcurrentHashMap<>();
         trimmed = new ConcurrentSet<>();
         startingAddress = -1;
     }
@@ -45,7 +49,9 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
             throwLogUnitExceptionsIfNecessary(address, entry);
         }
         logCache.put(address, entry);
-
+        for (UUID stream : entry.getStreams()) {
+            streamAddresses.computeIfAbsent(stream, x -> new ConcurrentSkipListSet<>()).add(address);
+        }
 
         globalTail.getAndUpdate(maxTail -> entry.getGlobalAddress() > maxTail ? entry.getGlobalAddress() : maxTail);
     }
@@ -91,6 +97,20 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
         return logCache.get(address);
     }
 
+    @Override
+    public List<Long> getStreamAddresses(UUID streamId, long first, long last) {
+        List<Long> addresses = new ArrayList<>();
+        NavigableSet<Long> stream = streamAddresses.get(streamId);
+        if (stream != null) {
+            for (long address : stream.subSet(first, true, last, true)) {
+                if (address >= startingAddress && !trimmed.contains(address) && logCache.containsKey(address)) {
+                    addresses.add(address);
+                }
+            }
+        }
+        return addresses;
+    }
+
     @Override
     public void sync(boolean force){
         //no-op
@@ -99,7 +119,7 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
     @Override
     public void close() {
         logCache = new HashMap();
-        streamCache = new HashMap();
+        streamAddresses = new ConcurrentHashMap<>();
     }
 
     @Override
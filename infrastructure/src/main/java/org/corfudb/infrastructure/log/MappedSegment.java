@@ -0,0 +1,96 @@
+package org.corfudb.infrastructure.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.internal.PlatformDependent;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+
+/**
+ * A read-only memory mapping of a log segment file.
+ * <p>
+ * The mapping is reference counted. The segment handle which created it holds
+ * one reference and every log entry served out of it holds another, so the file
+ * is only unmapped once the segment handle is closed and all the entries read
+ * from the mapping have been released.
+ */
+@Slf4j
+public class MappedSegment extends AbstractReferenceCounted {
+
+    @Getter
+    private final String fileName;
+
+    private final MappedByteBuffer buffer;
+
+    private MappedSegment(String fileName, MappedByteBuffer buffer) {
+        this.fileName = fileName;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Map the current contents of a segment file into memory.
+     *
+     * @param fileName The segment file to map.
+     * @return A mapping of the file, or null if the file is too large to be mapped.
+     * @throws IOException
+     */
+    @Nullable
+    public static MappedSegment map(String fileName) throws IOException {
+        try (FileChannel fc = FileChannel.open(FileSystems.getDefault().getPath(fileName),
+                EnumSet.of(StandardOpenOption.READ))) {
+            long size = fc.size();
+            if (size > Integer.MAX_VALUE) {
+                log.warn("Segment {} is too large to be mapped ({} bytes)", fileName, size);
+                return null;
+            }
+
+            log.trace("Mapped {} bytes of {}", size, fileName);
+            return new MappedSegment(fileName, fc.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Check whether a region of the segment file is covered by this mapping. Records
+     * appended to the file after it was mapped are not.
+     */
+    public boolean contains(long offset, int length) {
+        return offset + length <= buffer.capacity();
+    }
+
+    /**
+     * Get a view of a region of the mapping. The view is only valid for as long as
+     * a reference to the mapping is held.
+     *
+     * @param offset The offset of the region in the segment file.
+     * @param length The length of the region.
+     * @return A buffer sharing its content with the mapping.
+     */
+    public ByteBuffer slice(long offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.limit((int) offset + length);
+        return view.slice();
+    }
+
+    @Override
+    protected void deallocate() {
+        PlatformDependent.freeDirectBuffer(buffer);
+        log.trace("Unmapped {}", fileName);
+    }
+
+    @Override
+    public ReferenceCounted touch(Object hint) {
+        return this;
+    }
+}
@@ -3,6 +3,10 @@ package org.corfudb.infrastructure.log;
 import org.corfudb.protocols.wireprotocol.LogData;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * An interface definition that specifies an api to interact with a StreamLog.
@@ -19,6 +23,24 @@ public interface StreamLog {
      */
     void append(long address, LogData entry);
 
+    /**
+     * Append a batch of entries to the stream log. An entry which can't be appended
+     * doesn't prevent the other entries from being appended.
+     * @param entries The entries to append, keyed by address.
+     * @return The exceptions of the entries which couldn't be appended, keyed by address.
+     */
+    default Map<Long, RuntimeException> append(Map<Long, LogData> entries) {
+        Map<Long, RuntimeException> failures = new HashMap<>();
+        entries.forEach((address, entry) -> {
+            try {
+                append(address, entry);
+            } catch (RuntimeException e) {
+                failures.put(address, e);
+            }
+        });
+        return failures;
+    }
+
     /**
      * Given an address, read the corresponding stream entry.
      * @param address
@@ -26,6 +48,33 @@ public interface StreamLog {
      */
     LogData read(long address);
 
+    /**
+     * Read a batch of addresses.
+     * @param addresses The addresses to read.
+     * @return The entries which exist, keyed by address. Addresses which weren't written
+     * are left out.
+     */
+    default Map<Long, LogData> read(Iterable<Long> addresses) {
+        Map<Long, LogData> entries = new HashMap<>();
+        for (long address : addresses) {
+            LogData entry = read(address);
+            if (entry != null) {
+                entries.put(address, entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Get the addresses of the entries of a stream in a range of the log. Trimmed
+     * addresses are left out.
+     * @param streamId The stream.
+     * @param first The first address of the range.
+     * @param last The last address of the range, inclusive.
+     * @return The addresses of the stream's entries in the range, in ascending order.
+     */
+    List<Long> getStreamAddresses(UUID streamId, long first, long last);
+
     /**
      * Mark a StreamLog address as trimmed.
      * @param address
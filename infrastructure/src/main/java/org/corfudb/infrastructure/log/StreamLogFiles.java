@@ -7,35 +7,55 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.RateLimiter;
 import com.google.protobuf.AbstractMessage;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
 
 import lombok.Data;
 import lombok.NonNull;
@@ -55,6 +75,7 @@ import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.TrimmedException;
+import org.corfudb.util.Utils;
 
 import javax.annotation.Nullable;
 
@@ -64,6 +85,15 @@ import javax.annotation.Nullable;
  * This StreamLog implementation can detect log file corruption, if checksum is enabled, otherwise
  * the checksum field will be ignored.
  * <p>
+ * If memory-mapped reads are enabled (--mmap-reads), sealed segments (i.e. segments preceding
+ * the tail segment) are mapped into memory on first read and their entries are served as views
+ * of the mapping instead of being copied onto the heap. Such entries hold a reference to the
+ * mapping until they are released through {@link #release(long, LogData)}.
+ * <p>
+ * Segment files are preallocated in zero-filled chunks of {@link #SEGMENT_PREALLOCATION_SIZE},
+ * so that appending records doesn't grow the files. The records of a segment end at the
+ * first zero delimiter.
+ * <p>
  * Created by maithem on 10/28/16.
  */
 
@@ -80,16 +110,49 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             .setLength(-1)
             .build()
             .getSerializedSize();
+    // Address, offset, length and checksum of a record, followed by the checksum of the entry
+    static public final int INDEX_ENTRY_SIZE = Long.BYTES * 2 + Integer.BYTES * 3;
+    static public final int STREAM_INDEX_ENTRY_SIZE = Long.BYTES * 3 + Integer.BYTES;
+    // The stream of the stream index entries of records which don't belong to any stream
+    static private final UUID NO_STREAM = new UUID(0L, 0L);
+    static public final int SEGMENT_PREALLOCATION_SIZE = 4 * 1024 * 1024;
+    static private final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    static private final int COMPACTION_BUFFER_SIZE = 1024 * 1024;
+    static private final int READ_SPAN_SIZE = 1024 * 1024;
+    static private final int MAX_READ_GAP = 64 * 1024;
+    static private final int DEFAULT_MAX_OPEN_SEGMENTS = 256;
+    static private final ByteBuffer ZEROS = ByteBuffer.allocateDirect(64 * 1024).asReadOnlyBuffer();
     private final boolean noVerify;
+    private final boolean mmapReads;
+    // Throttles the copy of records during compaction, or null if compaction isn't throttled
+    private final RateLimiter compactionRateLimiter;
     public final String logDir;
     private Map<String, SegmentHandle> writeChannels;
+    // Guards the opening, eviction and replacement of segment handles. It is never held by
+    // compaction as it copies records, so that segments can be opened while it runs.
+    private final Object segmentHandlesLock = new Object();
+    // The number of segments kept open, beyond which the least recently used sealed segments are closed
+    private final int maxOpenSegments;
+    // Direct buffers which records are serialized into before being written
+    private final Queue<ByteBuffer> writeBuffers = new ConcurrentLinkedQueue<>();
     private Set<FileChannel> channelsToSync;
+    private final Set<FileChannel> preallocatedChannels = ConcurrentHashMap.newKeySet();
     private MultiReadWriteLock segmentLocks = new MultiReadWriteLock();
     final private ServerContext serverContext;
     final private AtomicLong globalTail = new AtomicLong(0L);
-    private long lastSegment;
+    private volatile long lastSegment;
     private volatile long startingAddress;
 
+    // The space held by the records pending trim in each segment, which compaction reclaims
+    private final Map<Long, AtomicLong> reclaimableBytes = new ConcurrentHashMap<>();
+
+    private static final String metricsPrefix = "corfu.server.logunit.compaction.";
+    private final Timer timerCompaction;
+    private final Counter counterSegmentsCompacted;
+    private final Counter counterBytesReclaimed;
+    private final Counter counterBytesCopied;
+    private final Counter counterSegmentEvictions;
+
     public StreamLogFiles(ServerContext serverContext, boolean noVerify) {
         logDir = serverContext.getServerConfig().get("--log-path") + File.separator + "log";
         File dir = new File(logDir);
@@ -100,7 +163,27 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         writeChannels = new ConcurrentHashMap();
         channelsToSync = new HashSet<>();
         this.noVerify = noVerify;
+        this.mmapReads = Boolean.TRUE.equals(serverContext.getServerConfig().get("--mmap-reads"));
+        long compactionRate = Utils.parseLong(serverContext.getServerConfig().get("--compaction-rate"));
+        this.compactionRateLimiter = compactionRate > 0 ? RateLimiter.create(compactionRate) : null;
+        Object maxOpenSegmentsOpt = serverContext.getServerConfig().get("--max-open-segments");
+        this.maxOpenSegments = maxOpenSegmentsOpt == null ? DEFAULT_MAX_OPEN_SEGMENTS
+                : (int) Utils.parseLong(maxOpenSegmentsOpt);
         this.serverContext = serverContext;
+
+        MetricRegistry metrics = serverContext.getMetrics();
+        timerCompaction = metrics.timer(metricsPrefix + "segment");
+        counterSegmentsCompacted = metrics.counter(metricsPrefix + "segments-compacted");
+        counterBytesReclaimed = metrics.counter(metricsPrefix + "bytes-reclaimed");
+        counterBytesCopied = metrics.counter(metricsPrefix + "bytes-copied");
+        counterSegmentEvictions = metrics.counter("corfu.server.logunit.segments.evictions");
+        try {
+            metrics.register(metricsPrefix + "reclaimable-bytes", (Gauge<Long>) () ->
+                    reclaimableBytes.values().stream().mapToLong(AtomicLong::get).sum());
+        } catch (IllegalArgumentException e) {
+            // Re-registering metrics during test runs, not a problem
+        }
+
         verifyLogs();
         // Starting address initialization should happen before
         // initializing the tail segment (i.e. initializeMaxGlobalAddress)
@@ -161,18 +244,15 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     private void initializeMaxGlobalAddress() {
         long tailSegment = serverContext.getTailSegment();
         long addressInTailSegment = (tailSegment * RECORDS_PER_LOG_FILE) + 1;
-        SegmentHandle sh = getSegmentHandleForAddress(addressInTailSegment);
-        try {
-            Collection<LogEntry> segmentEntries = (Collection<LogEntry>) getCompactedEntries(sh.getFileName(),
-                    new HashSet()).getEntries();
+        SegmentHandle sh = acquireSegmentHandle(addressInTailSegment);
 
-            for(LogEntry entry : segmentEntries){
-                long currentAddress = entry.getGlobalAddress();
-                globalTail.getAndUpdate(maxTail -> currentAddress > maxTail ? currentAddress : maxTail);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
+        long maxAddress;
+        try {
+            maxAddress = sh.getKnownAddresses().getMaxAddress();
+        } finally {
+            sh.release();
         }
+        globalTail.getAndUpdate(maxTail -> maxAddress > maxTail ? maxAddress : maxTail);
 
         lastSegment = tailSegment;
     }
@@ -237,11 +317,24 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         return segmentPath + ".trimmed";
     }
 
+    static public String getIndexFilePath(String segmentPath) {
+        return segmentPath + ".index";
+    }
+
+    static public String getStreamIndexFilePath(String segmentPath) {
+        return segmentPath + ".streams";
+    }
+
     @Override
     public void sync(boolean force) throws IOException {
         if(force) {
             for (FileChannel ch : channelsToSync) {
-                ch.force(true);
+                try {
+                    // The size of a preallocated file is synced when it is extended
+                    ch.force(!preallocatedChannels.contains(ch));
+                } catch (ClosedChannelException e) {
+                    // The segment was evicted, and its channels were synced when they were closed
+                }
             }
         }
         log.debug("Sync'd {} channels", channelsToSync.size());
@@ -250,7 +343,15 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
 
     @Override
     public void trim(long address) {
-        SegmentHandle handle = getSegmentHandleForAddress(address);
+        SegmentHandle handle = acquireSegmentHandle(address);
+        try {
+            trim(handle, address);
+        } finally {
+            handle.release();
+        }
+    }
+
+    private void trim(SegmentHandle handle, long address) {
         if (!handle.getKnownAddresses().containsKey(address) ||
                 handle.getPendingTrims().contains(address)) {
             return;
@@ -267,6 +368,12 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             outputStream.flush();
             handle.pendingTrims.add(address);
             channelsToSync.add(handle.getPendingTrimChannel());
+
+            AddressMetaData metaData = handle.getKnownAddresses().get(address);
+            if (metaData != null && !handle.getTrimmedAddresses().contains(address)) {
+                reclaimableBytes.computeIfAbsent(handle.getSegment(), segment -> new AtomicLong())
+                        .addAndGet(getRecordSize(metaData));
+            }
         } catch (IOException e) {
             log.warn("Exception while writing a trim entry {} : {}", address, e.toString());
         }
@@ -312,141 +419,265 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         log.info("Prefix trim completed, delete segments 0 to {}", endSegment);
     }
 
+    /**
+     * Compact the sealed segments which have enough entries pending trim, starting with
+     * the segments with the most reclaimable space. Closed segments are considered too,
+     * so that the space left over by a previous run of the log unit is reclaimed.
+     */
     private void spaseCompact() {
-        //TODO(Maithem) Open all segment handlers?
-        for (SegmentHandle sh : writeChannels.values()) {
-            Set<Long> pending = new HashSet(sh.getPendingTrims());
-            Set<Long> trimmed = sh.getTrimmedAddresses();
+        discoverReclaimableSegments();
 
-            if (sh.getKnownAddresses().size() + trimmed.size() != RECORDS_PER_LOG_FILE) {
-                log.info("Log segment still not complete, skipping");
-                continue;
+        // Snapshot the reclaimable space, as it changes while segments are trimmed
+        List<Map.Entry<Long, Long>> candidates = new ArrayList<>();
+        reclaimableBytes.forEach((segment, bytes) -> {
+            if (bytes.get() > 0) {
+                candidates.add(new AbstractMap.SimpleImmutableEntry<>(segment, bytes.get()));
             }
+        });
+        candidates.sort(Map.Entry.<Long, Long>comparingByValue().reversed());
 
-            pending.removeAll(trimmed);
-
-            //what if pending size  == knownaddresses size ?
-            if (pending.size() < TRIM_THRESHOLD) {
-                log.trace("Thresh hold not exceeded. Ratio {} threshold {}", pending.size(), TRIM_THRESHOLD);
-                return; // TODO - should not return if compact on ranked address space is necessary
+        for (Map.Entry<Long, Long> candidate : candidates) {
+            long segment = candidate.getKey();
+            if ((segment + 1) * RECORDS_PER_LOG_FILE <= startingAddress) {
+                continue;
             }
 
+            SegmentHandle sh = acquireSegmentHandle(segment * RECORDS_PER_LOG_FILE);
             try {
-                log.info("Starting compaction, pending entries size {}", pending.size());
-                trimLogFile(sh.getFileName(), pending);
-            } catch (IOException e) {
-                log.error("Compact operation failed for file {}", sh.getFileName());
+                compactSegment(sh, candidate.getValue());
+            } finally {
+                sh.release();
             }
         }
     }
 
-    private void trimLogFile(String filePath, Set<Long> pendingTrim) throws IOException {
-        FileChannel fc = FileChannel.open(FileSystems.getDefault().getPath(filePath + ".copy"),
-                EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
-                        StandardOpenOption.CREATE, StandardOpenOption.SPARSE));
+    private void compactSegment(SegmentHandle sh, long reclaimable) {
+        AddressBitmap trimmed = sh.getTrimmedAddresses();
 
-        FileChannel fc2 = FileChannel.open(FileSystems.getDefault().getPath(getTrimmedFilePath(filePath)),
-                EnumSet.of(StandardOpenOption.APPEND));
+        if (sh.getKnownAddresses().size() + trimmed.size() != RECORDS_PER_LOG_FILE) {
+            log.trace("Segment {} still not complete, skipping", sh.getSegment());
+            return;
+        }
 
-        CompactedEntry log = getCompactedEntries(filePath, pendingTrim);
+        AddressBitmap pending = sh.getPendingTrims().andNot(trimmed);
 
-        LogHeader header = log.getLogHeader();
-        Collection<LogEntry> compacted = log.getEntries();
+        if (pending.size() < TRIM_THRESHOLD) {
+            log.trace("Threshold not exceeded for segment {}. Pending {} threshold {}", sh.getSegment(),
+                    pending.size(), TRIM_THRESHOLD);
+            return;
+        }
 
-        writeHeader(fc, header.getVersion(), header.getVerifyChecksum());
+        try (Timer.Context ignored = timerCompaction.time()) {
+            log.info("Compacting segment {}, {} entries pending trim, {} bytes reclaimable", sh.getSegment(),
+                    pending.size(), reclaimable);
+            trimLogFile(sh, pending);
+            reclaimableBytes.remove(sh.getSegment());
+            counterSegmentsCompacted.inc();
+            counterBytesReclaimed.inc(reclaimable);
+        } catch (IOException e) {
+            log.error("Compact operation failed for file {}", sh.getFileName(), e);
+        }
+    }
 
-        for (LogEntry entry : compacted) {
+    /**
+     * Find the segments on disk whose reclaimable space isn't tracked yet. A segment has
+     * entries pending trim only if its pending trim file holds more entries than its trimmed
+     * file, so only those segments are opened to measure their reclaimable space.
+     */
+    private void discoverReclaimableSegments() {
+        File[] files = new File(logDir).listFiles((dir, name) -> name.endsWith(".log"));
+        if (files == null) {
+            return;
+        }
 
-            ByteBuffer record = getByteBufferWithMetaData(entry);
-            ByteBuffer recordBuf = ByteBuffer.allocate(Short.BYTES // Delimiter
-                    + record.capacity());
+        for (File file : files) {
+            long segment = Long.parseLong(file.getName().split("\\.")[0]);
+            if (reclaimableBytes.containsKey(segment)) {
+                continue;
+            }
 
-            recordBuf.putShort(RECORD_DELIMITER);
-            recordBuf.put(record.array());
-            recordBuf.flip();
+            String filePath = logDir + File.separator + file.getName();
+            long pendingTrimSize = new File(getPendingTrimsFilePath(filePath)).length();
+            long trimmedSize = new File(getTrimmedFilePath(filePath)).length();
 
-            fc.write(recordBuf);
+            if (pendingTrimSize > trimmedSize) {
+                // Opening the segment measures its reclaimable space
+                acquireSegmentHandle(segment * RECORDS_PER_LOG_FILE).release();
+            } else {
+                reclaimableBytes.putIfAbsent(segment, new AtomicLong());
+            }
         }
+    }
 
-        fc.force(true);
-        fc.close();
-
-        try (OutputStream outputStream = Channels.newOutputStream(fc2)) {
-            // Todo(Maithem) How do we verify that the compacted file is correct?
-            for (Long address : pendingTrim) {
-                TrimEntry entry = TrimEntry.newBuilder()
-                        .setChecksum(getChecksum(address))
-                        .setAddress(address)
-                        .build();
-                entry.writeDelimitedTo(outputStream);
+    /**
+     * Measure the space held by the records of a segment which are pending trim.
+     */
+    private void updateReclaimableBytes(SegmentHandle sh) {
+        long bytes = 0;
+        for (long address : sh.getPendingTrims().andNot(sh.getTrimmedAddresses())) {
+            AddressMetaData metaData = sh.getKnownAddresses().get(address);
+            if (metaData != null) {
+                bytes += getRecordSize(metaData);
             }
-            outputStream.flush();
-            fc2.force(true);
         }
-        fc2.close();
-
-        Files.move(Paths.get(filePath + ".copy"), Paths.get(filePath), StandardCopyOption.ATOMIC_MOVE);
 
-        // Force the reload of the new segment
-        writeChannels.remove(filePath);
+        reclaimableBytes.put(sh.getSegment(), new AtomicLong(bytes));
     }
 
-    private CompactedEntry getCompactedEntries(String filePath, Set<Long> pendingTrim) throws IOException {
-        FileChannel fc = getChannel(filePath, true);
-
-        // Skip the header
-        ByteBuffer headerMetadataBuf = ByteBuffer.allocate(METADATA_SIZE);
-        fc.read(headerMetadataBuf);
-        headerMetadataBuf.flip();
-
-        Metadata headerMetadata = Metadata.parseFrom(headerMetadataBuf.array());
-        ByteBuffer headerBuf = ByteBuffer.allocate(headerMetadata.getLength());
-        fc.read(headerBuf);
-        headerBuf.flip();
-
-        LogHeader header = LogHeader.parseFrom(headerBuf.array());
-
-        ByteBuffer o = ByteBuffer.allocate((int) fc.size() - (int) fc.position());
-        fc.read(o);
-        fc.close();
-        o.flip();
-
-        LinkedHashMap<Long, LogEntry> compacted = new LinkedHashMap<>();
-
-        while (o.hasRemaining()) {
-
-            //Skip delimiter
-            o.getShort();
-
-            byte[] metadataBuf = new byte[METADATA_SIZE];
-            o.get(metadataBuf);
+    static private int getRecordSize(AddressMetaData metaData) {
+        return Short.BYTES + METADATA_SIZE + metaData.length;
+    }
 
-            try {
-                Metadata metadata = Metadata.parseFrom(metadataBuf);
+    /**
+     * Rewrite a segment without the entries pending trim. The live records are streamed
+     * from the old segment to the new one in file order, through a bounded buffer, and
+     * their raw bytes are copied once verified against the address space, without being
+     * parsed. The copy is throttled by the compaction rate, if one is set.
+     *
+     * @param sh          The segment to compact.
+     * @param pendingTrim The addresses to drop from the segment.
+     */
+    private void trimLogFile(SegmentHandle sh, AddressBitmap pendingTrim) throws IOException {
+        String filePath = sh.getFileName();
 
-                byte[] logEntryBuf = new byte[metadata.getLength()];
+        // The live records of the segment, keyed by offset so that they are copied in file order.
+        // Records that were overwritten in the ranked address space aren't live.
+        TreeMap<Long, Long> liveRecords = new TreeMap<>();
+        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireReadLock(sh.getSegment())) {
+            AddressMetaDataMap knownAddresses = sh.getKnownAddresses();
+            long firstAddress = knownAddresses.getFirstAddress();
+            for (long address = firstAddress; address < firstAddress + RECORDS_PER_LOG_FILE; address++) {
+                AddressMetaData metaData = knownAddresses.get(address);
+                if (metaData != null && !pendingTrim.contains(address)) {
+                    liveRecords.put(metaData.offset, address);
+                }
+            }
+        }
 
-                o.get(logEntryBuf);
+        ByteBuffer index = ByteBuffer.allocate(liveRecords.size() * INDEX_ENTRY_SIZE);
+
+        try (FileChannel in = getChannel(filePath, true);
+             FileChannel fc = FileChannel.open(FileSystems.getDefault().getPath(filePath + ".copy"),
+                     EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                             StandardOpenOption.CREATE, StandardOpenOption.SPARSE))) {
+            LogHeader header = readHeader(in);
+            writeHeader(fc, header.getVersion(), header.getVerifyChecksum());
+
+            ByteBuffer buf = ByteBuffer.allocate(COMPACTION_BUFFER_SIZE);
+            for (Map.Entry<Long, Long> record : liveRecords.entrySet()) {
+                long address = record.getValue();
+                AddressMetaData metaData = sh.getKnownAddresses().get(address);
+                if (metaData == null || metaData.offset != record.getKey()) {
+                    throw new IOException("Address " + address + " was overwritten during the compaction of "
+                            + filePath);
+                }
+                int recordSize = Short.BYTES + METADATA_SIZE + metaData.length;
 
-                LogEntry entry = LogEntry.parseFrom(logEntryBuf);
+                if (buf.remaining() < recordSize) {
+                    copyRecords(buf, fc);
+                    if (buf.capacity() < recordSize) {
+                        buf = ByteBuffer.allocate(recordSize);
+                    }
+                }
 
-                if (!noVerify) {
-                    if (metadata.getChecksum() != getChecksum(entry.toByteArray())) {
-                        log.error("Checksum mismatch detected while trying to read address {}", entry.getGlobalAddress());
+                ByteBuffer recordBuf = buf.slice();
+                recordBuf.limit(recordSize);
+                long recordOffset = getRecordOffset(metaData);
+                while (recordBuf.hasRemaining()) {
+                    if (in.read(recordBuf, recordOffset + recordBuf.position()) < 0) {
+                        log.error("Unexpected end of file {} at address {}", filePath, address);
                         throw new DataCorruptionException();
                     }
                 }
+                recordBuf.flip();
+                verifyRecord(sh, recordBuf, metaData);
+
+                long channelOffset = fc.position() + buf.position() + Short.BYTES + METADATA_SIZE;
+                putIndexEntry(index, address, new AddressMetaData(metaData.checksum, metaData.length, channelOffset));
+                buf.position(buf.position() + recordSize);
+            }
+            copyRecords(buf, fc);
+            fc.force(true);
+        }
 
-                if (!pendingTrim.contains(entry.getGlobalAddress())) {
-                    compacted.put(entry.getGlobalAddress(), entry);
+        String indexFilePath = getIndexFilePath(filePath);
+        try (FileChannel indexChannel = FileChannel.open(FileSystems.getDefault().getPath(indexFilePath + ".copy"),
+                EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE))) {
+            index.flip();
+            indexChannel.write(index);
+            indexChannel.force(true);
+        }
+
+        // Block the writes to the segment while the compacted segment replaces it, so that
+        // no record is overwritten between the last check and the switch to the new segment
+        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(sh.getSegment())) {
+            for (Map.Entry<Long, Long> record : liveRecords.entrySet()) {
+                AddressMetaData metaData = sh.getKnownAddresses().get(record.getValue());
+                if (metaData == null || metaData.offset != record.getKey()) {
+                    throw new IOException("Address " + record.getValue() + " was overwritten during the "
+                            + "compaction of " + filePath);
                 }
+            }
 
-            } catch (InvalidProtocolBufferException e) {
-                throw new DataCorruptionException();
+            FileChannel fc2 = FileChannel.open(FileSystems.getDefault().getPath(getTrimmedFilePath(filePath)),
+                    EnumSet.of(StandardOpenOption.APPEND));
+            try (OutputStream outputStream = Channels.newOutputStream(fc2)) {
+                // Todo(Maithem) How do we verify that the compacted file is correct?
+                for (Long address : pendingTrim) {
+                    TrimEntry entry = TrimEntry.newBuilder()
+                            .setChecksum(getChecksum(address))
+                            .setAddress(address)
+                            .build();
+                    entry.writeDelimitedTo(outputStream);
+                }
+                outputStream.flush();
+                fc2.force(true);
+            }
+            fc2.close();
+
+            // The old index must never describe the compacted segment, so it is removed first. If we
+            // crash before the new index is in place, the segment is indexed again when it's opened.
+            Files.deleteIfExists(Paths.get(indexFilePath));
+            Files.move(Paths.get(filePath + ".copy"), Paths.get(filePath), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(Paths.get(indexFilePath + ".copy"), Paths.get(indexFilePath),
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            // Force the reload of the new segment, the handle of the old one is closed once released
+            synchronized (segmentHandlesLock) {
+                if (writeChannels.remove(filePath, sh)) {
+                    sh.retire();
+                }
             }
         }
+    }
+
+    /**
+     * Write out the records accumulated in a compaction buffer, and clear it.
+     */
+    private void copyRecords(ByteBuffer buf, FileChannel fc) throws IOException {
+        buf.flip();
+        if (compactionRateLimiter != null && buf.hasRemaining()) {
+            compactionRateLimiter.acquire(buf.remaining());
+        }
+        counterBytesCopied.inc(buf.remaining());
+        while (buf.hasRemaining()) {
+            fc.write(buf);
+        }
+        buf.clear();
+    }
 
-        return new CompactedEntry(header, compacted.values());
+    /**
+     * Read the header of a segment file.
+     */
+    static private LogHeader readHeader(FileChannel fc) throws IOException {
+        ByteBuffer headerMetadataBuf = ByteBuffer.allocate(METADATA_SIZE);
+        fc.read(headerMetadataBuf, 0);
+        Metadata headerMetadata = Metadata.parseFrom(headerMetadataBuf.array());
+
+        ByteBuffer headerBuf = ByteBuffer.allocate(headerMetadata.getLength());
+        fc.read(headerBuf, METADATA_SIZE);
+        return LogHeader.parseFrom(headerBuf.array());
     }
 
     /**
@@ -496,9 +727,30 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     private LogData getLogData(LogEntry entry) {
-        ByteBuf data = Unpooled.wrappedBuffer(entry.getData().toByteArray());
-        LogData logData = new LogData(org.corfudb.protocols.wireprotocol.
-                DataType.typeMap.get((byte) entry.getDataType().getNumber()), data);
+        return getLogData(entry, null);
+    }
+
+    /**
+     * Convert a log entry to log data.
+     *
+     * @param entry   The log entry to convert.
+     * @param mapping A retained mapping the entry was parsed from, or null. If set, the
+     *                data of the log data is a view of the mapping, and the log data takes
+     *                over the reference to the mapping.
+     * @return The log data of the entry.
+     */
+    private LogData getLogData(LogEntry entry, @Nullable MappedSegment mapping) {
+        org.corfudb.protocols.wireprotocol.DataType dataType = org.corfudb.protocols.wireprotocol.
+                DataType.typeMap.get((byte) entry.getDataType().getNumber());
+        LogData logData;
+
+        if (mapping == null) {
+            ByteBuf data = Unpooled.wrappedBuffer(entry.getData().toByteArray());
+            logData = new LogData(dataType, data);
+        } else {
+            ByteBuf view = Unpooled.wrappedBuffer(entry.getData().asReadOnlyByteBuffer());
+            logData = new LogData(dataType, view, mapping);
+        }
 
         logData.setBackpointerMap(getUUIDLongMap(entry.getBackpointersMap()));
         logData.setGlobalAddress(entry.getGlobalAddress());
@@ -523,40 +775,138 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Reads an address space from a log file into a SegmentHandle
+     * Reads an address space from a log file into a SegmentHandle. The address space is
+     * loaded from the index of the segment, and records that were appended to the segment
+     * without making it to the index (e.g. because of a crash) are recovered by scanning
+     * the segment from the end of the last indexed record.
      *
      * @param sh
      */
     private void readAddressSpace(SegmentHandle sh) throws IOException {
         long logFileSize;
-
+        long indexFileSize;
 
         try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireReadLock(sh.getSegment())) {
             logFileSize = sh.logChannel.size();
+            indexFileSize = sh.indexChannel.size();
+        }
+
+        long indexedEnd = readIndex(sh, logFileSize, indexFileSize);
+        long end = scanAddressSpace(sh, indexedEnd, logFileSize);
+
+        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(sh.getSegment())) {
+            sh.setWritePosition(end);
+        }
+    }
+
+    /**
+     * Loads the address space of a segment from its index file, with a single read.
+     * Index entries that are torn, or that point past the end of the segment or into
+     * its zero-filled preallocated space, are discarded along with all the entries
+     * following them.
+     *
+     * @param sh            The segment to load.
+     * @param logFileSize   The size of the segment file.
+     * @param indexFileSize The size of the index file.
+     * @return The offset following the last indexed record, or -1 if no record is indexed.
+     */
+    private long readIndex(SegmentHandle sh, long logFileSize, long indexFileSize) throws IOException {
+        FileChannel fc = getChannel(getIndexFilePath(sh.fileName), true);
+
+        if (fc == null) {
+            log.trace("Can't read index, {} doesn't exist", getIndexFilePath(sh.fileName));
+            return -1;
+        }
+
+        ByteBuffer index = ByteBuffer.allocate((int) indexFileSize);
+        while (index.hasRemaining() && fc.read(index) > 0) {
+            // Keep reading until the whole index is loaded
+        }
+        fc.close();
+        index.flip();
+
+        // The index may reach the disk before the records it points to, so check that the
+        // metadata of the records isn't zero-filled
+        MappedByteBuffer segment = sh.logChannel.map(FileChannel.MapMode.READ_ONLY, 0, logFileSize);
+        long indexedEnd = -1;
+
+        while (index.remaining() >= INDEX_ENTRY_SIZE) {
+            int entryStart = index.position();
+            long address = index.getLong();
+            long offset = index.getLong();
+            int length = index.getInt();
+            int checksum = index.getInt();
+
+            ByteBuffer entryBuf = index.duplicate();
+            entryBuf.position(entryStart);
+            entryBuf.limit(index.position());
+
+            if (index.getInt() != getChecksum(entryBuf) || offset + length > logFileSize
+                    || segment.get((int) offset - METADATA_SIZE) == 0) {
+                log.warn("Discarding index of {} from entry {}", sh.fileName, entryStart / INDEX_ENTRY_SIZE);
+                index.position(entryStart);
+                break;
+            }
+
+            sh.knownAddresses.put(address, new AddressMetaData(checksum, length, offset));
+            indexedEnd = Math.max(indexedEnd, offset + length);
+        }
+        PlatformDependent.freeDirectBuffer(segment);
+
+        if (index.position() != indexFileSize) {
+            // Drop the invalid part of the index, so that it can be rebuilt
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(sh.getSegment())) {
+                sh.indexChannel.truncate(index.position());
+            }
+        }
+
+        return indexedEnd;
+    }
+
+    /**
+     * Scans the records of a segment file into a SegmentHandle, and adds them to the
+     * index of the segment.
+     *
+     * @param sh          The segment to scan.
+     * @param fromOffset  The offset of the first record to scan, or -1 to scan the whole segment.
+     * @param logFileSize The size of the segment file.
+     * @return The offset following the last record of the segment.
+     */
+    private long scanAddressSpace(SegmentHandle sh, long fromOffset, long logFileSize) throws IOException {
+        if (fromOffset == logFileSize) {
+            return fromOffset;
         }
 
         FileChannel fc = getChannel(sh.fileName, true);
 
         if (fc == null) {
             log.trace("Can't read address space, {} doesn't exist", sh.fileName);
-            return;
+            return fromOffset;
         }
 
-        // Skip the header
-        ByteBuffer headerMetadataBuf = ByteBuffer.allocate(METADATA_SIZE);
-        fc.read(headerMetadataBuf);
-        headerMetadataBuf.flip();
+        if (fromOffset < 0) {
+            // Skip the header
+            ByteBuffer headerMetadataBuf = ByteBuffer.allocate(METADATA_SIZE);
+            fc.read(headerMetadataBuf);
+            headerMetadataBuf.flip();
 
-        Metadata headerMetadata = Metadata.parseFrom(headerMetadataBuf.array());
+            Metadata headerMetadata = Metadata.parseFrom(headerMetadataBuf.array());
+
+            fc.position(fc.position() + headerMetadata.getLength());
+        } else {
+            fc.position(fromOffset);
+        }
 
-        fc.position(fc.position() + headerMetadata.getLength());
         long channelOffset = fc.position();
         ByteBuffer o = ByteBuffer.allocate((int) logFileSize - (int) fc.position());
         fc.read(o);
         fc.close();
         o.flip();
 
-        while (o.hasRemaining()) {
+        Map<Long, AddressMetaData> scanned = new LinkedHashMap<>();
+        Map<Long, Set<UUID>> scannedStreams = new LinkedHashMap<>();
+
+        while (!isEndOfRecords(o)) {
 
             short magic = o.getShort();
             channelOffset += Short.BYTES;
@@ -580,14 +930,19 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 LogEntry entry = LogEntry.parseFrom(logEntryBuf);
 
                 if (!noVerify) {
-                    if (metadata.getChecksum() != getChecksum(entry.toByteArray())) {
+                    if (metadata.getChecksum() != getChecksum(logEntryBuf)) {
                         log.error("Checksum mismatch detected while trying to read file {}", sh.fileName);
                         throw new DataCorruptionException();
                     }
                 }
 
-                sh.knownAddresses.put(entry.getGlobalAddress(),
-                        new AddressMetaData(metadata.getChecksum(), metadata.getLength(), channelOffset));
+                AddressMetaData addressMetaData =
+                        new AddressMetaData(metadata.getChecksum(), metadata.getLength(), channelOffset);
+                sh.knownAddresses.put(entry.getGlobalAddress(), addressMetaData);
+                scanned.put(entry.getGlobalAddress(), addressMetaData);
+                scannedStreams.put(entry.getGlobalAddress(), entry.getStreamsList().stream()
+                        .map(UUID::fromString)
+                        .collect(Collectors.toSet()));
 
                 channelOffset += metadata.getLength();
 
@@ -595,6 +950,201 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 throw new DataCorruptionException();
             }
         }
+
+        if (!scanned.isEmpty()) {
+            ByteBuffer index = ByteBuffer.allocate(scanned.size() * INDEX_ENTRY_SIZE);
+            for (Map.Entry<Long, AddressMetaData> entry : scanned.entrySet()) {
+                putIndexEntry(index, entry.getKey(), entry.getValue());
+            }
+            index.flip();
+            ByteBuffer streamIndex = getStreamIndexEntries(scannedStreams);
+
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(sh.getSegment())) {
+                sh.streamIndexChannel.write(streamIndex);
+                sh.indexChannel.write(index);
+                sh.indexChannel.force(true);
+            }
+            log.debug("Indexed {} records of {}", scanned.size(), sh.fileName);
+        }
+
+        return channelOffset;
+    }
+
+    /**
+     * Append an index entry to a buffer. An index entry consists of the address, offset,
+     * length and checksum of a record, followed by the checksum of the entry itself.
+     *
+     * @param buf      The buffer to append the entry to.
+     * @param address  The address of the record.
+     * @param metaData The metadata of the record.
+     */
+    static private void putIndexEntry(ByteBuffer buf, long address, AddressMetaData metaData) {
+        int entryStart = buf.position();
+        buf.putLong(address);
+        buf.putLong(metaData.offset);
+        buf.putInt(metaData.length);
+        buf.putInt(metaData.checksum);
+
+        ByteBuffer entryBuf = buf.duplicate();
+        entryBuf.position(entryStart);
+        entryBuf.limit(buf.position());
+        buf.putInt(getChecksum(entryBuf));
+    }
+
+    /**
+     * Build the stream index entries of a batch of records. A stream index entry consists of
+     * the address of a record and one of its streams, followed by the checksum of the entry.
+     * A record which doesn't belong to any stream gets a single entry, so that every record
+     * is accounted for in the stream index.
+     *
+     * @param streams The streams of the records, keyed by address.
+     * @return A buffer holding the entries, ready to be written.
+     */
+    static private ByteBuffer getStreamIndexEntries(Map<Long, Set<UUID>> streams) {
+        int count = 0;
+        for (Set<UUID> recordStreams : streams.values()) {
+            count += Math.max(1, recordStreams.size());
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(count * STREAM_INDEX_ENTRY_SIZE);
+        streams.forEach((address, recordStreams) -> {
+            for (UUID stream : recordStreams.isEmpty() ? Collections.singleton(NO_STREAM) : recordStreams) {
+                int entryStart = buf.position();
+                buf.putLong(address);
+                buf.putLong(stream.getMostSignificantBits());
+                buf.putLong(stream.getLeastSignificantBits());
+
+                ByteBuffer entryBuf = buf.duplicate();
+                entryBuf.position(entryStart);
+                entryBuf.limit(buf.position());
+                buf.putInt(getChecksum(entryBuf));
+            }
+        });
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Add the addresses of a batch of records to the in-memory stream index of a segment.
+     */
+    private void addStreamAddresses(SegmentHandle sh, Map<Long, Set<UUID>> streams) {
+        streams.forEach((address, recordStreams) -> {
+            for (UUID stream : recordStreams) {
+                sh.getStreamAddresses().computeIfAbsent(stream, x -> new ConcurrentSkipListSet<>()).add(address);
+            }
+        });
+    }
+
+    /**
+     * Load the stream index of a segment. Torn entries at the end of the stream index file
+     * are discarded, and the streams of the records which have no entry in it (e.g. because
+     * the segment was written before the stream index existed) are read from the records
+     * themselves, and added to the stream index.
+     *
+     * @param sh The segment to load, whose address space is loaded.
+     */
+    private void readStreamIndex(SegmentHandle sh) throws IOException {
+        ByteBuffer streamIndex;
+        try (FileChannel fc = getChannel(getStreamIndexFilePath(sh.fileName), true)) {
+            streamIndex = ByteBuffer.allocate((int) fc.size());
+            while (streamIndex.hasRemaining() && fc.read(streamIndex) > 0) {
+                // Keep reading until the whole stream index is loaded
+            }
+        }
+        streamIndex.flip();
+
+        long firstAddress = sh.getKnownAddresses().getFirstAddress();
+        AddressBitmap indexed = new AddressBitmap(firstAddress, RECORDS_PER_LOG_FILE);
+        Map<Long, Set<UUID>> streams = new HashMap<>();
+
+        while (streamIndex.remaining() >= STREAM_INDEX_ENTRY_SIZE) {
+            int entryStart = streamIndex.position();
+            long address = streamIndex.getLong();
+            UUID stream = new UUID(streamIndex.getLong(), streamIndex.getLong());
+
+            ByteBuffer entryBuf = streamIndex.duplicate();
+            entryBuf.position(entryStart);
+            entryBuf.limit(streamIndex.position());
+
+            if (streamIndex.getInt() != getChecksum(entryBuf)
+                    || address < firstAddress || address >= firstAddress + RECORDS_PER_LOG_FILE) {
+                log.warn("Discarding stream index of {} from entry {}", sh.fileName,
+                        entryStart / STREAM_INDEX_ENTRY_SIZE);
+                streamIndex.position(entryStart);
+                break;
+            }
+
+            // Entries of records which were lost or compacted away are ignored
+            if (sh.getKnownAddresses().containsKey(address)) {
+                indexed.add(address);
+                if (!stream.equals(NO_STREAM)) {
+                    streams.computeIfAbsent(address, x -> new HashSet<>()).add(stream);
+                }
+            }
+        }
+        addStreamAddresses(sh, streams);
+
+        if (streamIndex.position() != streamIndex.limit()) {
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(sh.getSegment())) {
+                sh.streamIndexChannel.truncate(streamIndex.position());
+            }
+        }
+
+        List<Long> unindexed = new ArrayList<>();
+        for (long address = firstAddress; address < firstAddress + RECORDS_PER_LOG_FILE; address++) {
+            if (sh.getKnownAddresses().containsKey(address) && !indexed.contains(address)) {
+                unindexed.add(address);
+            }
+        }
+        if (unindexed.isEmpty()) {
+            return;
+        }
+
+        Map<Long, LogData> records = new HashMap<>();
+        try {
+            readRecords(sh, unindexed, records);
+        } catch (DataCorruptionException e) {
+            log.error("Couldn't rebuild the stream index of {}, its corrupted records can't be read", sh.fileName);
+            return;
+        }
+
+        Map<Long, Set<UUID>> unindexedStreams = new LinkedHashMap<>();
+        records.forEach((address, entry) -> unindexedStreams.put(address, entry.getStreams()));
+        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(sh.getSegment())) {
+            sh.streamIndexChannel.write(getStreamIndexEntries(unindexedStreams));
+        }
+        addStreamAddresses(sh, unindexedStreams);
+        log.info("Added {} records of {} to its stream index", unindexedStreams.size(), sh.fileName);
+    }
+
+    /**
+     * Verify a record read from the location given by its address metadata.
+     *
+     * @param sh       The segment the record was read from.
+     * @param record   The record, positioned at its delimiter. When this method returns,
+     *                 the buffer is positioned at the log entry of the record.
+     * @param metaData The address metadata of the record.
+     */
+    private void verifyRecord(SegmentHandle sh, ByteBuffer record, AddressMetaData metaData)
+            throws InvalidProtocolBufferException {
+        if (record.getShort() != RECORD_DELIMITER) {
+            log.error("Expected a delimiter but found something else while trying to read file {}", sh.fileName);
+            throw new DataCorruptionException();
+        }
+
+        byte[] metadataBuf = new byte[METADATA_SIZE];
+        record.get(metadataBuf);
+        Metadata metadata = Metadata.parseFrom(metadataBuf);
+
+        if (metadata.getLength() != metaData.length || metadata.getChecksum() != metaData.checksum) {
+            log.error("Record metadata doesn't match the index while trying to read file {}", sh.fileName);
+            throw new DataCorruptionException();
+        }
+
+        if (!noVerify && metadata.getChecksum() != getChecksum(record.slice())) {
+            log.error("Checksum mismatch detected while trying to read file {}", sh.fileName);
+            throw new DataCorruptionException();
+        }
     }
 
     /**
@@ -606,30 +1156,109 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      */
     private LogData  readRecord(SegmentHandle sh, long address)
             throws IOException {
-        FileChannel fc = null;
-        try {
-            fc = getChannel(sh.fileName, true);
+        if (mmapReads && sh.getSegment() < lastSegment) {
             AddressMetaData metaData = sh.getKnownAddresses().get(address);
             if (metaData == null) {
                 return null;
             }
 
-            fc.position(metaData.offset);
+            LogData logData = readMappedRecord(sh, metaData);
+            if (logData != null) {
+                return logData;
+            }
+        }
+
+        AddressMetaData metaData = sh.getKnownAddresses().get(address);
+        if (metaData == null) {
+            return null;
+        }
 
-            try {
-                ByteBuffer entryBuf = ByteBuffer.allocate(metaData.length);
-                fc.read(entryBuf);
-                return getLogData(LogEntry.parseFrom(entryBuf.array()));
-            } catch (InvalidProtocolBufferException e) {
-                throw new DataCorruptionException();
+        // Positional reads of the segment channel don't contend with each other, so the
+        // reads of a segment only exclude the writes to it
+        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireReadLock(sh.getSegment())) {
+            ByteBuffer recordBuf = ByteBuffer.allocate(Short.BYTES + METADATA_SIZE + metaData.length);
+            long recordOffset = getRecordOffset(metaData);
+            while (recordBuf.hasRemaining()) {
+                if (sh.logChannel.read(recordBuf, recordOffset + recordBuf.position()) < 0) {
+                    log.error("Unexpected end of file {} at address {}", sh.fileName, address);
+                    throw new DataCorruptionException();
+                }
+            }
+            recordBuf.flip();
+            verifyRecord(sh, recordBuf, metaData);
+            return getLogData(LogEntry.parseFrom(CodedInputStream.newInstance(recordBuf.array(),
+                    recordBuf.position(), recordBuf.remaining())));
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
+        }
+    }
+
+    /**
+     * Read a log entry out of the memory mapping of a segment. The payload
+     * of the returned entry is a view of the mapping.
+     *
+     * @param sh       The segment to read from.
+     * @param metaData The metadata of the entry.
+     * @return The log unit entry, or null if the entry isn't covered by the mapping.
+     */
+    private LogData readMappedRecord(SegmentHandle sh, AddressMetaData metaData) throws IOException {
+        MappedSegment mapping = sh.acquireMapping();
+        if (mapping == null) {
+            return null;
+        }
+
+        boolean transferred = false;
+        try {
+            if (!mapping.contains(metaData.offset, metaData.length)) {
+                // The entry was appended after the segment has been mapped
+                return null;
+            }
+
+            long recordOffset = getRecordOffset(metaData);
+            ByteBuffer record = mapping.slice(recordOffset, (int) (metaData.offset + metaData.length - recordOffset));
+            verifyRecord(sh, record, metaData);
+
+            // Alias the bytes fields, so that parsing doesn't copy the payload
+            CodedInputStream input = CodedInputStream.newInstance(record.slice());
+            input.enableAliasing(true);
+            LogEntry entry = LogEntry.parseFrom(input);
+
+            if (entry.getDataType() != DataType.DATA) {
+                return getLogData(entry);
             }
+
+            transferred = true;
+            return getLogData(entry, mapping);
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
         } finally {
-            if (fc != null) {
-                fc.close();
+            if (!transferred) {
+                mapping.release();
             }
         }
     }
 
+    /**
+     * Get the offset of the delimiter of a record, given its address metadata.
+     */
+    static private long getRecordOffset(AddressMetaData metaData) {
+        return metaData.offset - Short.BYTES - METADATA_SIZE;
+    }
+
+    /**
+     * Open a segment file for writing. Records are written at the write position of
+     * the segment rather than appended, as the file is preallocated.
+     */
+    private FileChannel getSegmentChannel(String filePath) throws IOException {
+        try {
+            return FileChannel.open(FileSystems.getDefault().getPath(filePath),
+                    EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+        } catch (IOException e) {
+            log.error("Error opening file {}", filePath, e);
+            throw new RuntimeException(e);
+        }
+    }
+
     private FileChannel getChannel(String filePath, boolean readOnly) throws IOException {
         try {
 
@@ -653,49 +1282,123 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Gets the file channel for a particular address, creating it
-     * if is not present in the map.
+     * Get the handle of the segment holding an address, opening the segment if it
+     * isn't open. The handle is retained, and must be released by the caller.
+     *
+     * @param address An address of the segment.
+     * @return The retained segment handle.
+     */
+    private SegmentHandle acquireSegmentHandle(long address) {
+        long segment = address / RECORDS_PER_LOG_FILE;
+        String filePath = getSegmentFilePath(segment);
+
+        while (true) {
+            SegmentHandle sh = writeChannels.get(filePath);
+            if (sh == null) {
+                sh = openSegmentHandle(segment, filePath);
+            }
+            if (sh.retain()) {
+                sh.setLastAccess(System.nanoTime());
+                return sh;
+            }
+            // The handle was closed as it was being acquired, so the segment has to be reopened
+        }
+    }
+
+    /**
+     * Gets the handle of the segment holding an address, without retaining it. Only
+     * meant for tests, which don't race with the eviction of segments.
      *
      * @param address The address to open.
-     * @return The FileChannel for that address.
+     * @return The handle of the segment.
      */
     @VisibleForTesting
-    synchronized SegmentHandle getSegmentHandleForAddress(long address) {
-        String filePath = logDir + File.separator;
-        long segment = address / RECORDS_PER_LOG_FILE;
-        filePath += segment;
-        filePath += ".log";
+    SegmentHandle getSegmentHandleForAddress(long address) {
+        SegmentHandle sh = acquireSegmentHandle(address);
+        sh.release();
+        return sh;
+    }
 
-        return writeChannels.computeIfAbsent(filePath, a -> {
+    @VisibleForTesting
+    int getOpenSegmentCount() {
+        return writeChannels.size();
+    }
 
-            try {
+    private String getSegmentFilePath(long segment) {
+        return logDir + File.separator + segment + ".log";
+    }
 
-                FileChannel fc1 = getChannel(a, false);
-                FileChannel fc2 = getChannel(getTrimmedFilePath(a), false);
-                FileChannel fc3 = getChannel(getPendingTrimsFilePath(a), false);
+    /**
+     * Open a segment, and evict the least recently used segments beyond the maximum number
+     * of open segments. Only sealed segments which aren't in use are evicted.
+     */
+    private SegmentHandle openSegmentHandle(long segment, String filePath) {
+        synchronized (segmentHandlesLock) {
+            SegmentHandle opened = writeChannels.get(filePath);
+            if (opened != null) {
+                return opened;
+            }
 
-                boolean verify = true;
+            opened = openSegment(segment, filePath);
+            writeChannels.put(filePath, opened);
 
-                if (noVerify) {
-                    verify = false;
+            if (writeChannels.size() > maxOpenSegments) {
+                List<SegmentHandle> candidates = new ArrayList<>();
+                for (SegmentHandle sh : writeChannels.values()) {
+                    if (sh != opened && sh.getSegment() < lastSegment && sh.getRefCount() == 0) {
+                        candidates.add(sh);
+                    }
                 }
+                candidates.sort(Comparator.comparingLong(SegmentHandle::getLastAccess));
 
-                if(fc1.size() == 0) {
-                    writeHeader(fc1, VERSION, verify);
-                    log.trace("Opened new segment file, writing header for {}", a);
+                for (SegmentHandle sh : candidates) {
+                    if (writeChannels.size() <= maxOpenSegments) {
+                        break;
+                    }
+                    if (sh.closeIfUnused()) {
+                        writeChannels.remove(sh.getFileName(), sh);
+                        counterSegmentEvictions.inc();
+                        log.trace("Evicted segment {}", sh.getSegment());
+                    }
                 }
-                log.trace("Opened new log file at {}", a);
-                SegmentHandle sh = new SegmentHandle(segment, fc1, fc2, fc3, a);
-                // The first time we open a file we should read to the end, to load the
-                // map of entries we already have.
-                readAddressSpace(sh);
-                loadTrimAddresses(sh);
-                return sh;
-            } catch (IOException e) {
-                log.error("Error opening file {}", a, e);
-                throw new RuntimeException(e);
             }
-        });
+
+            return opened;
+        }
+    }
+
+    private SegmentHandle openSegment(long segment, String filePath) {
+        try {
+            FileChannel fc1 = getSegmentChannel(filePath);
+            preallocatedChannels.add(fc1);
+            FileChannel fc2 = getChannel(getTrimmedFilePath(filePath), false);
+            FileChannel fc3 = getChannel(getPendingTrimsFilePath(filePath), false);
+            FileChannel fc4 = getChannel(getIndexFilePath(filePath), false);
+            FileChannel fc5 = getChannel(getStreamIndexFilePath(filePath), false);
+
+            boolean verify = true;
+
+            if (noVerify) {
+                verify = false;
+            }
+
+            if(fc1.size() == 0) {
+                writeHeader(fc1, VERSION, verify);
+                log.trace("Opened new segment file, writing header for {}", filePath);
+            }
+            log.trace("Opened new log file at {}", filePath);
+            SegmentHandle sh = new SegmentHandle(segment, fc1, fc2, fc3, fc4, fc5, filePath);
+            // The first time we open a file we should read to the end, to load the
+            // map of entries we already have.
+            readAddressSpace(sh);
+            loadTrimAddresses(sh);
+            readStreamIndex(sh);
+            updateReclaimableBytes(sh);
+            return sh;
+        } catch (IOException e) {
+            log.error("Error opening file {}", filePath, e);
+            throw new RuntimeException(e);
+        }
     }
 
     private void loadTrimAddresses(SegmentHandle sh) throws IOException {
@@ -826,17 +1529,24 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     public static int getChecksum(byte[] bytes) {
-        Hasher hasher = Hashing.crc32c().newHasher();
-        for (byte a : bytes) {
-            hasher.putByte(a);
-        }
+        Crc32c crc = new Crc32c();
+        crc.update(bytes);
+        return crc.getIntValue();
+    }
 
-        return hasher.hash().asInt();
+    /**
+     * Checksum the remaining bytes of a buffer, without moving its position.
+     */
+    static int getChecksum(ByteBuffer buf) {
+        Crc32c crc = new Crc32c();
+        crc.update(buf.duplicate());
+        return crc.getIntValue();
     }
 
     static int getChecksum(long num) {
-        Hasher hasher = Hashing.crc32c().newHasher();
-        return hasher.putLong(num).hash().asInt();
+        Crc32c crc = new Crc32c();
+        crc.updateLong(num);
+        return crc.getIntValue();
     }
 
     /**
@@ -848,28 +1558,215 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      * @return Returns metadata for the written record
      */
     private AddressMetaData writeRecord(SegmentHandle fh, long address, LogData entry) throws IOException {
-        LogEntry logEntry = getLogEntry(address, entry);
-        Metadata metadata = getMetadata(logEntry);
+        return writeRecords(fh, Collections.singletonMap(address, entry)).get(address);
+    }
+
+    /**
+     * Write log entry records to a file, with a single write. The records are serialized
+     * straight into a pooled direct buffer, and checksummed in place.
+     *
+     * @param fh      The file handle to use.
+     * @param entries The LogData to append, keyed by address.
+     * @return Returns metadata for the written records, keyed by address
+     */
+    private Map<Long, AddressMetaData> writeRecords(SegmentHandle fh, Map<Long, LogData> entries)
+            throws IOException {
+        LogEntry[] logEntries = new LogEntry[entries.size()];
+        int size = 0;
+
+        int i = 0;
+        for (Map.Entry<Long, LogData> entry : entries.entrySet()) {
+            logEntries[i] = getLogEntry(entry.getKey(), entry.getValue());
+            size += Short.BYTES + METADATA_SIZE + logEntries[i].getSerializedSize();
+            i++;
+        }
+
+        ByteBuffer buf = acquireWriteBuffer(size);
+        try {
+            // Offsets of the log entries relative to the start of the write
+            Metadata[] metadata = new Metadata[logEntries.length];
+            int[] offsets = new int[logEntries.length];
+            for (i = 0; i < logEntries.length; i++) {
+                offsets[i] = buf.position() + Short.BYTES + METADATA_SIZE;
+                metadata[i] = putRecord(buf, logEntries[i]);
+            }
+            buf.flip();
+
+            ByteBuffer index = ByteBuffer.allocate(entries.size() * INDEX_ENTRY_SIZE);
+            Map<Long, AddressMetaData> written = new LinkedHashMap<>();
+            long maxAddress = -1;
+
+            Map<Long, Set<UUID>> streams = new LinkedHashMap<>();
+            entries.forEach((address, entry) -> streams.put(address, entry.getStreams()));
+            ByteBuffer streamIndex = getStreamIndexEntries(streams);
+
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(fh.getSegment())) {
+                long writePosition = fh.getWritePosition();
+
+                i = 0;
+                for (long address : entries.keySet()) {
+                    AddressMetaData addressMetaData = new AddressMetaData(metadata[i].getChecksum(),
+                            metadata[i].getLength(), writePosition + offsets[i]);
+                    putIndexEntry(index, address, addressMetaData);
+                    written.put(address, addressMetaData);
+                    maxAddress = Math.max(maxAddress, address);
+                    i++;
+                }
+
+                preallocate(fh, writePosition + size);
+                while (buf.hasRemaining()) {
+                    writePosition += fh.logChannel.write(buf, writePosition);
+                }
+                fh.setWritePosition(writePosition);
+
+                // The indexes aren't synced, records missing from them are recovered from the log.
+                // The stream index is written first, so that it usually covers the indexed records.
+                fh.streamIndexChannel.write(streamIndex);
+                index.flip();
+                fh.indexChannel.write(index);
+                addStreamAddresses(fh, streams);
+                channelsToSync.add(fh.logChannel);
+                syncTailSegment(maxAddress);
+            }
 
-        ByteBuffer record = getByteBuffer(metadata, logEntry);
+            return written;
+        } finally {
+            releaseWriteBuffer(buf);
+        }
+    }
 
-        ByteBuffer recordBuf = ByteBuffer.allocate(Short.BYTES // Delimiter
-                + record.capacity());
+    /**
+     * Serialize a record into a buffer: a delimiter, the metadata of the log entry, and
+     * the log entry itself. The log entry is serialized once, and checksummed in place.
+     *
+     * @param buf   The buffer to serialize the record into, which must have enough room for it.
+     * @param entry The log entry of the record.
+     * @return The metadata of the record.
+     */
+    static private Metadata putRecord(ByteBuffer buf, LogEntry entry) throws IOException {
+        int length = entry.getSerializedSize();
+        buf.putShort(RECORD_DELIMITER);
+        int metadataOffset = buf.position();
+        int entryOffset = metadataOffset + METADATA_SIZE;
+
+        ByteBuffer entryBuf = buf.duplicate();
+        entryBuf.position(entryOffset);
+        entryBuf.limit(entryOffset + length);
+        entryBuf = entryBuf.slice();
+        CodedOutputStream output = CodedOutputStream.newInstance(entryBuf);
+        entry.writeTo(output);
+        output.flush();
+        entryBuf.flip();
+
+        Metadata metadata = Metadata.newBuilder()
+                .setChecksum(getChecksum(entryBuf))
+                .setLength(length)
+                .build();
+        buf.put(metadata.toByteArray());
+        buf.position(entryOffset + length);
+        return metadata;
+    }
 
-        recordBuf.putShort(RECORD_DELIMITER);
-        recordBuf.put(record.array());
-        recordBuf.flip();
+    /**
+     * Check whether a buffer is positioned at the end of the records of a segment, which
+     * is followed by zero-filled preallocated space. A record always starts with a delimiter
+     * followed by a metadata tag, so a corrupted delimiter alone isn't mistaken for the end.
+     */
+    static private boolean isEndOfRecords(ByteBuffer buf) {
+        return buf.remaining() < Short.BYTES + METADATA_SIZE
+                || (buf.getShort(buf.position()) == 0 && buf.get(buf.position() + Short.BYTES) == 0);
+    }
 
-        long channelOffset;
+    /**
+     * Make sure that a segment file is large enough for a write, by preallocating a chunk
+     * of zero-filled space at its end if it isn't. The new size of the file is synced right
+     * away, so syncing the records written to the file doesn't have to update its metadata.
+     *
+     * @param fh  The file handle to use.
+     * @param end The offset the file has to extend to.
+     */
+    private void preallocate(SegmentHandle fh, long end) throws IOException {
+        long size = fh.logChannel.size();
+        if (end <= size) {
+            return;
+        }
 
-        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(fh.getSegment())) {
-            channelOffset = fh.logChannel.position() + Short.BYTES + METADATA_SIZE;
-            fh.logChannel.write(recordBuf);
-            channelsToSync.add(fh.logChannel);
-            syncTailSegment(address);
+        long newSize = end + SEGMENT_PREALLOCATION_SIZE;
+        while (size < newSize) {
+            ByteBuffer zeros = ZEROS.duplicate();
+            zeros.limit((int) Math.min(zeros.capacity(), newSize - size));
+            size += fh.logChannel.write(zeros, size);
+        }
+        fh.logChannel.force(true);
+        log.trace("Preallocated {} to {} bytes", fh.fileName, newSize);
+    }
+
+    private ByteBuffer acquireWriteBuffer(int size) {
+        ByteBuffer buf = writeBuffers.poll();
+        if (buf == null || buf.capacity() < size) {
+            if (buf != null) {
+                PlatformDependent.freeDirectBuffer(buf);
+            }
+            buf = ByteBuffer.allocateDirect(Math.max(size, WRITE_BUFFER_SIZE));
+        }
+        buf.clear();
+        return buf;
+    }
+
+    private void releaseWriteBuffer(ByteBuffer buf) {
+        writeBuffers.offer(buf);
+    }
+
+    /**
+     * Append a batch of entries. New entries are written with one gathering write per
+     * segment, while entries which may overwrite an address are appended one at a time.
+     */
+    @Override
+    public Map<Long, RuntimeException> append(Map<Long, LogData> entries) {
+        Map<Long, RuntimeException> failures = new HashMap<>();
+        Map<SegmentHandle, Map<Long, LogData>> segments = new IdentityHashMap<>();
+
+        try {
+            for (Map.Entry<Long, LogData> entry : entries.entrySet()) {
+                long address = entry.getKey();
+                try {
+                    checkAddress(address);
+                    SegmentHandle fh = acquireSegmentHandle(address);
+                    if (fh.getKnownAddresses().containsKey(address) ||
+                            fh.getTrimmedAddresses().contains(address)) {
+                        fh.release();
+                        append(address, entry.getValue());
+                    } else if (segments.containsKey(fh)) {
+                        // The segment is already retained for the batch
+                        fh.release();
+                        segments.get(fh).put(address, entry.getValue());
+                    } else {
+                        segments.computeIfAbsent(fh, x -> new LinkedHashMap<>()).put(address, entry.getValue());
+                    }
+                } catch (TrimmedException e) {
+                    failures.put(address, new OverwriteException());
+                } catch (RuntimeException e) {
+                    failures.put(address, e);
+                }
+            }
+
+            for (Map.Entry<SegmentHandle, Map<Long, LogData>> segment : segments.entrySet()) {
+                SegmentHandle fh = segment.getKey();
+                try {
+                    writeRecords(fh, segment.getValue()).forEach(fh.getKnownAddresses()::put);
+                    log.trace("Disk_write[{}]: Written to disk.", segment.getValue().keySet());
+                } catch (IOException | RuntimeException e) {
+                    log.error("Disk_write[{}]: Exception", segment.getValue().keySet(), e);
+                    RuntimeException failure = e instanceof RuntimeException ? (RuntimeException) e
+                            : new RuntimeException(e);
+                    segment.getValue().keySet().forEach(address -> failures.put(address, failure));
+                }
+            }
+        } finally {
+            segments.keySet().forEach(SegmentHandle::release);
         }
 
-        return new AddressMetaData(metadata.getChecksum(), metadata.getLength(), channelOffset);
+        return failures;
     }
 
     @Override
@@ -879,20 +1776,24 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             checkAddress(address);
             // make sure the entry doesn't currently exist...
             // (probably need a faster way to do this - high watermark?)
-            SegmentHandle fh = getSegmentHandleForAddress(address);
-            if (fh.getKnownAddresses().containsKey(address) ||
-                    fh.getTrimmedAddresses().contains(address)) {
-                if (entry.getRank()==null) {
-                    throw new OverwriteException();
+            SegmentHandle fh = acquireSegmentHandle(address);
+            try {
+                if (fh.getKnownAddresses().containsKey(address) ||
+                        fh.getTrimmedAddresses().contains(address)) {
+                    if (entry.getRank()==null) {
+                        throw new OverwriteException();
+                    } else {
+                        // the method below might throw DataOutrankedException or ValueAdoptedException
+                        assertAppendPermittedUnsafe(address, entry);
+                        AddressMetaData addressMetaData = writeRecord(fh, address, entry);
+                        fh.getKnownAddresses().put(address, addressMetaData);
+                    }
                 } else {
-                    // the method below might throw DataOutrankedException or ValueAdoptedException
-                    assertAppendPermittedUnsafe(address, entry);
                     AddressMetaData addressMetaData = writeRecord(fh, address, entry);
                     fh.getKnownAddresses().put(address, addressMetaData);
                 }
-            } else {
-                AddressMetaData addressMetaData = writeRecord(fh, address, entry);
-                fh.getKnownAddresses().put(address, addressMetaData);
+            } finally {
+                fh.release();
             }
             log.trace("Disk_write[{}]: Written to disk.", address);
         } catch (IOException e) {
@@ -907,16 +1808,184 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     public LogData read(long address) {
         try {
             checkAddress(address);
-            SegmentHandle sh = getSegmentHandleForAddress(address);
-            if (sh.getPendingTrims().contains(address)) {
-                throw new TrimmedException();
+            SegmentHandle sh = acquireSegmentHandle(address);
+            try {
+                if (sh.getPendingTrims().contains(address)) {
+                    throw new TrimmedException();
+                }
+                return readRecord(sh, address);
+            } finally {
+                sh.release();
             }
-            return readRecord(sh, address);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Get the addresses of the entries of a stream in a range, from the stream indexes of
+     * the segments covering the range. Segments which were never written aren't created.
+     */
+    @Override
+    public List<Long> getStreamAddresses(UUID streamId, long first, long last) {
+        List<Long> addresses = new ArrayList<>();
+        long from = Math.max(first, startingAddress);
+        long to = Math.min(last, getGlobalTail());
+
+        for (long segment = from / RECORDS_PER_LOG_FILE; from <= to && segment <= to / RECORDS_PER_LOG_FILE;
+             segment++) {
+            String filePath = getSegmentFilePath(segment);
+            if (!writeChannels.containsKey(filePath) && !new File(filePath).exists()) {
+                continue;
+            }
+
+            long segmentFirst = Math.max(from, segment * RECORDS_PER_LOG_FILE);
+            long segmentLast = Math.min(to, (segment + 1) * RECORDS_PER_LOG_FILE - 1);
+            SegmentHandle sh = acquireSegmentHandle(segmentFirst);
+            try {
+                NavigableSet<Long> streamAddresses = sh.getStreamAddresses().get(streamId);
+                if (streamAddresses == null) {
+                    continue;
+                }
+                for (long address : streamAddresses.subSet(segmentFirst, true, segmentLast, true)) {
+                    if (sh.getKnownAddresses().containsKey(address) && !sh.getPendingTrims().contains(address)) {
+                        addresses.add(address);
+                    }
+                }
+            } finally {
+                sh.release();
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Read a batch of addresses. The addresses are grouped by segment, and the records of
+     * a segment are read in file order, with one positional read for every span of records
+     * lying close enough together, instead of one read per record.
+     */
+    @Override
+    public Map<Long, LogData> read(Iterable<Long> addresses) {
+        TreeMap<Long, List<Long>> segments = new TreeMap<>();
+        for (long address : addresses) {
+            checkAddress(address);
+            segments.computeIfAbsent(address / RECORDS_PER_LOG_FILE, x -> new ArrayList<>()).add(address);
+        }
+
+        Map<Long, LogData> entries = new HashMap<>();
+        try {
+            for (List<Long> segmentAddresses : segments.values()) {
+                SegmentHandle sh = acquireSegmentHandle(segmentAddresses.get(0));
+                try {
+                    for (long address : segmentAddresses) {
+                        if (sh.getPendingTrims().contains(address)) {
+                            throw new TrimmedException();
+                        }
+                    }
+
+                    if (mmapReads && sh.getSegment() < lastSegment) {
+                        // Mapped reads don't seek, they only slice the mapping
+                        for (long address : segmentAddresses) {
+                            LogData entry = readRecord(sh, address);
+                            if (entry != null) {
+                                entries.put(address, entry);
+                            }
+                        }
+                    } else {
+                        readRecords(sh, segmentAddresses, entries);
+                    }
+                } finally {
+                    sh.release();
+                }
+            }
+        } catch (IOException e) {
+            entries.forEach(this::release);
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            entries.forEach(this::release);
+            throw e;
+        }
+
+        return entries;
+    }
+
+    /**
+     * Read the records of a batch of addresses of the same segment. Records are sorted by
+     * offset and coalesced into spans, which are read with a single positional read each.
+     * A span may cover the records of other addresses in between the requested ones, as long
+     * as the gaps are smaller than {@link #MAX_READ_GAP}, and is at most
+     * {@link #READ_SPAN_SIZE} bytes long unless it holds a single larger record.
+     *
+     * @param sh        The segment to read from.
+     * @param addresses The addresses to read, which all belong to the segment.
+     * @param entries   The map to add the entries read to.
+     */
+    private void readRecords(SegmentHandle sh, List<Long> addresses, Map<Long, LogData> entries)
+            throws IOException {
+        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireReadLock(sh.getSegment())) {
+            TreeMap<Long, Long> records = new TreeMap<>();
+            for (long address : addresses) {
+                AddressMetaData metaData = sh.getKnownAddresses().get(address);
+                if (metaData != null) {
+                    records.put(metaData.offset, address);
+                }
+            }
+
+            List<Long> span = new ArrayList<>();
+            long spanStart = 0;
+            long spanEnd = 0;
+            for (long address : records.values()) {
+                AddressMetaData metaData = sh.getKnownAddresses().get(address);
+                long recordOffset = getRecordOffset(metaData);
+                long recordEnd = metaData.offset + metaData.length;
+
+                if (!span.isEmpty() && (recordOffset - spanEnd > MAX_READ_GAP
+                        || recordEnd - spanStart > READ_SPAN_SIZE)) {
+                    readSpan(sh, span, spanStart, spanEnd, entries);
+                    span.clear();
+                }
+
+                if (span.isEmpty()) {
+                    spanStart = recordOffset;
+                }
+                span.add(address);
+                spanEnd = recordEnd;
+            }
+
+            if (!span.isEmpty()) {
+                readSpan(sh, span, spanStart, spanEnd, entries);
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
+        }
+    }
+
+    /**
+     * Read a span of a segment with one positional read, and parse the records of the
+     * given addresses out of it. The caller must hold the read lock of the segment.
+     */
+    private void readSpan(SegmentHandle sh, List<Long> addresses, long spanStart, long spanEnd,
+                          Map<Long, LogData> entries) throws IOException {
+        ByteBuffer spanBuf = ByteBuffer.allocate((int) (spanEnd - spanStart));
+        while (spanBuf.hasRemaining()) {
+            if (sh.logChannel.read(spanBuf, spanStart + spanBuf.position()) < 0) {
+                log.error("Unexpected end of file {} at offset {}", sh.fileName, spanStart + spanBuf.position());
+                throw new DataCorruptionException();
+            }
+        }
+
+        for (long address : addresses) {
+            AddressMetaData metaData = sh.getKnownAddresses().get(address);
+            ByteBuffer record = spanBuf.duplicate();
+            record.limit((int) (metaData.offset + metaData.length - spanStart));
+            record.position((int) (getRecordOffset(metaData) - spanStart));
+            verifyRecord(sh, record, metaData);
+            entries.put(address, getLogData(LogEntry.parseFrom(CodedInputStream.newInstance(record.array(),
+                    record.position(), record.remaining()))));
+        }
+    }
+
     /**
      * A SegmentHandle is a range view of consecutive addresses in the log. It contains
      * the address space along with metadata like addresses that are trimmed and pending trims.
@@ -932,14 +2001,129 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         @NonNull
         private final FileChannel pendingTrimChannel;
         @NonNull
+        private final FileChannel indexChannel;
+        @NonNull
+        private final FileChannel streamIndexChannel;
+        @NonNull
         private String fileName;
-        private Map<Long, AddressMetaData> knownAddresses = new ConcurrentHashMap();
-        private Set<Long> trimmedAddresses = Collections.newSetFromMap(new ConcurrentHashMap<>());
-        private Set<Long> pendingTrims = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private AddressMetaDataMap knownAddresses;
+        private AddressBitmap trimmedAddresses;
+        private AddressBitmap pendingTrims;
+        // The addresses of the segment's records, by stream
+        private final Map<UUID, NavigableSet<Long>> streamAddresses = new ConcurrentHashMap<>();
+        private MappedSegment mapping;
+        private boolean closed = false;
+        // The offset at which the next record is written, guarded by the segment lock
+        private long writePosition;
+        // The number of users of the handle, or -1 once the handle is closed
+        private final AtomicInteger refCount = new AtomicInteger();
+        // Set once the handle is replaced, so that it is closed when its last user releases it
+        private volatile boolean retired = false;
+        private volatile long lastAccess;
+
+        SegmentHandle(long segment, FileChannel logChannel, FileChannel trimmedChannel,
+                      FileChannel pendingTrimChannel, FileChannel indexChannel, FileChannel streamIndexChannel,
+                      String fileName) {
+            this.segment = segment;
+            this.logChannel = logChannel;
+            this.trimmedChannel = trimmedChannel;
+            this.pendingTrimChannel = pendingTrimChannel;
+            this.indexChannel = indexChannel;
+            this.streamIndexChannel = streamIndexChannel;
+            this.fileName = fileName;
+
+            long firstAddress = segment * RECORDS_PER_LOG_FILE;
+            knownAddresses = new AddressMetaDataMap(firstAddress, RECORDS_PER_LOG_FILE);
+            trimmedAddresses = new AddressBitmap(firstAddress, RECORDS_PER_LOG_FILE);
+            pendingTrims = new AddressBitmap(firstAddress, RECORDS_PER_LOG_FILE);
+        }
+
+        /**
+         * Acquire a reference to the memory mapping of this segment, mapping the
+         * segment file on first use.
+         *
+         * @return A retained mapping, or null if the segment can't be mapped.
+         */
+        synchronized MappedSegment acquireMapping() throws IOException {
+            if (closed) {
+                return null;
+            }
+            if (mapping == null) {
+                mapping = MappedSegment.map(fileName);
+                if (mapping == null) {
+                    return null;
+                }
+            }
+            mapping.retain();
+            return mapping;
+        }
+
+        /**
+         * Drop the reference this handle holds on the mapping of the segment. The
+         * segment is unmapped once all the entries read from it are released.
+         */
+        synchronized void releaseMapping() {
+            closed = true;
+            if (mapping != null) {
+                mapping.release();
+                mapping = null;
+            }
+        }
 
+        /**
+         * Retain the handle, unless it is closed.
+         *
+         * @return True if the handle was retained.
+         */
+        boolean retain() {
+            while (true) {
+                int count = refCount.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (refCount.decrementAndGet() == 0 && retired) {
+                closeIfUnused();
+            }
+        }
+
+        int getRefCount() {
+            return refCount.get();
+        }
+
+        /**
+         * Close the handle if nobody is using it. A closed handle can't be retained.
+         *
+         * @return True if the handle was closed.
+         */
+        boolean closeIfUnused() {
+            if (!refCount.compareAndSet(0, -1)) {
+                return false;
+            }
+            close();
+            return true;
+        }
+
+        /**
+         * Close the handle once it is no longer used.
+         */
+        void retire() {
+            retired = true;
+            closeIfUnused();
+        }
 
         public void close() {
-            Set<FileChannel> channels = new HashSet(Arrays.asList(logChannel, trimmedChannel, pendingTrimChannel));
+            refCount.set(-1);
+            releaseMapping();
+            preallocatedChannels.remove(logChannel);
+            Set<FileChannel> channels = new HashSet(Arrays.asList(logChannel, trimmedChannel, pendingTrimChannel,
+                    indexChannel, streamIndexChannel));
             for (FileChannel channel : channels) {
                 try {
                     channel.force(true);
@@ -956,22 +2140,6 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         }
     }
 
-    static public class CompactedEntry {
-        private final LogHeader logHeader;
-        private final Collection<LogEntry> entries;
-        public CompactedEntry(LogHeader logHeader, Collection<LogEntry> entries) {
-            this.logHeader = logHeader;
-            this.entries = entries;
-        }
-
-        public LogHeader getLogHeader() {
-            return logHeader;
-        }
-
-        public Collection<LogEntry> getEntries() {
-            return entries;
-        }
-    }
 
     @Override
     public void close() {
@@ -979,11 +2147,19 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             fh.close();
         }
 
-        writeChannels = new HashMap<>();
+        writeChannels = new ConcurrentHashMap<>();
+
+        ByteBuffer buf;
+        while ((buf = writeBuffers.poll()) != null) {
+            PlatformDependent.freeDirectBuffer(buf);
+        }
     }
 
     @Override
     public void release(long address, LogData entry) {
+        if (entry != null) {
+            entry.releaseDataView();
+        }
     }
 
     @VisibleForTesting
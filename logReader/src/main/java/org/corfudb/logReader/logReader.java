@@ -341,6 +341,18 @@ public class logReader {
         return null;
     }
 
+    /**
+     * Segment files are preallocated, so the records end where the zero-filled
+     * space begins: a zero delimiter followed by a zero metadata tag.
+     */
+    final boolean atEndOfRecords() throws IOException {
+        ByteBuffer peekBuffer = ByteBuffer.allocate(Short.BYTES + 1);
+        fileChannelIn.read(peekBuffer, fileChannelIn.position());
+        peekBuffer.flip();
+        return peekBuffer.remaining() < Short.BYTES + 1
+                || (peekBuffer.getShort() == 0 && peekBuffer.get() == 0);
+    }
+
     final int processLogFile() throws IOException {
         int display = op.getOpType() == Operation.OperationType.DISPLAY ? 1
                 : op.getOpType() == Operation.OperationType.DISPLAY_ALL ? 2 : 0;
@@ -354,7 +366,7 @@ public class logReader {
         //   LogEntry
         // ...
         openLogFile(display);
-        while (remSize > 0) {
+        while (remSize > 0 && !atEndOfRecords()) {
             nextRecord();
         }
         // REPORT
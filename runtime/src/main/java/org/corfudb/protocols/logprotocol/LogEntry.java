@@ -114,7 +114,9 @@ public class LogEntry implements ICorfuSerializable {
         STREAM_COW(4, StreamCOWEntry.class),
         MULTIOBJSMR(7, MultiObjectSMREntry.class),
         MULTISMR(8, MultiSMREntry.class),
-        CHECKPOINT(10, CheckpointEntry.class);
+        CHECKPOINT(10, CheckpointEntry.class),
+        // A MULTIOBJSMR entry with the updates of each object in a length-prefixed section
+        MULTIOBJSMR_SECTIONED(11, MultiObjectSMREntry.class);
 
         public final int type;
         public final Class<? extends LogEntry> entryType;
@@ -1,7 +1,8 @@
 package org.corfudb.protocols.logprotocol;
 
+import com.google.common.annotations.VisibleForTesting;
 import io.netty.buffer.ByteBuf;
-import lombok.Getter;
+import io.netty.buffer.Unpooled;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
@@ -10,25 +11,96 @@ import org.corfudb.runtime.CorfuRuntime;
 import org.corfudb.util.serializer.Serializers;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * A log entry sturcture which contains a collection of multiSMRentries,
  * each one contains a list of updates for one object.
+ *
+ * The updates of each object are serialized in their own section, prefixed
+ * by its length. When the entry is deserialized, the sections are only
+ * indexed, and the updates of an object are deserialized the first time
+ * they are requested. Since the entry is cached with the log data it was
+ * read from, each section is deserialized at most once per address, and
+ * the readers of an object never deserialize the updates of the others.
+ *
+ * This format has its own entry type, MULTIOBJSMR_SECTIONED. Entries of the
+ * MULTIOBJSMR type, in the format without sections, are still deserialized,
+ * all at once, and are serialized in the sectioned format.
  */
-@ToString
+@ToString(exclude = "serializedEntryMap", doNotUseGetters = true)
 @Slf4j
 public class MultiObjectSMREntry extends LogEntry implements ISMRConsumable {
 
     // map from stream-ID to a list of updates encapsulated as MultiSMREntry
-    @Getter
-    public Map<UUID, MultiSMREntry> entryMap = new HashMap<>();
+    private Map<UUID, MultiSMREntry> entryMap = new ConcurrentHashMap<>();
 
-    public MultiObjectSMREntry() { this.type = LogEntryType.MULTIOBJSMR; }
+    // map from stream-ID to the serialized updates which weren't modified since
+    // deserialization, the ones not requested yet being absent from entryMap
+    private Map<UUID, byte[]> serializedEntryMap = new ConcurrentHashMap<>();
+
+    public MultiObjectSMREntry() { this.type = LogEntryType.MULTIOBJSMR_SECTIONED; }
 
     public MultiObjectSMREntry(Map<UUID, MultiSMREntry> entryMap) {
-        this.type = LogEntryType.MULTIOBJSMR;
-        this.entryMap = entryMap;
+        this.type = LogEntryType.MULTIOBJSMR_SECTIONED;
+        this.entryMap = new ConcurrentHashMap<>(entryMap);
+    }
+
+    /**
+     * Get the updates of every object, deserializing the ones which weren't yet.
+     *
+     * @return a map from stream-ID to the updates of the object
+     */
+    public Map<UUID, MultiSMREntry> getEntryMap() {
+        serializedEntryMap.keySet().forEach(this::getDeserializedEntry);
+        return entryMap;
+    }
+
+    /**
+     * @return the IDs of the streams updated by this entry, without deserializing
+     *         their updates
+     */
+    public Set<UUID> getStreamIDs() {
+        Set<UUID> streamIDs = new HashSet<>(serializedEntryMap.keySet());
+        streamIDs.addAll(entryMap.keySet());
+        return streamIDs;
+    }
+
+    /**
+     * @param streamID
+     * @return whether the updates of the object were deserialized
+     */
+    @VisibleForTesting
+    boolean isDeserialized(UUID streamID) {
+        return entryMap.containsKey(streamID);
+    }
+
+    /**
+     * Get the updates of an object, deserializing them the first time they are requested.
+     *
+     * @param streamID
+     * @return the MultiSMREntry corresponding to streamID, or null if the object has no updates
+     */
+    private MultiSMREntry getDeserializedEntry(UUID streamID) {
+        MultiSMREntry entry = entryMap.get(streamID);
+        if (entry != null) {
+            return entry;
+        }
+        // Concurrent readers of the same object wait for a single deserialization
+        return entryMap.computeIfAbsent(streamID, id -> {
+            byte[] section = serializedEntryMap.get(id);
+            if (section == null) {
+                return null;
+            }
+            ByteBuf buf = Unpooled.wrappedBuffer(section);
+            MultiSMREntry deserialized = (MultiSMREntry) Serializers.CORFU.deserialize(buf, runtime);
+            buf.release();
+            if (getEntry() != null) {
+                deserialized.setEntry(getEntry());
+            }
+            return deserialized;
+        });
     }
 
     /**
@@ -37,7 +109,10 @@ public class MultiObjectSMREntry extends LogEntry implements ISMRConsumable {
      * @return the MultiSMREntry corresponding to streamID
      */
     protected MultiSMREntry getStreamEntry(UUID streamID) {
-        return getEntryMap().computeIfAbsent(streamID, u -> {
+        MultiSMREntry entry = getDeserializedEntry(streamID);
+        // The updates are modified, so their serialized form is stale
+        serializedEntryMap.remove(streamID);
+        return entry != null ? entry : entryMap.computeIfAbsent(streamID, u -> {
             return new MultiSMREntry();
         } );
     }
@@ -74,24 +149,42 @@ public class MultiObjectSMREntry extends LogEntry implements ISMRConsumable {
         super.deserializeBuffer(b, rt);
 
         short numUpdates = b.readShort();
-        entryMap = new HashMap<>();
+        entryMap = new ConcurrentHashMap<>();
+        serializedEntryMap = new ConcurrentHashMap<>();
         for (short i = 0; i < numUpdates; i++) {
-            entryMap.put(
-                    new UUID(b.readLong(), b.readLong()),
-                    ((MultiSMREntry) Serializers.CORFU.deserialize(b, rt))
-                    );
+            UUID streamID = new UUID(b.readLong(), b.readLong());
+            if (type == LogEntryType.MULTIOBJSMR) {
+                // The updates aren't delimited, so they are all deserialized
+                entryMap.put(streamID, (MultiSMREntry) Serializers.CORFU.deserialize(b, rt));
+                continue;
+            }
+            byte[] section = new byte[b.readInt()];
+            b.readBytes(section);
+            serializedEntryMap.put(streamID, section);
         }
     }
 
     @Override
     public void serialize(ByteBuf b) {
-        super.serialize(b);
-        b.writeShort(entryMap.size());
-        entryMap.entrySet().stream()
-                .forEach(x -> {
-                        b.writeLong(x.getKey().getMostSignificantBits());
-                        b.writeLong(x.getKey().getLeastSignificantBits());
-                        Serializers.CORFU.serialize(x.getValue(), b);});
+        // Entries read in the format without sections are written in the sectioned one
+        b.writeByte(LogEntryType.MULTIOBJSMR_SECTIONED.asByte());
+        Set<UUID> streamIDs = getStreamIDs();
+        b.writeShort(streamIDs.size());
+        streamIDs.forEach(streamID -> {
+            b.writeLong(streamID.getMostSignificantBits());
+            b.writeLong(streamID.getLeastSignificantBits());
+            byte[] section = serializedEntryMap.get(streamID);
+            if (section != null) {
+                b.writeInt(section.length);
+                b.writeBytes(section);
+            } else {
+                // Reserve the length of the section, and fill it in once serialized
+                int lengthIndex = b.writerIndex();
+                b.writeInt(0);
+                Serializers.CORFU.serialize(entryMap.get(streamID), b);
+                b.setInt(lengthIndex, b.writerIndex() - lengthIndex - Integer.BYTES);
+            }
+        });
     }
 
     /**
@@ -101,8 +194,8 @@ public class MultiObjectSMREntry extends LogEntry implements ISMRConsumable {
      */
     @Override
     public List<SMREntry> getSMRUpdates(UUID id) {
-        MultiSMREntry entry = entryMap.get(id);
-        return entryMap.get(id) == null ? Collections.emptyList() :
+        MultiSMREntry entry = getDeserializedEntry(id);
+        return entry == null ? Collections.emptyList() :
                 entry.getUpdates();
     }
 
@@ -114,7 +207,8 @@ public class MultiObjectSMREntry extends LogEntry implements ISMRConsumable {
     @Override
     public void setEntry(ILogData entry) {
         super.setEntry(entry);
-        this.getEntryMap().values().forEach(x -> {
+        // The updates deserialized later get the entry when they are deserialized
+        entryMap.values().forEach(x -> {
             x.setEntry(entry);
         });
     }
@@ -47,6 +47,9 @@ public enum CorfuMsgType {
     TOKEN_REQ(20, new TypeToken<CorfuPayloadMsg<TokenRequest>>(){}),
     TOKEN_RES(21, new TypeToken<CorfuPayloadMsg<TokenResponse>>(){}),
     RESET_SEQUENCER(22, new TypeToken<CorfuPayloadMsg<Long>>(){}),
+    TOKEN_BATCH_REQ(23, new TypeToken<CorfuPayloadMsg<TokenBatchRequest>>(){}),
+    TOKEN_BATCH_RES(24, new TypeToken<CorfuPayloadMsg<TokenBatchResponse>>(){}),
+    RECOVER_SEQUENCER(25, new TypeToken<CorfuPayloadMsg<SequencerRecoveryRequest>>(){}),
 
     // Logging Unit Messages
     WRITE(30, new TypeToken<CorfuPayloadMsg<WriteRequest>>() {}),
@@ -59,6 +62,11 @@ public enum CorfuMsgType {
     TAIL_RESPONSE(42, new TypeToken<CorfuPayloadMsg<Long>>(){}, true),
     COMPACT_REQUEST(43, TypeToken.of(CorfuMsg.class), true),
     FLUSH_CACHE(44, TypeToken.of(CorfuMsg.class), true),
+    STREAM_ADDRESSES_REQUEST(45, new TypeToken<CorfuPayloadMsg<ReadRequest>>() {}),
+    STREAM_ADDRESSES_RESPONSE(46, new TypeToken<CorfuPayloadMsg<StreamAddressesResponse>>() {}),
+    MULTIPLE_READ_REQUEST(47, new TypeToken<CorfuPayloadMsg<MultipleReadRequest>>() {}),
+    READ_METADATA_REQUEST(48, new TypeToken<CorfuPayloadMsg<ReadRequest>>() {}),
+    READ_METADATA_RESPONSE(49, new TypeToken<CorfuPayloadMsg<ReadMetadataResponse>>() {}),
 
     WRITE_OK(50, TypeToken.of(CorfuMsg.class)),
     ERROR_TRIMMED(51, TypeToken.of(CorfuMsg.class)),
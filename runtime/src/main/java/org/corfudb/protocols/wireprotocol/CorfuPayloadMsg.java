@@ -46,6 +46,18 @@ public class CorfuPayloadMsg<T> extends CorfuMsg {
         ICorfuPayload.serialize(buffer, payload);
     }
 
+    /**
+     * Release the underlying buffer, if present, along with any resources
+     * held by the payload.
+     */
+    @Override
+    public void release() {
+        super.release();
+        if (payload instanceof ICorfuPayload) {
+            ((ICorfuPayload<?>) payload).releaseResources();
+        }
+    }
+
     /**
      * Parse the rest of the message from the buffer. Classes that extend CorfuMsg
      * should parse their fields in this method.
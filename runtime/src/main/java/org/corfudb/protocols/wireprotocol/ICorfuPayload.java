@@ -367,4 +367,11 @@ public interface ICorfuPayload<T> {
     }
 
     void doSerialize(ByteBuf buf);
+
+    /**
+     * Release any resources the payload holds until it has been sent. Called once
+     * the message carrying the payload is no longer needed.
+     */
+    default void releaseResources() {
+    }
 }
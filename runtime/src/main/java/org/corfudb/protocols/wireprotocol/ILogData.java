@@ -79,24 +79,6 @@ public interface ILogData extends IMetadata, Comparable<ILogData> {
         return (LogEntry) getPayload(runtime);
     }
 
-    /**
-     * Return if there is backpointer for a particular stream.
-     */
-    default boolean hasBackpointer(UUID streamId) {
-        return getBackpointerMap() != null
-                && getBackpointerMap().containsKey(streamId);
-    }
-
-    /**
-     * Return the backpointer for a particular stream.
-     */
-    default Long getBackpointer(UUID streamId) {
-        if (!hasBackpointer(streamId)) {
-            return null;
-        }
-        return getBackpointerMap().get(streamId);
-    }
-
     /**
      * Return if this is the first entry in a particular stream.
      */
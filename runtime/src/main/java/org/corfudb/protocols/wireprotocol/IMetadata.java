@@ -94,6 +94,24 @@ public interface IMetadata {
         getMetadataMap().put(LogUnitMetadataType.BACKPOINTER_MAP, backpointerMap);
     }
 
+    /**
+     * Return if there is backpointer for a particular stream.
+     */
+    default boolean hasBackpointer(UUID streamId) {
+        return getBackpointerMap() != null
+                && getBackpointerMap().containsKey(streamId);
+    }
+
+    /**
+     * Return the backpointer for a particular stream.
+     */
+    default Long getBackpointer(UUID streamId) {
+        if (!hasBackpointer(streamId)) {
+            return null;
+        }
+        return getBackpointerMap().get(streamId);
+    }
+
     default void setGlobalAddress(Long address) {
         getMetadataMap().put(LogUnitMetadataType.GLOBAL_ADDRESS, address);
     }
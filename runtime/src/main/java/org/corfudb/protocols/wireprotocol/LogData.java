@@ -2,6 +2,7 @@ package org.corfudb.protocols.wireprotocol;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
 
 import java.util.EnumMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -24,23 +25,55 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
     @Getter
     final DataType type;
 
-    @Getter
     byte[] data;
 
+    /**
+     * A view of the serialized data which is used in place of {@link #data}
+     * when the data is shared with the storage it was read from.
+     */
+    private ByteBuf dataView = null;
+
+    /** The reference keeping the storage behind {@link #dataView} alive. */
+    private ReferenceCounted dataViewOwner = null;
+
+    /** Whether the reference on {@link #dataViewOwner} held by this log data was released. */
+    private boolean dataViewReleased = false;
+
     private ByteBuf serializedCache = null;
 
+    /**
+     * The size of the serialized log data, once it was serialized, so that the size
+     * of log data which was written from a payload object is known.
+     */
+    private int serializedSize = 0;
+
     private final transient AtomicReference<Object> payload = new AtomicReference<>();
 
+    /** Run once the payload is deserialized, see {@link #setDeserializationListener(Runnable)}. */
+    private transient volatile Runnable deserializationListener = null;
+
     /**
      * Return the payload.
      */
     public Object getPayload(CorfuRuntime runtime) {
         Object value = payload.get();
+        boolean deserialized = false;
         if (value == null) {
             synchronized (this.payload) {
                 value = this.payload.get();
                 if (value == null) {
-                    if (data == null) {
+                    deserialized = data != null || dataView != null;
+                    if (data == null && dataView != null) {
+                        final Object actualValue =
+                                Serializers.CORFU.deserialize(dataView.duplicate(), runtime);
+                        // TODO: Remove circular dependency on logentry.
+                        if (actualValue instanceof LogEntry) {
+                            ((LogEntry) actualValue).setEntry(this);
+                            ((LogEntry) actualValue).setRuntime(runtime);
+                        }
+                        value = actualValue == null ? this.payload : actualValue;
+                        this.payload.set(value);
+                    } else if (data == null) {
                         this.payload.set(null);
                     } else {
                         ByteBuf copyBuf = Unpooled.wrappedBuffer(data);
@@ -54,6 +87,8 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
                         value = actualValue == null ? this.payload : actualValue;
                         this.payload.set(value);
                         copyBuf.release();
+                        // Keep the size of the data, which stands for the payload in size estimates
+                        serializedSize = data.length;
                         data = null;
                     }
                 }
@@ -61,9 +96,31 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
         }
 
         data = null;
+        Runnable listener = deserializationListener;
+        if (deserialized && listener != null) {
+            listener.run();
+        }
         return value;
     }
 
+    /**
+     * Set a callback which is run once the payload is deserialized, on the thread which
+     * deserialized it, so that a cache holding this log data can weigh it again.
+     *
+     * @param listener The callback, or null to remove it.
+     */
+    public void setDeserializationListener(Runnable listener) {
+        deserializationListener = listener;
+    }
+
+    /**
+     * Whether the payload is held on the heap as objects, either because it was
+     * deserialized, or because this log data was created from them.
+     */
+    public boolean isPayloadDeserialized() {
+        return payload.get() != null;
+    }
+
     @Override
     public synchronized void releaseBuffer() {
         if (serializedCache != null) {
@@ -79,6 +136,7 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
         if (serializedCache == null) {
             serializedCache = Unpooled.buffer();
             doSerializeInternal(serializedCache);
+            serializedSize = serializedCache.readableBytes();
         } else {
             serializedCache.retain();
         }
@@ -89,9 +147,54 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
         if (data != null) {
             return data.length;
         }
+        if (dataView != null) {
+            return dataView.readableBytes();
+        }
+        if (serializedSize > 0) {
+            return serializedSize;
+        }
         return 1;
     }
 
+    /**
+     * Return the serialized data. If the data is shared with the storage it was
+     * read from, a copy of it is returned.
+     */
+    public byte[] getData() {
+        ByteBuf view = dataView;
+        if (data == null && view != null) {
+            return byteArrayFromBuf(view);
+        }
+        return data;
+    }
+
+    /**
+     * Release the storage this log data shares its data with, if any. The log
+     * data must not be used after the storage is released.
+     */
+    public synchronized void releaseDataView() {
+        if (dataViewOwner != null && !dataViewReleased) {
+            dataViewReleased = true;
+            dataViewOwner.release();
+        }
+    }
+
+    /**
+     * Take an additional reference on the storage this log data shares its data
+     * with, so the data stays readable until the returned reference is released,
+     * even if this log data is released first.
+     *
+     * @return The retained storage, or null if the data is not shared.
+     * @throws io.netty.util.IllegalReferenceCountException if the storage has
+     *         already been freed.
+     */
+    public synchronized ReferenceCounted retainDataView() {
+        if (dataViewOwner == null) {
+            return null;
+        }
+        return dataViewOwner.retain();
+    }
+
     @Getter
     final EnumMap<LogUnitMetadataType, Object> metadataMap;
 
@@ -152,6 +255,23 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
         }
     }
 
+    /**
+     * Constructor for generating LogData which shares its data with the storage
+     * it was read from, instead of copying it onto the heap.
+     *
+     * @param type  The type of log data to instantiate.
+     * @param view  A view of the serialized data.
+     * @param owner The storage behind the view, retained on behalf of this
+     *              log data until {@link #releaseDataView()} is called.
+     */
+    public LogData(DataType type, ByteBuf view, ReferenceCounted owner) {
+        this.type = type;
+        this.data = null;
+        this.dataView = view;
+        this.dataViewOwner = owner;
+        this.metadataMap = new EnumMap<>(IMetadata.LogUnitMetadataType.class);
+    }
+
     /**
      * Return a byte array from buffer.
      *
@@ -178,7 +298,9 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
     void doSerializeInternal(ByteBuf buf) {
         ICorfuPayload.serialize(buf, type);
         if (type == DataType.DATA) {
-            if (data == null) {
+            if (data == null && dataView != null) {
+                ICorfuPayload.serialize(buf, dataView);
+            } else if (data == null) {
                 int lengthIndex = buf.writerIndex();
                 buf.writeInt(0);
                 Serializers.CORFU.serialize(payload.get(), buf);
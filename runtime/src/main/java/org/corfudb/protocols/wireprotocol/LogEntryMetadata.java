@@ -0,0 +1,64 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.EnumMap;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The header of a log entry without its payload: its type, and its metadata such as
+ * its streams, backpointers, rank and checkpoint metadata. It is enough to follow the
+ * backpointers of a stream without transferring the entries which aren't read.
+ */
+@Data
+@AllArgsConstructor
+public class LogEntryMetadata implements ICorfuPayload<LogEntryMetadata>, IMetadata {
+
+    public static final LogEntryMetadata EMPTY = new LogEntryMetadata(DataType.EMPTY,
+            new EnumMap<>(IMetadata.LogUnitMetadataType.class));
+
+    final DataType type;
+
+    final EnumMap<LogUnitMetadataType, Object> metadataMap;
+
+    /**
+     * Deserialization Constructor from ByteBuf to LogEntryMetadata.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public LogEntryMetadata(ByteBuf buf) {
+        type = ICorfuPayload.fromBuffer(buf, DataType.class);
+        if (type.isMetadataAware()) {
+            metadataMap = ICorfuPayload.enumMapFromBuffer(buf,
+                    IMetadata.LogUnitMetadataType.class, Object.class);
+        } else {
+            metadataMap = new EnumMap<>(IMetadata.LogUnitMetadataType.class);
+        }
+    }
+
+    /**
+     * Get the header of a log entry.
+     *
+     * @param data The log entry.
+     */
+    public LogEntryMetadata(ILogData data) {
+        this(data.getType(), data.getMetadataMap());
+    }
+
+    /**
+     * @return True, if the address was not written yet.
+     */
+    public boolean isEmpty() {
+        return type == DataType.EMPTY;
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, type);
+        if (type.isMetadataAware()) {
+            ICorfuPayload.serialize(buf, metadataMap);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A request to read a list of addresses which aren't necessarily contiguous, answered
+ * by a {@link ReadResponse} holding an entry for every address.
+ */
+@Data
+@AllArgsConstructor
+public class MultipleReadRequest implements ICorfuPayload<MultipleReadRequest> {
+
+    final List<Long> addresses;
+
+    /**
+     * Deserialization Constructor from ByteBuf to MultipleReadRequest.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public MultipleReadRequest(ByteBuf buf) {
+        addresses = ICorfuPayload.listFromBuffer(buf, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, addresses);
+    }
+}
@@ -0,0 +1,33 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A response to a read of the metadata of a range of addresses, holding the header of
+ * the entry at every address of the range.
+ */
+@Data
+@AllArgsConstructor
+public class ReadMetadataResponse implements ICorfuPayload<ReadMetadataResponse> {
+
+    final Map<Long, LogEntryMetadata> entries;
+
+    /**
+     * Deserialization Constructor from ByteBuf to ReadMetadataResponse.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public ReadMetadataResponse(ByteBuf buf) {
+        entries = ICorfuPayload.mapFromBuffer(buf, Long.class, LogEntryMetadata.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, entries);
+    }
+}
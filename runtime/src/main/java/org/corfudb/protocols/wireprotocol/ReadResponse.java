@@ -1,24 +1,35 @@
 package org.corfudb.protocols.wireprotocol;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.ReferenceCounted;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
+import lombok.ToString;
 
 /**
  * Created by mwei on 8/15/16.
  */
 @Data
 @AllArgsConstructor
+@ToString(exclude = "retainedViews")
 public class ReadResponse implements ICorfuPayload<ReadResponse> {
 
     @Getter
     Map<Long, LogData> readSet;
 
+    /** Storage retained on behalf of entries which share their data with it. */
+    @Getter(AccessLevel.NONE)
+    private final transient List<ReferenceCounted> retainedViews = new ArrayList<>();
+
     public ReadResponse(ByteBuf buf) {
         readSet = ICorfuPayload.mapFromBuffer(buf, Long.class, LogData.class);
     }
@@ -31,6 +42,39 @@ public class ReadResponse implements ICorfuPayload<ReadResponse> {
         readSet.put(address, data);
     }
 
+    /**
+     * Add an entry to the response, retaining the storage it shares its data
+     * with until {@link #releaseResources()} is called.
+     *
+     * @param address The address of the entry.
+     * @param data    The entry.
+     * @return False if the storage behind the entry was already freed, in
+     *         which case the entry is not added.
+     */
+    public boolean putRetained(Long address, LogData data) {
+        final ReferenceCounted view;
+        try {
+            view = data.retainDataView();
+        } catch (IllegalReferenceCountException e) {
+            return false;
+        }
+        if (view != null) {
+            synchronized (retainedViews) {
+                retainedViews.add(view);
+            }
+        }
+        readSet.put(address, data);
+        return true;
+    }
+
+    @Override
+    public void releaseResources() {
+        synchronized (retainedViews) {
+            retainedViews.forEach(ReferenceCounted::release);
+            retainedViews.clear();
+        }
+    }
+
     @Override
     public void doSerialize(ByteBuf buf) {
         ICorfuPayload.serialize(buf, readSet);
@@ -0,0 +1,52 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Map;
+import java.util.UUID;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A request to a newly promoted sequencer to start issuing tokens, with the tails of the
+ * streams written in the last addresses of the log. The sequencer combines them with its
+ * last snapshot, if the snapshot reaches the scanned addresses.
+ */
+@Data
+@AllArgsConstructor
+public class SequencerRecoveryRequest implements ICorfuPayload<SequencerRecoveryRequest> {
+
+    /** The first token to issue. */
+    final Long initialToken;
+
+    /** The first address scanned, the scan ending right before the initial token. */
+    final Long scanStart;
+
+    /** The last address of every stream written in the scanned addresses. */
+    final Map<UUID, Long> streamTails;
+
+    /** Whether the sequencer was already the primary sequencer, so that no other
+     * sequencer issued tokens since its last snapshot. */
+    final Boolean resume;
+
+    /**
+     * Deserialization Constructor from ByteBuf to SequencerRecoveryRequest.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public SequencerRecoveryRequest(ByteBuf buf) {
+        initialToken = ICorfuPayload.fromBuffer(buf, Long.class);
+        scanStart = ICorfuPayload.fromBuffer(buf, Long.class);
+        streamTails = ICorfuPayload.mapFromBuffer(buf, UUID.class, Long.class);
+        resume = ICorfuPayload.fromBuffer(buf, Boolean.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, initialToken);
+        ICorfuPayload.serialize(buf, scanStart);
+        ICorfuPayload.serialize(buf, streamTails);
+        ICorfuPayload.serialize(buf, resume);
+    }
+}
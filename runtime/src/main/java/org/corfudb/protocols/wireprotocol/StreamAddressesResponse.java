@@ -0,0 +1,32 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The addresses of the entries of a stream in a range of the log, in ascending order.
+ */
+@Data
+@AllArgsConstructor
+public class StreamAddressesResponse implements ICorfuPayload<StreamAddressesResponse> {
+
+    final List<Long> addresses;
+
+    /**
+     * Deserialization Constructor from ByteBuf to StreamAddressesResponse.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public StreamAddressesResponse(ByteBuf buf) {
+        addresses = ICorfuPayload.listFromBuffer(buf, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, addresses);
+    }
+}
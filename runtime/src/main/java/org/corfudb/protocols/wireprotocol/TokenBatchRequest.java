@@ -0,0 +1,33 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A batch of token requests, served by the sequencer in order and answered by a
+ * {@link TokenBatchResponse} holding a response for every request.
+ */
+@Data
+@AllArgsConstructor
+public class TokenBatchRequest implements ICorfuPayload<TokenBatchRequest> {
+
+    final List<TokenRequest> requests;
+
+    /**
+     * Deserialization Constructor from ByteBuf to TokenBatchRequest.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public TokenBatchRequest(ByteBuf buf) {
+        requests = ICorfuPayload.listFromBuffer(buf, TokenRequest.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, requests);
+    }
+}
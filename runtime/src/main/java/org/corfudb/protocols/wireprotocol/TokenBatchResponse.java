@@ -0,0 +1,32 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The responses to a {@link TokenBatchRequest}, in the order of its requests.
+ */
+@Data
+@AllArgsConstructor
+public class TokenBatchResponse implements ICorfuPayload<TokenBatchResponse> {
+
+    final List<TokenResponse> responses;
+
+    /**
+     * Deserialization Constructor from ByteBuf to TokenBatchResponse.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public TokenBatchResponse(ByteBuf buf) {
+        responses = ICorfuPayload.listFromBuffer(buf, TokenResponse.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, responses);
+    }
+}
@@ -1,6 +1,7 @@
 package org.corfudb.runtime;
 
 import com.codahale.metrics.MetricRegistry;
+import io.netty.util.internal.PlatformDependent;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
@@ -98,11 +99,21 @@ public class CorfuRuntime {
     @Getter
     public boolean cacheDisabled = false;
     /**
-     * The maximum size of the cache, in bytes.
+     * The maximum size of the cache of deserialized entries on the heap, in bytes.
      */
     @Getter
     @Setter
-    public long maxCacheSize = 4_000_000_000L;
+    public long maxCacheSize = 500_000_000L;
+
+    /**
+     * The maximum size of the off-heap tier of the cache, which keeps serialized
+     * entries in direct memory once they are evicted from the heap, in bytes, or 0
+     * to disable it. By default, the two tiers share the 4 GB the heap cache used to
+     * take on its own, within half of the direct memory available to the JVM.
+     */
+    @Getter
+    @Setter
+    public long maxOffHeapCacheSize = Math.min(3_500_000_000L, PlatformDependent.maxDirectMemory() / 2);
 
     /**
      * Sets expireAfterAccess and expireAfterWrite in seconds.
@@ -253,6 +264,9 @@ public class CorfuRuntime {
             }
         }
         stop(true);
+
+        // Free the memory of the client cache, including its off-heap tier
+        getAddressSpaceView().invalidateClientCache();
     }
 
     /**
@@ -8,6 +8,8 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -23,8 +25,12 @@ import org.corfudb.protocols.wireprotocol.DataType;
 import org.corfudb.protocols.wireprotocol.FillHoleRequest;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.IMetadata;
+import org.corfudb.protocols.wireprotocol.LogEntryMetadata;
+import org.corfudb.protocols.wireprotocol.MultipleReadRequest;
+import org.corfudb.protocols.wireprotocol.ReadMetadataResponse;
 import org.corfudb.protocols.wireprotocol.ReadRequest;
 import org.corfudb.protocols.wireprotocol.ReadResponse;
+import org.corfudb.protocols.wireprotocol.StreamAddressesResponse;
 import org.corfudb.protocols.wireprotocol.TrimRequest;
 import org.corfudb.protocols.wireprotocol.WriteMode;
 import org.corfudb.protocols.wireprotocol.WriteRequest;
@@ -46,6 +52,12 @@ import org.corfudb.util.serializer.Serializers;
  */
 public class LogUnitClient implements IClient {
 
+    /**
+     * The maximum number of addresses read by a single request, the size of the batches
+     * the log unit loads the reads in.
+     */
+    public static final int MAX_READ_BATCH_SIZE = 1000;
+
     @Setter
     @Getter
     IClientRouter router;
@@ -216,6 +228,32 @@ public class LogUnitClient implements IClient {
         return msg.getPayload();
     }
 
+    /**
+     * Handle a STREAM_ADDRESSES_RESPONSE message.
+     *
+     * @param msg Incoming Message
+     * @param ctx Context
+     * @param r   Router
+     */
+    @ClientHandler(type = CorfuMsgType.STREAM_ADDRESSES_RESPONSE)
+    private static Object handleStreamAddressesResponse(CorfuPayloadMsg<StreamAddressesResponse> msg,
+                                                        ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload().getAddresses();
+    }
+
+    /**
+     * Handle a READ_METADATA_RESPONSE message.
+     *
+     * @param msg Incoming Message
+     * @param ctx Context
+     * @param r   Router
+     */
+    @ClientHandler(type = CorfuMsgType.READ_METADATA_RESPONSE)
+    private static Object handleReadMetadataResponse(CorfuPayloadMsg<ReadMetadataResponse> msg,
+                                                     ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload().getEntries();
+    }
+
     /**
      * Asynchronously write to the logging unit.
      *
@@ -303,6 +341,34 @@ public class LogUnitClient implements IClient {
         });
     }
 
+    /**
+     * Asynchronously read a list of addresses from the logging unit. The addresses are
+     * read by a request per {@link #MAX_READ_BATCH_SIZE} addresses, so that the size of
+     * each response stays bounded. The requests are sent without waiting for each other.
+     *
+     * @param addresses The addresses to read from.
+     * @return A CompletableFuture which will complete with a ReadResult holding an entry
+     *     for every address once the reads complete.
+     */
+    public CompletableFuture<ReadResponse> read(List<Long> addresses) {
+        Timer.Context context = getTimerContext("multipleRead");
+        List<CompletableFuture<ReadResponse>> batches = new ArrayList<>();
+        for (int start = 0; start < addresses.size(); start += MAX_READ_BATCH_SIZE) {
+            List<Long> batch = new ArrayList<>(addresses.subList(start,
+                    Math.min(start + MAX_READ_BATCH_SIZE, addresses.size())));
+            batches.add(router.sendMessageAndGetCompletable(
+                    CorfuMsgType.MULTIPLE_READ_REQUEST.payloadMsg(new MultipleReadRequest(batch))));
+        }
+
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[batches.size()]))
+                .thenApply(x -> {
+                    context.stop();
+                    ReadResponse response = new ReadResponse();
+                    batches.forEach(batch -> response.getReadSet().putAll(batch.join().getReadSet()));
+                    return response;
+                });
+    }
+
     /**
      * Read data from the log unit server for a range of offsets of a particular stream.
      *
@@ -320,6 +386,41 @@ public class LogUnitClient implements IClient {
         });
     }
 
+    /**
+     * Read the metadata of the entries of a range of addresses, without their payloads.
+     *
+     * @param offsetRange Range of global offsets.
+     * @return CompletableFuture which returns the metadata of every address of the range,
+     *     empty for the addresses which weren't written, on completion.
+     */
+    public CompletableFuture<Map<Long, LogEntryMetadata>> readMetadata(Range<Long> offsetRange) {
+        Timer.Context context = getTimerContext("readMetadata");
+        CompletableFuture<Map<Long, LogEntryMetadata>> cf = router.sendMessageAndGetCompletable(
+                CorfuMsgType.READ_METADATA_REQUEST.payloadMsg(new ReadRequest(offsetRange, null)));
+        return cf.thenApply(x -> {
+            context.stop();
+            return x;
+        });
+    }
+
+    /**
+     * Get the addresses of the entries of a stream which the log unit stores in a range,
+     * in a single request instead of following the backpointers of the stream.
+     *
+     * @param stream      Stream ID to query.
+     * @param offsetRange Range of global offsets.
+     * @return CompletableFuture which returns the addresses, in ascending order, on completion.
+     */
+    public CompletableFuture<List<Long>> getStreamAddresses(UUID stream, Range<Long> offsetRange) {
+        Timer.Context context = getTimerContext("streamAddresses");
+        CompletableFuture<List<Long>> cf = router.sendMessageAndGetCompletable(
+                CorfuMsgType.STREAM_ADDRESSES_REQUEST.payloadMsg(new ReadRequest(offsetRange, stream)));
+        return cf.thenApply(x -> {
+            context.stop();
+            return x;
+        });
+    }
+
     /**
      * Get the global tail maximum address the log unit has written.
      *
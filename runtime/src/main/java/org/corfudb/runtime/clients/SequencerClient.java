@@ -3,14 +3,22 @@ package org.corfudb.runtime.clients;
 import io.netty.channel.ChannelHandlerContext;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
+import org.corfudb.protocols.wireprotocol.SequencerRecoveryRequest;
+import org.corfudb.protocols.wireprotocol.TokenBatchRequest;
+import org.corfudb.protocols.wireprotocol.TokenBatchResponse;
 import org.corfudb.protocols.wireprotocol.TokenRequest;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
@@ -21,6 +29,11 @@ import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
  *
  * <p>This client allows the client to obtain sequence numbers from a sequencer.
  *
+ * <p>Token requests are batched: while a request is in flight, the requests issued
+ * by other threads are queued, and sent together in a single
+ * {@link CorfuMsgType#TOKEN_BATCH_REQ} as soon as it completes. An uncontended
+ * request is sent right away, on its own.
+ *
  * <p>Created by mwei on 12/10/15.
  */
 public class SequencerClient implements IClient {
@@ -37,15 +50,44 @@ public class SequencerClient implements IClient {
     public ClientMsgHandler msgHandler = new ClientMsgHandler(this)
             .generateHandlers(MethodHandles.lookup(), this);
 
+    /**
+     * The maximum number of token requests sent in a single batch.
+     */
+    static final int MAX_BATCH_SIZE = 256;
+
+    /**
+     * A token request waiting to be sent.
+     */
+    @AllArgsConstructor
+    private static class PendingRequest {
+        final TokenRequest request;
+        final CompletableFuture<TokenResponse> future;
+    }
+
+    /**
+     * The token requests waiting for the request in flight to complete.
+     */
+    private final List<PendingRequest> pendingRequests = new ArrayList<>();
+
+    /**
+     * Whether a request is in flight, guarded by {@link #pendingRequests}.
+     */
+    private boolean requestInFlight = false;
+
     @ClientHandler(type = CorfuMsgType.TOKEN_RES)
     private static Object handleTokenResponse(CorfuPayloadMsg<TokenResponse> msg,
                                               ChannelHandlerContext ctx, IClientRouter r) {
         return msg.getPayload();
     }
 
+    @ClientHandler(type = CorfuMsgType.TOKEN_BATCH_RES)
+    private static Object handleTokenBatchResponse(CorfuPayloadMsg<TokenBatchResponse> msg,
+                                                   ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload();
+    }
+
     public CompletableFuture<TokenResponse> nextToken(Set<UUID> streamIDs, long numTokens) {
-        return router.sendMessageAndGetCompletable(
-                CorfuMsgType.TOKEN_REQ.payloadMsg(new TokenRequest(numTokens, streamIDs)));
+        return requestToken(new TokenRequest(numTokens, streamIDs));
     }
 
     /**
@@ -58,9 +100,97 @@ public class SequencerClient implements IClient {
      */
     public CompletableFuture<TokenResponse> nextToken(Set<UUID> streamIDs, long numTokens,
                                                       TxResolutionInfo conflictInfo) {
-        return router.sendMessageAndGetCompletable(
-                CorfuMsgType.TOKEN_REQ
-                        .payloadMsg(new TokenRequest(numTokens, streamIDs, conflictInfo)));
+        return requestToken(new TokenRequest(numTokens, streamIDs, conflictInfo));
+    }
+
+    /**
+     * Send a token request, or queue it for the next batch if a request is in flight.
+     *
+     * @param request The token request.
+     * @return A completable future with the token response from the sequencer.
+     */
+    private CompletableFuture<TokenResponse> requestToken(TokenRequest request) {
+        CompletableFuture<TokenResponse> future = new CompletableFuture<>();
+        synchronized (pendingRequests) {
+            pendingRequests.add(new PendingRequest(request, future));
+            if (requestInFlight) {
+                return future;
+            }
+            requestInFlight = true;
+        }
+
+        sendPendingRequests();
+        return future;
+    }
+
+    /**
+     * Send the queued token requests, and the requests queued in the meantime once
+     * they complete, until there are none left.
+     */
+    private void sendPendingRequests() {
+        while (true) {
+            List<PendingRequest> batch;
+            synchronized (pendingRequests) {
+                if (pendingRequests.isEmpty()) {
+                    requestInFlight = false;
+                    return;
+                }
+                List<PendingRequest> next = pendingRequests.subList(0,
+                        Math.min(pendingRequests.size(), MAX_BATCH_SIZE));
+                batch = new ArrayList<>(next);
+                next.clear();
+            }
+
+            CompletableFuture<?> sent;
+            try {
+                sent = sendBatch(batch);
+            } catch (RuntimeException e) {
+                batch.forEach(pending -> pending.future.completeExceptionally(e));
+                continue;
+            }
+
+            // Loop rather than recurse if the batch completed synchronously
+            if (!sent.isDone()) {
+                sent.whenComplete((response, ex) -> sendPendingRequests());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Send a batch of token requests, as a plain token request if it holds a single one.
+     *
+     * @param batch The token requests to send.
+     * @return A future which completes once the futures of the requests are completed.
+     */
+    private CompletableFuture<?> sendBatch(List<PendingRequest> batch) {
+        if (batch.size() == 1) {
+            PendingRequest pending = batch.get(0);
+            return router.<TokenResponse>sendMessageAndGetCompletable(
+                    CorfuMsgType.TOKEN_REQ.payloadMsg(pending.request))
+                    .whenComplete((response, ex) -> {
+                        if (ex != null) {
+                            pending.future.completeExceptionally(ex);
+                        } else {
+                            pending.future.complete(response);
+                        }
+                    });
+        } else {
+            List<TokenRequest> requests = batch.stream()
+                    .map(pending -> pending.request)
+                    .collect(Collectors.toList());
+            return router.<TokenBatchResponse>sendMessageAndGetCompletable(
+                    CorfuMsgType.TOKEN_BATCH_REQ.payloadMsg(new TokenBatchRequest(requests)))
+                    .whenComplete((response, ex) -> {
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (ex != null) {
+                                batch.get(i).future.completeExceptionally(ex);
+                            } else {
+                                batch.get(i).future.complete(response.getResponses().get(i));
+                            }
+                        }
+                    });
+        }
     }
 
     /**
@@ -73,4 +203,22 @@ public class SequencerClient implements IClient {
         return router.sendMessageAndGetCompletable(CorfuMsgType.RESET_SEQUENCER
                 .payloadMsg(initialToken));
     }
+
+    /**
+     * Resets the sequencer with the specified initialToken, recovering its state from
+     * its last snapshot and the tails of the streams written in the last addresses.
+     *
+     * @param initialToken Token Number which the sequencer starts distributing.
+     * @param scanStart    The first address scanned for stream tails.
+     * @param streamTails  The last address of every stream written since scanStart.
+     * @param resume       Whether the sequencer was the primary sequencer already, so
+     *                     its last snapshot can be used.
+     * @return A CompletableFuture which completes once the sequencer is reset.
+     */
+    public CompletableFuture<Boolean> recover(long initialToken, long scanStart,
+                                              Map<UUID, Long> streamTails, boolean resume) {
+        return router.sendMessageAndGetCompletable(CorfuMsgType.RECOVER_SEQUENCER
+                .payloadMsg(new SequencerRecoveryRequest(initialToken, scanStart, streamTails,
+                        resume)));
+    }
 }
@@ -4,11 +4,13 @@ import com.codahale.metrics.Gauge;
 import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.protocols.logprotocol.CheckpointEntry;
 import org.corfudb.protocols.wireprotocol.DataType;
 import org.corfudb.protocols.wireprotocol.ILogData;
+import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.protocols.wireprotocol.IToken;
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.runtime.CorfuRuntime;
@@ -16,15 +18,20 @@ import org.corfudb.runtime.clients.LogUnitClient;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.WrongEpochException;
 import org.corfudb.util.CFUtils;
+import org.corfudb.util.OffHeapCache;
 import org.corfudb.util.Utils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 
 /**
@@ -35,25 +42,54 @@ import java.util.stream.StreamSupport;
 @Slf4j
 public class AddressSpaceView extends AbstractView {
 
+    /**
+     * An estimate of the heap used by a cached read result besides its data, and
+     * by each of its backpointers.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int BACKPOINTER_OVERHEAD = 64;
+
+    /**
+     * An estimate of the heap used by a deserialized payload, relative to its serialized
+     * size. Object headers, references, boxed values and UTF-16 strings typically take a
+     * few times the space of their serialized form.
+     */
+    private static final int DESERIALIZED_PAYLOAD_FACTOR = 4;
+
+    /**
+     * The off-heap tier of the cache for read results, which keeps the serialized
+     * results evicted from the read cache, or null if it is disabled.
+     */
+    private final OffHeapCache offHeapCache = runtime.getMaxOffHeapCacheSize() > 0
+            ? new OffHeapCache(runtime.getMaxOffHeapCacheSize(), runtime.getMetrics(),
+                    String.format("%s0x%x.cache.off-heap.", runtime.getMpASV(), hashCode()))
+            : null;
+
     /**
      * A cache for read results.
      */
     final LoadingCache<Long, ILogData> readCache = Caffeine.<Long, ILogData>newBuilder()
-            .<Long, ILogData>weigher((k, v) -> v.getSizeEstimate())
+            .<Long, ILogData>weigher((k, v) -> getHeapWeight(v))
             .maximumWeight(runtime.getMaxCacheSize())
             .expireAfterAccess(runtime.getCacheExpiryTime(), TimeUnit.SECONDS)
             .expireAfterWrite(runtime.getCacheExpiryTime(), TimeUnit.SECONDS)
+            // Move the evicted results off-heap on the thread which evicted them,
+            // so that a result is never missing from both tiers
+            .executor(Runnable::run)
+            .<Long, ILogData>removalListener(this::handleEviction)
             .recordStats()
             .build(new CacheLoader<Long, ILogData>() {
                 @Override
                 public ILogData load(Long aLong) throws Exception {
-                    return cacheFetch(aLong);
+                    return weighOnDeserialization(aLong, cacheFetch(aLong));
                 }
 
                 @Override
                 public Map<Long, ILogData>
                 loadAll(Iterable<? extends Long> keys) throws Exception {
-                    return cacheFetch((Iterable<Long>) keys);
+                    Map<Long, ILogData> fetched = cacheFetch((Iterable<Long>) keys);
+                    fetched.forEach(AddressSpaceView.this::weighOnDeserialization);
+                    return fetched;
                 }
             });
 
@@ -66,13 +102,55 @@ public class AddressSpaceView extends AbstractView {
         runtime.getMetrics().register(pfx + "hit-rate", (Gauge<Double>) () -> readCache.stats().hitRate());
         runtime.getMetrics().register(pfx + "hits", (Gauge<Long>) () -> readCache.stats().hitCount());
         runtime.getMetrics().register(pfx + "misses", (Gauge<Long>) () -> readCache.stats().missCount());
+        runtime.getMetrics().register(pfx + "bytes", (Gauge<Long>) () -> readCache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L));
     }
 
     /**
      * Reset all in-memory caches.
      */
     public void resetCaches() {
-        readCache.invalidateAll();
+        invalidateClientCache();
+    }
+
+    /**
+     * Estimate the heap used by a cached read result, including its metadata. A payload
+     * which is still serialized weighs its serialized size. Once deserialized, the result
+     * is weighed again, and its payload weighs {@link #DESERIALIZED_PAYLOAD_FACTOR} times
+     * its serialized size, as the objects themselves can't be measured cheaply.
+     */
+    private static int getHeapWeight(ILogData data) {
+        int payloadWeight = data.getSizeEstimate();
+        if (data instanceof LogData && ((LogData) data).isPayloadDeserialized()) {
+            payloadWeight *= DESERIALIZED_PAYLOAD_FACTOR;
+        }
+        return payloadWeight + ENTRY_OVERHEAD
+                + data.getBackpointerMap().size() * BACKPOINTER_OVERHEAD;
+    }
+
+    /**
+     * Weigh a cached read result again once its payload is deserialized, as long as
+     * it is still cached at the given address.
+     *
+     * @return The read result.
+     */
+    private ILogData weighOnDeserialization(long address, ILogData data) {
+        if (data instanceof LogData) {
+            ((LogData) data).setDeserializationListener(() ->
+                    readCache.asMap().replace(address, data, data));
+        }
+        return data;
+    }
+
+    /**
+     * Read results evicted from the read cache because it is full are moved to the
+     * off-heap cache, if it is enabled.
+     */
+    private void handleEviction(long address, ILogData data, RemovalCause cause) {
+        if (offHeapCache != null && cause == RemovalCause.SIZE) {
+            offHeapCache.put(address, data);
+        }
     }
 
     /** Write the given log data using a token, returning
@@ -112,7 +190,7 @@ public class AddressSpaceView extends AbstractView {
 
         // Cache the successful write
         if (!runtime.isCacheDisabled()) {
-            readCache.put(token.getTokenValue(), ld);
+            readCache.put(token.getTokenValue(), weighOnDeserialization(token.getTokenValue(), ld));
         }
     }
 
@@ -131,6 +209,78 @@ public class AddressSpaceView extends AbstractView {
                     .peek(l, address));
     }
 
+    /** Directly read the committed values of the given
+     * addresses from the log, without hole filling the
+     * others. The committed values are cached, so that
+     * they can be read ahead of their use.
+     *
+     * @param addresses The addresses to read from.
+     * @return          The committed data of the addresses,
+     *                  the addresses with no committed
+     *                  value being left out.
+     */
+    public @Nonnull Map<Long, ILogData> peek(final Iterable<Long> addresses) {
+        Map<Long, ILogData> result = new HashMap<>();
+        Set<Long> toPeek = new HashSet<>();
+        addresses.forEach(toPeek::add);
+        if (!runtime.isCacheDisabled()) {
+            result.putAll(readCache.getAllPresent(toPeek));
+            toPeek.removeAll(result.keySet());
+        }
+        if (toPeek.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, ILogData> peeked = layoutHelper(l -> {
+            Map<Layout.ReplicationMode, Set<Long>> addressesByMode = toPeek.stream()
+                    .collect(Collectors.groupingBy(l::getReplicationMode, Collectors.toSet()));
+            Map<Long, ILogData> committed = new HashMap<>();
+            addressesByMode.forEach((mode, modeAddresses) ->
+                    committed.putAll(mode.getReplicationProtocol(runtime).peekAll(l, modeAddresses)));
+            return committed;
+        });
+        if (!runtime.isCacheDisabled()) {
+            peeked.forEach(this::weighOnDeserialization);
+            readCache.putAll(peeked);
+        }
+        result.putAll(peeked);
+        return result;
+    }
+
+    /** Directly read the metadata of the committed values of
+     * the given addresses from the log, without their payloads
+     * and without hole filling the others. The cached values
+     * are used, but the metadata isn't cached.
+     *
+     * @param addresses The addresses to read from.
+     * @return          The metadata of the committed data of the
+     *                  addresses, the addresses with no committed
+     *                  value being left out.
+     */
+    public @Nonnull Map<Long, IMetadata> peekMetadata(final Iterable<Long> addresses) {
+        Map<Long, IMetadata> result = new HashMap<>();
+        Set<Long> toPeek = new HashSet<>();
+        addresses.forEach(toPeek::add);
+        if (!runtime.isCacheDisabled()) {
+            result.putAll(readCache.getAllPresent(toPeek));
+            toPeek.removeAll(result.keySet());
+        }
+        if (toPeek.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, IMetadata> peeked = layoutHelper(l -> {
+            Map<Layout.ReplicationMode, Set<Long>> addressesByMode = toPeek.stream()
+                    .collect(Collectors.groupingBy(l::getReplicationMode, Collectors.toSet()));
+            Map<Long, IMetadata> committed = new HashMap<>();
+            addressesByMode.forEach((mode, modeAddresses) ->
+                    committed.putAll(mode.getReplicationProtocol(runtime).peekMetadata(l, modeAddresses)));
+            return committed;
+        });
+        result.putAll(peeked);
+        return result;
+    }
+
     /**
      * Read the given object from an address and streams.
      *
@@ -227,6 +377,9 @@ public class AddressSpaceView extends AbstractView {
     /** Force the client cache to be invalidated. */
     public void invalidateClientCache() {
         readCache.invalidateAll();
+        if (offHeapCache != null) {
+            offHeapCache.invalidateAll();
+        }
     }
 
     /**
@@ -238,7 +391,11 @@ public class AddressSpaceView extends AbstractView {
      */
     private @Nonnull ILogData cacheFetch(long address) {
         log.trace("CacheMiss[{}]", address);
-        ILogData result = fetch(address);
+        ILogData result = offHeapCache == null ? null : offHeapCache.get(address);
+        if (result != null) {
+            return result;
+        }
+        result = fetch(address);
         if (result.getType() == DataType.EMPTY) {
             throw new RuntimeException("Unexpected empty return at " +  address + " from fetch");
         }
@@ -253,11 +410,32 @@ public class AddressSpaceView extends AbstractView {
      * This entry will be scheduled to self invalidate.
      */
     private @Nonnull Map<Long, ILogData> cacheFetch(Iterable<Long> addresses) {
-        return StreamSupport.stream(addresses.spliterator(), true)
-                .map(address -> layoutHelper(l ->
-                        l.getReplicationMode(address).getReplicationProtocol(runtime)
-                        .read(l, address)))
-                .collect(Collectors.toMap(ILogData::getGlobalAddress, r -> r));
+        Map<Long, ILogData> result = new HashMap<>();
+        List<Long> toFetch = new ArrayList<>();
+        for (Long address : addresses) {
+            ILogData data = offHeapCache == null ? null : offHeapCache.get(address);
+            if (data != null) {
+                result.put(address, data);
+            } else {
+                toFetch.add(address);
+            }
+        }
+        if (toFetch.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, ILogData> fetched = layoutHelper(l -> {
+            // Read the addresses of each replication mode in bulk, so that the
+            // replication protocol can send a single request to each log unit
+            Map<Layout.ReplicationMode, Set<Long>> addressesByMode = toFetch.stream()
+                    .collect(Collectors.groupingBy(l::getReplicationMode, Collectors.toSet()));
+            Map<Long, ILogData> read = new HashMap<>();
+            addressesByMode.forEach((mode, modeAddresses) ->
+                    read.putAll(mode.getReplicationProtocol(runtime).readAll(l, modeAddresses)));
+            return read;
+        });
+        result.putAll(fetched);
+        return result;
     }
 
 
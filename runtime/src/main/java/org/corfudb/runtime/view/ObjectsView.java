@@ -12,6 +12,7 @@ import org.corfudb.runtime.exceptions.NetworkException;
 import org.corfudb.runtime.exceptions.TransactionAbortedException;
 import org.corfudb.runtime.object.CorfuCompileWrapperBuilder;
 import org.corfudb.runtime.object.ICorfuSMR;
+import org.corfudb.runtime.object.ICorfuSMRProxy;
 import org.corfudb.runtime.object.transactions.AbstractTransactionalContext;
 import org.corfudb.runtime.object.transactions.TransactionBuilder;
 import org.corfudb.runtime.object.transactions.TransactionType;
@@ -21,9 +22,12 @@ import org.corfudb.util.serializer.Serializers;
 
 import javax.annotation.Nonnull;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * A view of the objects inside a Corfu instance.
@@ -217,15 +221,26 @@ public class ObjectsView extends AbstractView {
     }
 
     /** Given a list of Corfu objects, syncs the objects to the most up to date
-     * version, possibly in parallel.
+     * version, possibly in parallel. The tails of all the streams of the objects
+     * are obtained from the sequencer in a single query.
      * @param objects   A list of Corfu objects to sync.
      */
     public void syncObject(Object... objects) {
-        Arrays.stream(objects)
-                .parallel()
+        List<ICorfuSMRProxy<?>> proxies = Arrays.stream(objects)
                 .filter(x -> x instanceof ICorfuSMR<?>)
-                .map(x -> (ICorfuSMR<?>) x)
-                .forEach(x -> x.getCorfuSMRProxy().sync());
+                .<ICorfuSMRProxy<?>>map(x -> ((ICorfuSMR<?>) x).getCorfuSMRProxy())
+                .collect(Collectors.toList());
+        if (proxies.isEmpty()) {
+            return;
+        }
+
+        Set<UUID> streamIDs = proxies.stream()
+                .map(ICorfuSMRProxy::getStreamID)
+                .collect(Collectors.toSet());
+        Map<UUID, Long> streamTails = runtime.getSequencerView()
+                .nextToken(streamIDs, 0).getBackpointerMap();
+        proxies.parallelStream()
+                .forEach(x -> x.sync(streamTails.get(x.getStreamID())));
     }
 
     @Data
@@ -1,9 +1,23 @@
 package org.corfudb.runtime.view.replication;
 
+import com.google.common.collect.Range;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.protocols.wireprotocol.ILogData;
+import org.corfudb.protocols.wireprotocol.IMetadata;
+import org.corfudb.protocols.wireprotocol.LogEntryMetadata;
+import org.corfudb.protocols.wireprotocol.ReadResponse;
+import org.corfudb.runtime.clients.LogUnitClient;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.RecoveryException;
 import org.corfudb.runtime.view.Layout;
@@ -66,6 +80,98 @@ public class ChainReplicationProtocol extends AbstractReplicationProtocol {
         return ret == null || ret.isEmpty() ? null : ret;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>In chain replication, the addresses are grouped by the unit at the tail of
+     * the chain of their stripe, and each unit is sent a single request for all of
+     * its addresses. The addresses with no committed entry are left out of the map.
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ILogData> peekAll(Layout layout, Set<Long> globalAddresses) {
+        Map<String, List<Long>> addressesByUnit = new HashMap<>();
+        Map<String, LogUnitClient> clientsByUnit = new HashMap<>();
+        for (long globalAddress : globalAddresses) {
+            int numUnits = layout.getSegmentLength(globalAddress);
+            String unit = layout.getStripe(globalAddress).getLogServers().get(numUnits - 1);
+            addressesByUnit.computeIfAbsent(unit, k -> new ArrayList<>()).add(globalAddress);
+            clientsByUnit.computeIfAbsent(unit, k -> layout.getLogUnitClient(globalAddress, numUnits - 1));
+        }
+        log.trace("ReadAll[{}]: units {}", globalAddresses, addressesByUnit.keySet());
+
+        // Send all the requests before waiting for any of them
+        List<CompletableFuture<ReadResponse>> futures = addressesByUnit.entrySet().stream()
+                .map(e -> clientsByUnit.get(e.getKey()).read(e.getValue()))
+                .collect(Collectors.toList());
+
+        Map<Long, ILogData> ret = new HashMap<>();
+        for (CompletableFuture<ReadResponse> future : futures) {
+            CFUtils.getUninterruptibly(future).getReadSet().forEach((address, data) -> {
+                if (data != null && !data.isEmpty()) {
+                    ret.put(address, data);
+                }
+            });
+        }
+        return ret;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>In chain replication, each tail unit is sent a single request for the metadata
+     * of the range spanning its addresses, which is meant for addresses that are close
+     * to each other, such as a window of the log read ahead of a backpointer walk.
+     */
+    @Nonnull
+    @Override
+    public Map<Long, IMetadata> peekMetadata(Layout layout, Set<Long> globalAddresses) {
+        Map<String, Range<Long>> rangesByUnit = new HashMap<>();
+        Map<String, LogUnitClient> clientsByUnit = new HashMap<>();
+        for (long globalAddress : globalAddresses) {
+            int numUnits = layout.getSegmentLength(globalAddress);
+            String unit = layout.getStripe(globalAddress).getLogServers().get(numUnits - 1);
+            rangesByUnit.merge(unit, Range.singleton(globalAddress), Range::span);
+            clientsByUnit.computeIfAbsent(unit, k -> layout.getLogUnitClient(globalAddress, numUnits - 1));
+        }
+        log.trace("PeekMetadata[{}]: ranges {}", globalAddresses, rangesByUnit);
+
+        // Send all the requests before waiting for any of them
+        List<CompletableFuture<Map<Long, LogEntryMetadata>>> futures = rangesByUnit.entrySet().stream()
+                .map(e -> clientsByUnit.get(e.getKey()).readMetadata(e.getValue()))
+                .collect(Collectors.toList());
+
+        Map<Long, IMetadata> ret = new HashMap<>();
+        for (CompletableFuture<Map<Long, LogEntryMetadata>> future : futures) {
+            CFUtils.getUninterruptibly(future).forEach((address, metadata) -> {
+                // The range of a unit may span addresses of other units, or which weren't requested
+                if (!metadata.isEmpty() && globalAddresses.contains(address)) {
+                    ret.put(address, metadata);
+                }
+            });
+        }
+        return ret;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>In chain replication, the committed addresses are read in bulk by
+     * {@link #peekAll(Layout, Set)}, and only the others go through the hole
+     * filling policy one by one.
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ILogData> readAll(Layout layout, Set<Long> globalAddresses) {
+        Map<Long, ILogData> ret = peekAll(layout, globalAddresses);
+        if (ret.size() < globalAddresses.size()) {
+            ret.putAll(globalAddresses.parallelStream()
+                    .filter(a -> !ret.containsKey(a))
+                    .collect(Collectors.toMap(a -> a, a -> read(layout, a))));
+        }
+        return ret;
+    }
+
     /** Propagate a write down the chain, ignoring
      * any overwrite errors. It is expected that the
      * write has already successfully completed at
@@ -1,12 +1,14 @@
 package org.corfudb.runtime.view.replication;
 
 import java.util.AbstractMap;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 
 import org.corfudb.protocols.wireprotocol.ILogData;
+import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.view.Layout;
 
@@ -100,13 +102,34 @@ public interface IReplicationProtocol {
      *
      * @param  layout              The layout to use for the peekAll.
      * @param globalAddresses       A set of addresses to read from.
-     * @return                      A map of addresses to uncommitted
-     *                              addresses, without hole filling.
+     * @return                      A map of addresses to committed
+     *                              data, without hole filling. The
+     *                              addresses with no committed entry
+     *                              are left out.
      */
     default @Nonnull Map<Long, ILogData> peekAll(Layout layout, Set<Long> globalAddresses) {
         return globalAddresses.parallelStream()
                 .map(a -> new AbstractMap.SimpleImmutableEntry<>(a, peek(layout, a)))
+                .filter(r -> r.getValue() != null)
                 .collect(Collectors.toMap(r -> r.getKey(), r -> r.getValue()));
     }
 
+    /** Peek the metadata of the entries at all the given addresses.
+     *
+     * <p>This method functions exactly like a peekAll, except that
+     * only the metadata of the entries is needed, so that an
+     * implementation may avoid transferring their payloads. The
+     * default implementation just performs a peekAll.
+     *
+     * @param  layout              The layout to use for the peek.
+     * @param globalAddresses       A set of addresses to read from.
+     * @return                      A map of addresses to the metadata
+     *                              of committed entries, without hole
+     *                              filling. The addresses with no
+     *                              committed entry are left out.
+     */
+    default @Nonnull Map<Long, IMetadata> peekMetadata(Layout layout, Set<Long> globalAddresses) {
+        return new HashMap<>(peekAll(layout, globalAddresses));
+    }
+
 }
@@ -3,6 +3,7 @@ package org.corfudb.runtime.view.stream;
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.protocols.logprotocol.CheckpointEntry;
 import org.corfudb.protocols.wireprotocol.ILogData;
+import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.runtime.CorfuRuntime;
 import org.corfudb.runtime.exceptions.OverwriteException;
@@ -165,15 +166,47 @@ public class BackpointerStreamView extends AbstractQueuedStreamView {
 
     public long getBackpointerCount() {return backpointerCount;}
 
+    /** The maximum number of addresses read ahead of a backpointer walk at once. */
+    static final int MAX_READ_AHEAD_WINDOW = 256;
+
+    /** Speculatively read the metadata of the committed entries of a range of addresses
+     * in a single bulk read, without their payloads and without hole filling the others.
+     *
+     * @param highest   The highest address of the range.
+     * @param lowest    The lowest address of the range.
+     * @return          The metadata of the committed entries of the range, or an empty
+     *                  map if part of the range was trimmed.
+     */
+    private Map<Long, IMetadata> readAhead(final long highest, final long lowest) {
+        List<Long> addresses = new ArrayList<>();
+        for (long address = highest; address >= lowest; address--) {
+            addresses.add(address);
+        }
+        try {
+            return runtime.getAddressSpaceView().peekMetadata(addresses);
+        } catch (TrimmedException te) {
+            log.trace("ReadAhead[{}] Range {}-{} partially trimmed", this, lowest, highest);
+            return Collections.emptyMap();
+        }
+    }
+
     protected boolean followBackpointers(final UUID streamId,
                                       final NavigableSet<Long> queue,
                                       final long startAddress,
                                       final long stopAddress,
-                                      final Function<ILogData, BackpointerOp> filter) {
+                                      final Function<IMetadata, BackpointerOp> filter) {
         // Whether or not we added entries to the queue.
         boolean entryAdded = false;
         // The current address which we are reading from.
         long currentAddress = startAddress;
+        // The metadata of the entries read ahead of the walk, which is all the walk
+        // needs, the entries of the stream being read in bulk once resolved. The
+        // window of addresses read ahead grows while the walk visits most of it
+        // (e.g., the stream is dense in the log, or backpointers are disabled), and
+        // shrinks otherwise.
+        Map<Long, IMetadata> readAheadEntries = Collections.emptyMap();
+        int window = 1;
+        int visited = 0;
 
         // Loop until we have reached the stop address.
         while (currentAddress > stopAddress  && Address.isAddress(currentAddress)) {
@@ -185,8 +218,26 @@ public class BackpointerStreamView extends AbstractQueuedStreamView {
                 return entryAdded;
             }
             backpointerCount++;
-            // Read the current address
-            ILogData d = read(currentAddress);
+            // Read the current address, unless it was read ahead
+            IMetadata d = readAheadEntries.get(currentAddress);
+            if (d != null) {
+                visited++;
+            } else {
+                if (visited > 0) {
+                    window = visited * 2 > window
+                            ? Integer.min(window * 2, MAX_READ_AHEAD_WINDOW)
+                            : Integer.max(window / 2, 1);
+                }
+                final long lowest = Long.max(Long.max(stopAddress + 1, 0L), currentAddress - window + 1);
+                window = (int) (currentAddress - lowest + 1);
+                readAheadEntries = window > 1 ? readAhead(currentAddress, lowest) : Collections.emptyMap();
+                visited = 1;
+                d = readAheadEntries.get(currentAddress);
+                if (d == null) {
+                    // Not committed yet, or not read ahead: hole fill if needed
+                    d = read(currentAddress);
+                }
+            }
 
             // If it contains the stream we are interested in
             if (d.containsStream(streamId)) {
@@ -228,8 +279,10 @@ public class BackpointerStreamView extends AbstractQueuedStreamView {
 
     }
 
-    protected BackpointerOp resolveCheckpoint(final QueuedStreamContext context, ILogData data) {
-        if (data.hasCheckpointMetadata()) {
+    protected BackpointerOp resolveCheckpoint(final QueuedStreamContext context, IMetadata metadata) {
+        if (metadata.hasCheckpointMetadata()) {
+            // The walk only has the metadata of the entry, read the checkpoint entry itself
+            ILogData data = read(metadata.getGlobalAddress());
             CheckpointEntry cpEntry = (CheckpointEntry)
                     data.getPayload(runtime);
             if (context.checkpointSuccessID == null &&
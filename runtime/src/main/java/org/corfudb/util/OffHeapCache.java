@@ -0,0 +1,215 @@
+package org.corfudb.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.corfudb.protocols.wireprotocol.ILogData;
+import org.corfudb.protocols.wireprotocol.LogData;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cache of log entries which keeps the serialized entries in pooled direct memory,
+ * out of reach of the garbage collector.
+ * <p>
+ * The cache is bounded by the number of bytes it holds, which accounts for an estimate of
+ * the direct memory the pooled allocator reserves for every entry, see
+ * {@link #reservedBytes(int)}, plus a fixed overhead for the bookkeeping of the entry on
+ * the heap. Entries are deserialized into a copy on the heap on every hit, so callers
+ * never hold on to the direct memory of the cache.
+ */
+@Slf4j
+public class OffHeapCache implements AutoCloseable {
+
+    /**
+     * An estimate of the heap used to keep track of an entry: the key, the cache node
+     * and the record.
+     */
+    public static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * The size classes of the pooled allocator, see {@link #reservedBytes(int)}.
+     */
+    private static final int TINY_SIZE_LIMIT = 512;
+    private static final int TINY_SIZE_QUANTUM = 16;
+    private static final int CHUNK_SIZE =
+            PooledByteBufAllocator.defaultPageSize() << PooledByteBufAllocator.defaultMaxOrder();
+
+    private final Cache<Long, Record> cache;
+
+    /**
+     * A serialized entry. Records are reference counted, so that an entry being
+     * deserialized isn't freed if it is evicted concurrently.
+     */
+    private static class Record extends AbstractReferenceCounted {
+        private final ByteBuf buf;
+
+        Record(ByteBuf buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        protected void deallocate() {
+            buf.release();
+        }
+
+        @Override
+        public Record touch(Object hint) {
+            return this;
+        }
+    }
+
+    /**
+     * @param maxBytes      The maximum number of bytes held by the cache.
+     * @param metrics       The registry of the cache's metrics.
+     * @param metricsPrefix The prefix of the cache's metrics.
+     */
+    public OffHeapCache(long maxBytes, MetricRegistry metrics, String metricsPrefix) {
+        cache = Caffeine.<Long, Record>newBuilder()
+                .<Long, Record>weigher((k, v) -> reservedBytes(v.buf.capacity()) + ENTRY_OVERHEAD)
+                .maximumWeight(maxBytes)
+                // Free the memory as soon as an entry is evicted, so that it is accounted for
+                // until it is freed
+                .executor(Runnable::run)
+                .<Long, Record>removalListener((k, v, cause) -> v.release())
+                .recordStats()
+                .build();
+
+        MetricsUtils.addCacheGauges(metrics, metricsPrefix, cache);
+        try {
+            metrics.register(metricsPrefix + "bytes", (Gauge<Long>) this::getWeightedSize);
+        } catch (IllegalArgumentException e) {
+            // Re-registering metrics during test runs, not a problem
+        }
+    }
+
+    /**
+     * Get a copy of a cached entry.
+     *
+     * @param address The address of the entry.
+     * @return The entry, or null if it isn't cached.
+     */
+    @Nullable
+    public LogData get(long address) {
+        Record record = cache.getIfPresent(address);
+        if (record == null) {
+            return null;
+        }
+
+        try {
+            record.retain();
+        } catch (IllegalReferenceCountException e) {
+            // The entry was evicted, and freed, since it was looked up
+            return null;
+        }
+
+        try {
+            return new LogData(record.buf.duplicate());
+        } finally {
+            record.release();
+        }
+    }
+
+    /**
+     * Cache an entry, unless the address is already cached.
+     *
+     * @param address The address of the entry.
+     * @param entry   The entry to cache.
+     */
+    public void put(long address, ILogData entry) {
+        if (cache.asMap().containsKey(address)) {
+            return;
+        }
+
+        // Serialize the entry before copying it to direct memory, so that the direct
+        // buffer is allocated for its final size rather than grown to fit it
+        ByteBuf serialized = PooledByteBufAllocator.DEFAULT.heapBuffer();
+        ByteBuf buf;
+        try {
+            ((LogData) entry).doSerialize(serialized);
+            int size = serialized.readableBytes();
+            buf = PooledByteBufAllocator.DEFAULT.directBuffer(size, size);
+            buf.writeBytes(serialized);
+        } catch (RuntimeException e) {
+            log.warn("put[{}]: Couldn't serialize the entry", address, e);
+            return;
+        } catch (OutOfMemoryError e) {
+            // Direct memory is exhausted, the entry will be read from the log units again
+            log.warn("put[{}]: Couldn't allocate the entry, {}", address, e.toString());
+            return;
+        } finally {
+            serialized.release();
+        }
+
+        Record record = new Record(buf);
+        if (cache.asMap().putIfAbsent(address, record) != null) {
+            record.release();
+        }
+    }
+
+    /**
+     * Estimate the direct memory the pooled allocator reserves for a buffer of the given
+     * capacity. The allocator rounds requests up to a multiple of 16 bytes below 512 bytes,
+     * and to a power of two below the size of its chunks, above which buffers aren't pooled.
+     *
+     * @param capacity The capacity of the buffer.
+     * @return The number of bytes reserved for the buffer.
+     */
+    private static int reservedBytes(int capacity) {
+        if (capacity >= CHUNK_SIZE) {
+            return capacity;
+        }
+        if (capacity < TINY_SIZE_LIMIT) {
+            return (capacity + TINY_SIZE_QUANTUM - 1) & -TINY_SIZE_QUANTUM;
+        }
+        int highestBit = Integer.highestOneBit(capacity);
+        return highestBit == capacity ? capacity : highestBit << 1;
+    }
+
+    /**
+     * Discard the cached entry of an address, if any.
+     */
+    public void invalidate(long address) {
+        cache.invalidate(address);
+    }
+
+    /**
+     * Discard all the cached entries.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return The number of bytes accounted to the cached entries.
+     */
+    public long getWeightedSize() {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    @VisibleForTesting
+    Cache<Long, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * Discard all the cached entries, freeing their memory.
+     */
+    @Override
+    public void close() {
+        cache.invalidateAll();
+        cache.cleanUp();
+    }
+}
@@ -107,7 +107,7 @@ public class Utils {
                 default:
                     throw new NumberFormatException("Unknown suffix: '" + suffix + "'!");
             }
-            return Long.parseLong(toParse.substring(0, toParse.length() - 2)) * multiplier;
+            return Long.parseLong(toParse.substring(0, toParse.length() - 1)) * multiplier;
         } else {
             return Long.parseLong(toParse);
         }
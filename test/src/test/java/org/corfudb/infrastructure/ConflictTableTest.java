@@ -0,0 +1,96 @@
+package org.corfudb.infrastructure;
+
+import org.corfudb.AbstractCorfuTest;
+import org.corfudb.runtime.view.Address;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConflictTableTest extends AbstractCorfuTest {
+
+    private static final int WINDOW = 4;
+
+    @Test
+    public void evictsOldestUpdatesIntoWildcard() {
+        ConflictTable table = new ConflictTable(WINDOW, Address.NOT_FOUND);
+        for (long ts = 0; ts < WINDOW; ts++) {
+            table.put(ts, ts);
+        }
+        assertThat(table.getWildcard()).isEqualTo(Address.NOT_FOUND);
+
+        // The update of key 0 is evicted, but key 1 was updated again since its first update
+        table.put(1L, WINDOW);
+        table.put(WINDOW + 1, WINDOW + 1);
+        table.put(WINDOW + 2, WINDOW + 2);
+        assertThat(table.get(0L)).isEqualTo(ConflictTable.ABSENT);
+        assertThat(table.get(1L)).isEqualTo(WINDOW);
+        assertThat(table.get(2L)).isEqualTo(ConflictTable.ABSENT);
+        assertThat(table.get(3L)).isEqualTo(3L);
+        assertThat(table.getWildcard()).isEqualTo(2L);
+        assertThat(table.getEvictions()).isEqualTo(2L);
+
+        table.clear(WINDOW * 2);
+        assertThat(table.size()).isEqualTo(0);
+        assertThat(table.get(0L)).isEqualTo(ConflictTable.ABSENT);
+        assertThat(table.getWildcard()).isEqualTo(WINDOW * 2);
+    }
+
+    @Test
+    public void keepsTheLatestTimestampOfEveryKey() {
+        final int maxSize = 5_000;
+        final int numKeys = 3_000;
+        final int numUpdates = 20_000;
+        ConflictTable table = new ConflictTable(maxSize, Address.NOT_FOUND);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(0);
+        UUID stream = UUID.randomUUID();
+
+        for (long ts = 0; ts < numUpdates; ts++) {
+            long key = ConflictTable.getKey(stream, random.nextInt(numKeys));
+            table.put(key, ts);
+            expected.put(key, ts);
+        }
+
+        // Every key is either in the table with its latest timestamp, or covered by the wildcard
+        expected.forEach((key, ts) -> {
+            long actual = table.get(key);
+            if (actual == ConflictTable.ABSENT) {
+                assertThat(table.getWildcard()).isGreaterThanOrEqualTo(ts);
+            } else {
+                assertThat(actual).isEqualTo(ts);
+            }
+        });
+        assertThat(table.size()).isLessThanOrEqualTo(maxSize);
+    }
+
+    @Test
+    public void restoresTheMostRecentUpdates() {
+        ConflictTable table = new ConflictTable(WINDOW, Address.NOT_FOUND);
+        table.put(0L, 0L);
+        table.put(1L, 1L);
+        table.put(0L, 2L);
+        table.put(2L, 3L);
+
+        // Key 1 is left out, and only its timestamp is kept in the wildcard
+        ConflictTable restored = new ConflictTable(WINDOW, Address.NOT_FOUND);
+        restored.restore(table.getWindow(2));
+        assertThat(restored.get(0L)).isEqualTo(2L);
+        assertThat(restored.get(1L)).isEqualTo(ConflictTable.ABSENT);
+        assertThat(restored.get(2L)).isEqualTo(3L);
+        assertThat(restored.getWildcard()).isEqualTo(1L);
+    }
+
+    @Test
+    public void distinctParametersGetDistinctKeys() {
+        UUID stream = UUID.randomUUID();
+        assertThat(ConflictTable.getKey(stream, 1))
+                .isNotEqualTo(ConflictTable.getKey(stream, 2))
+                .isNotEqualTo(ConflictTable.getKey(UUID.randomUUID(), 1))
+                .isEqualTo(ConflictTable.getKey(stream, 1));
+    }
+}
@@ -2,11 +2,13 @@ package org.corfudb.infrastructure;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
 import org.assertj.core.api.Assertions;
 import org.corfudb.infrastructure.log.StreamLogFiles;
 import org.corfudb.protocols.wireprotocol.*;
 import org.corfudb.runtime.CorfuRuntime;
 import org.corfudb.runtime.view.Address;
+import org.corfudb.util.OffHeapCache;
 import org.corfudb.util.serializer.Serializers;
 import org.junit.Test;
 
@@ -129,6 +131,53 @@ public class LogUnitServerTest extends AbstractServerTest {
                 .matchesDataAtAddress(HIGH_ADDRESS, high_payload.getBytes());
     }
 
+    @Test
+    public void checkThatWritesArePersistedInEveryDurabilityMode() {
+        for (BatchWriter.Durability durability : BatchWriter.Durability.values()) {
+            String serviceDir = PARAMETERS.TEST_TEMP_DIR + File.separator + durability;
+
+            LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                    .setLogPath(serviceDir)
+                    .setMemory(false)
+                    .setDurability(durability.name().toLowerCase())
+                    .build());
+            this.router.reset();
+            this.router.addServer(s1);
+
+            final long address = 0L;
+            final String payload = "0";
+            rawWrite(address, payload, "a");
+            Assertions.assertThat(getLastMessage().getMsgType())
+                    .isEqualTo(CorfuMsgType.WRITE_OK);
+
+            s1.shutdown();
+
+            LogUnitServer s2 = new LogUnitServer(new ServerContextBuilder()
+                    .setLogPath(serviceDir)
+                    .setMemory(false)
+                    .build());
+            this.router.reset();
+            this.router.addServer(s2);
+
+            assertThat(s2)
+                    .matchesDataAtAddress(address, payload.getBytes());
+        }
+    }
+
+    /**
+     * The log unit responds to writes asynchronously, wait for the response so that
+     * tests can check the state of the server after each message.
+     */
+    @Override
+    public void sendMessage(UUID clientId, CorfuMsg message) {
+        super.sendMessage(clientId, message);
+        try {
+            router.awaitResponse(message.getRequestID(), PARAMETERS.TIMEOUT_NORMAL);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     protected void rawWrite(long addr, String s, String streamName) {
         ByteBuf b = Unpooled.buffer();
         Serializers.CORFU.serialize(s.getBytes(), b);
@@ -278,6 +327,137 @@ public class LogUnitServerTest extends AbstractServerTest {
         assertThat(entry.getGlobalAddress()).isEqualTo(globalAddress);
     }
 
+    @Test
+    public void checkOffHeapCache() {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        final String cacheOffHeapSize = "16M";
+        // A heap cache too small to hold any entry, which spills everything off-heap
+        final String cacheSizeHeapRatio = "0.0000000001";
+
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(serviceDir)
+                .setMemory(false)
+                .setCacheSizeHeapRatio(cacheSizeHeapRatio)
+                .setCacheOffHeapSize(cacheOffHeapSize)
+                .build());
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        final long numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+        for (long address = 0; address < numEntries; address++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(Long.toString(address).getBytes(), b);
+            WriteRequest m = WriteRequest.builder()
+                    .writeMode(WriteMode.NORMAL)
+                    .data(new LogData(DataType.DATA, b))
+                    .build();
+            m.setGlobalAddress(address);
+            m.setBackpointerMap(Collections.singletonMap(CorfuRuntime.getStreamID("a"), address - 1));
+            sendMessage(CorfuMsgType.WRITE.payloadMsg(m));
+        }
+
+        for (long address = 0; address < numEntries; address++) {
+            ILogData entry = s1.getDataCache().get(address);
+            assertThat(entry.getPayload(null)).isEqualTo(Long.toString(address).getBytes());
+            assertThat(entry.getBackpointerMap())
+                    .containsEntry(CorfuRuntime.getStreamID("a"), address - 1);
+        }
+
+        // Entries are copied out of the off-heap cache, along with their metadata
+        OffHeapCache offHeapCache = s1.getOffHeapCache();
+        final long address = numEntries;
+        LogData entry = new LogData(DataType.DATA, Unpooled.wrappedBuffer("entry".getBytes()));
+        entry.setGlobalAddress(address);
+        offHeapCache.put(address, entry);
+        assertThat(offHeapCache.get(address).getData()).isEqualTo(entry.getData());
+        assertThat(offHeapCache.get(address).getGlobalAddress()).isEqualTo(address);
+        assertThat(offHeapCache.getWeightedSize()).isGreaterThan(OffHeapCache.ENTRY_OVERHEAD);
+
+        offHeapCache.invalidate(address);
+        assertThat(offHeapCache.get(address)).isNull();
+        s1.shutdown();
+    }
+
+    @Test
+    public void mappedEntriesOutliveEvictionUntilSent() {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(serviceDir)
+                .setMemory(false)
+                .setMmapReads(true)
+                .build());
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        // Write to the first two segments, which seals the first one so that
+        // it is read through a mapping
+        final long address0 = 0;
+        final long address1 = StreamLogFiles.RECORDS_PER_LOG_FILE;
+        rawWrite(address0, "0", "a");
+        rawWrite(address1, "1", "a");
+        s1.getDataCache().invalidateAll();
+        s1.getDataCache().cleanUp();
+
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(address0)));
+        @SuppressWarnings("unchecked")
+        CorfuPayloadMsg<ReadResponse> response = (CorfuPayloadMsg<ReadResponse>) router
+                .getResponseMessages().stream()
+                .filter(m -> m.getMsgType() == CorfuMsgType.READ_RESPONSE)
+                .findFirst().get();
+        ReferenceCounted mapping = response.getPayload().getReadSet().get(address0).retainDataView();
+        assertThat(mapping).isNotNull();
+        mapping.release();
+
+        // Evict the entry and unmap the segment before the response is encoded
+        s1.getDataCache().invalidateAll();
+        s1.getDataCache().cleanUp();
+        s1.shutdown();
+
+        ByteBuf b = Unpooled.buffer();
+        response.serialize(b);
+        response.release();
+        ReadResponse decoded = ((CorfuPayloadMsg<ReadResponse>) CorfuMsg.deserialize(b)).getPayload();
+        assertThat(decoded.getReadSet().get(address0).getPayload(null))
+                .isEqualTo("0".getBytes());
+    }
+
+    @Test
+    public void checkConcurrentRetrievalsAcrossSegments() throws Exception {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(serviceDir)
+                .setMemory(false)
+                .build();
+        final int numSegments = PARAMETERS.CONCURRENCY_SOME;
+        final int entriesPerSegment = PARAMETERS.NUM_ITERATIONS_LOW;
+
+        StreamLogFiles streamLog = new StreamLogFiles(context, false);
+        for (long segment = 0; segment < numSegments; segment++) {
+            for (long x = 0; x < entriesPerSegment; x++) {
+                long address = segment * StreamLogFiles.RECORDS_PER_LOG_FILE + x;
+                ByteBuf b = Unpooled.buffer();
+                Serializers.CORFU.serialize(Long.toString(address).getBytes(), b);
+                streamLog.append(address, new LogData(DataType.DATA, b));
+            }
+        }
+        streamLog.close();
+
+        LogUnitServer s1 = new LogUnitServer(context);
+
+        // Each thread misses on its own segment
+        scheduleConcurrently(numSegments, segment -> {
+            for (long x = 0; x < entriesPerSegment; x++) {
+                long address = segment * StreamLogFiles.RECORDS_PER_LOG_FILE + x;
+                assertThat(s1.getDataCache().get(address).getPayload(null))
+                        .isEqualTo(Long.toString(address).getBytes());
+            }
+        });
+        executeScheduled(numSegments, PARAMETERS.TIMEOUT_LONG);
+    }
+
     private String createLogFile(String path, int version, boolean noVerify) throws IOException {
         // Generate a log file and manually change the version
         File logDir = new File(path + File.separator + "log");
@@ -0,0 +1,110 @@
+package org.corfudb.infrastructure;
+
+import com.codahale.metrics.MetricRegistry;
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReadAheadPrefetcherTest extends AbstractCorfuTest {
+
+    private static final int DEPTH = 8;
+    private static final long TAIL = 100;
+
+    private final BlockingQueue<List<Long>> batches = new LinkedBlockingQueue<>();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(DEPTH, batches::add, () -> TAIL,
+            metrics, "prefetch.");
+
+    private List<Long> nextBatch() throws Exception {
+        return batches.poll(PARAMETERS.TIMEOUT_NORMAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void prefetchesSequentialReads() throws Exception {
+        UUID client = UUID.randomUUID();
+        prefetcher.onRead(client, 0, 1);
+        prefetcher.onRead(client, 2, 3);
+        assertThat(nextBatch()).containsExactly(4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L);
+
+        // Most of the window is still ahead of the client
+        prefetcher.onRead(client, 4, 5);
+        prefetcher.onRead(client, 6, 7);
+        assertThat(nextBatch()).containsExactly(12L, 13L, 14L, 15L);
+        assertThat(metrics.counter("prefetch.hits").getCount()).isEqualTo(4L);
+        prefetcher.close();
+    }
+
+    @Test
+    public void prefetchesStridedReads() throws Exception {
+        UUID client = UUID.randomUUID();
+        final long stride = 3;
+        prefetcher.onRead(client, 0, 0);
+        prefetcher.onRead(client, stride, stride);
+        prefetcher.onRead(client, stride * 2, stride * 2);
+        assertThat(nextBatch()).containsExactly(9L, 12L);
+        prefetcher.close();
+    }
+
+    @Test
+    public void doesNotPrefetchRandomReadsOrPastTheTail() throws Exception {
+        UUID client = UUID.randomUUID();
+        final long far = 50;
+        prefetcher.onRead(client, far, far);
+        prefetcher.onRead(client, 1, 1);
+        prefetcher.onRead(client, TAIL, TAIL);
+        prefetcher.onRead(client, TAIL + 1, TAIL + 1);
+        assertThat(batches.poll(PARAMETERS.TIMEOUT_VERY_SHORT.toMillis(), TimeUnit.MILLISECONDS)).isNull();
+        prefetcher.close();
+    }
+
+    @Test
+    public void dropsBatchesWhenTheQueueIsFull() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MetricRegistry blockedMetrics = new MetricRegistry();
+        ReadAheadPrefetcher blocked = new ReadAheadPrefetcher(DEPTH, batch -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batches.add(batch);
+        }, () -> TAIL, blockedMetrics, "prefetch.");
+
+        // Occupy the prefetch thread, then fill its queue
+        for (int i = 0; i < ReadAheadPrefetcher.MAX_QUEUED_BATCHES + 1; i++) {
+            UUID client = UUID.randomUUID();
+            blocked.onRead(client, 0, 1);
+            blocked.onRead(client, 2, 3);
+            if (i == 0) {
+                assertThat(loading.await(PARAMETERS.TIMEOUT_NORMAL.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+            }
+        }
+        UUID dropped = UUID.randomUUID();
+        blocked.onRead(dropped, 0, 1);
+        blocked.onRead(dropped, 2, 3);
+        assertThat(blockedMetrics.counter("prefetch.prefetched").getCount())
+                .isEqualTo((ReadAheadPrefetcher.MAX_QUEUED_BATCHES + 1) * DEPTH);
+
+        release.countDown();
+        for (int i = 0; i < ReadAheadPrefetcher.MAX_QUEUED_BATCHES + 1; i++) {
+            assertThat(nextBatch()).containsExactly(4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L);
+        }
+
+        // The dropped addresses are predicted again, and aren't counted as hits
+        blocked.onRead(dropped, 4, 5);
+        assertThat(nextBatch()).containsExactly(6L, 7L, 8L, 9L, 10L, 11L, 12L, 13L);
+        assertThat(blockedMetrics.counter("prefetch.hits").getCount()).isEqualTo(0L);
+        blocked.close();
+        prefetcher.close();
+    }
+}
@@ -1,9 +1,16 @@
 package org.corfudb.infrastructure;
 
+import com.google.common.collect.ImmutableSet;
 import org.corfudb.protocols.wireprotocol.*;
+import org.corfudb.runtime.view.Address;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -155,4 +162,163 @@ public class SequencerServerTest extends AbstractServerTest {
         }
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void concurrentAllocationsChainBackpointers() throws Exception {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+        final int numThreads = PARAMETERS.CONCURRENCY_SOME;
+        final int numRequests = PARAMETERS.NUM_ITERATIONS_LOW;
+
+        scheduleConcurrently(numThreads, t -> {
+            for (int i = 0; i < numRequests; i++) {
+                Set<UUID> streams = i % 2 == 0 ? Collections.singleton(streamA)
+                        : ImmutableSet.of(streamA, streamB);
+                sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                        new TokenRequest(1L, streams)));
+            }
+        });
+        executeScheduled(numThreads, PARAMETERS.TIMEOUT_NORMAL);
+
+        Map<Long, TokenResponse> responses = new TreeMap<>();
+        getResponseMessages().forEach(m -> {
+            TokenResponse response = ((CorfuPayloadMsg<TokenResponse>) m).getPayload();
+            responses.put(response.getToken().getTokenValue(), response);
+        });
+        assertThat(responses).hasSize(numThreads * numRequests);
+
+        // The backpointers of every stream must chain its tokens in the order of the log
+        for (UUID stream : Arrays.asList(streamA, streamB)) {
+            long previous = Address.NON_EXIST;
+            for (Map.Entry<Long, TokenResponse> entry : responses.entrySet()) {
+                Long backpointer = entry.getValue().getBackpointerMap().get(stream);
+                if (backpointer != null) {
+                    assertThat(backpointer).isEqualTo(previous);
+                    previous = entry.getKey();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batchedRequestsAreServedInOrder() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_BATCH_REQ, new TokenBatchRequest(Arrays.asList(
+                new TokenRequest(1L, Collections.singleton(streamA)),
+                new TokenRequest(2L, Collections.<UUID>emptySet()),
+                new TokenRequest(1L, Collections.singleton(streamA)),
+                new TokenRequest(0L, Collections.singleton(streamA))))));
+        List<TokenResponse> responses = getLastPayloadMessageAs(TokenBatchResponse.class).getResponses();
+
+        assertThat(responses).hasSize(4);
+        assertThat(responses.get(0).getTokenValue()).isEqualTo(0L);
+        assertThat(responses.get(1).getTokenValue()).isEqualTo(1L);
+        assertThat(responses.get(2).getTokenValue()).isEqualTo(3L);
+        assertThat(responses.get(2).getBackpointerMap().get(streamA)).isEqualTo(0L);
+        assertThat(responses.get(3).getTokenValue()).isEqualTo(3L);
+    }
+
+    @Test
+    public void queryReturnsTheTailsOfManyStreams() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+        UUID streamC = UUID.nameUUIDFromBytes("streamC".getBytes());
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamA))));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamB))));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.<UUID>emptySet())));
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(0L, ImmutableSet.of(streamA, streamB, streamC))));
+        TokenResponse response = getLastPayloadMessageAs(TokenResponse.class);
+        assertThat(response.getTokenValue()).isEqualTo(2L);
+        assertThat(response.getBackpointerMap())
+                .containsEntry(streamA, 0L)
+                .containsEntry(streamB, 1L)
+                .containsEntry(streamC, Address.NON_EXIST);
+    }
+
+    @Test
+    public void recoveryFromScanKeepsBackpointers() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+        final long initialToken = 100L;
+        final long scanStart = 90L;
+        final long tailA = 95L;
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.RECOVER_SEQUENCER, new SequencerRecoveryRequest(
+                initialToken, scanStart, Collections.singletonMap(streamA, tailA), false)));
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamA))));
+        TokenResponse response = getLastPayloadMessageAs(TokenResponse.class);
+        assertThat(response.getTokenValue()).isEqualTo(initialToken);
+        assertThat(response.getBackpointerMap().get(streamA)).isEqualTo(tailA);
+
+        // Only the transactions which may have missed a scanned write abort
+        Map<UUID, Set<Integer>> conflictA = Collections.singletonMap(streamA, Collections.singleton(1));
+        Map<UUID, Set<Integer>> conflictB = Collections.singletonMap(streamB, Collections.singleton(1));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ, new TokenRequest(1L,
+                Collections.singleton(streamB), new TxResolutionInfo(UUID.randomUUID(),
+                tailA + 1, conflictB, conflictB))));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.NORMAL);
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ, new TokenRequest(1L,
+                Collections.singleton(streamA), new TxResolutionInfo(UUID.randomUUID(),
+                tailA - 1, conflictA, conflictA))));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.TX_ABORT_CONFLICT);
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ, new TokenRequest(1L,
+                Collections.singleton(streamB), new TxResolutionInfo(UUID.randomUUID(),
+                scanStart - 2, conflictB, conflictB))));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.TX_ABORT_NEWSEQ);
+    }
+
+    @Test
+    public void recoveryResumesFromSnapshot() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+        Map<UUID, Set<Integer>> conflictA = Collections.singletonMap(streamA, Collections.singleton(1));
+        Map<UUID, Set<Integer>> conflictB = Collections.singletonMap(streamB, Collections.singleton(1));
+        ServerContext serverContext = ServerContextBuilder.emptyContext();
+
+        SequencerServer server = new SequencerServer(serverContext);
+        setServer(server);
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ, new TokenRequest(1L,
+                Collections.singleton(streamA), new TxResolutionInfo(UUID.randomUUID(),
+                Address.NON_ADDRESS, conflictA, conflictA))));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamB))));
+        server.saveSnapshot();
+
+        // The restarted sequencer learns the writes after the snapshot from the scan
+        final long initialToken = 5L;
+        final long scanStart = 2L;
+        final long tailB = 3L;
+        setServer(new SequencerServer(serverContext));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.RECOVER_SEQUENCER, new SequencerRecoveryRequest(
+                initialToken, scanStart, Collections.singletonMap(streamB, tailB), true)));
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ, new TokenRequest(1L,
+                Collections.singleton(streamA), new TxResolutionInfo(UUID.randomUUID(),
+                0L, conflictA, conflictA))));
+        TokenResponse response = getLastPayloadMessageAs(TokenResponse.class);
+        assertThat(response.getRespType()).isEqualTo(TokenType.NORMAL);
+        assertThat(response.getTokenValue()).isEqualTo(initialToken);
+        assertThat(response.getBackpointerMap().get(streamA)).isEqualTo(0L);
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ, new TokenRequest(1L,
+                Collections.singleton(streamB), new TxResolutionInfo(UUID.randomUUID(),
+                tailB - 1, conflictB, conflictB))));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.TX_ABORT_CONFLICT);
+    }
+
 }
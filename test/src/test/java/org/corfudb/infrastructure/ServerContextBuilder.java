@@ -19,8 +19,17 @@ public class ServerContextBuilder {
     boolean memory = true;
     String logPath = null;
     boolean noVerify = false;
+    boolean mmapReads = false;
+    String durability = "sync";
+    String syncInterval = "10";
+    String syncBytes = "16777216";
+    String compactionRate = "0";
+    String maxOpenSegments = "256";
     boolean tlsEnabled = false;
     String cacheSizeHeapRatio = "0.5";
+    String cacheOffHeapSize = "0";
+    String prefetchDepth = "0";
+    String snapshotInterval = "0";
     String address = "test";
     int port = 9000;
     String managementBootstrapEndpoint = null;
@@ -44,8 +53,17 @@ public class ServerContextBuilder {
         }
          builder
                  .put("--no-verify", noVerify)
+                 .put("--mmap-reads", mmapReads)
+                 .put("--durability", durability)
+                 .put("--sync-interval", syncInterval)
+                 .put("--sync-bytes", syncBytes)
+                 .put("--compaction-rate", compactionRate)
+                 .put("--max-open-segments", maxOpenSegments)
                  .put("--address", address)
                  .put("--cache-heap-ratio", cacheSizeHeapRatio)
+                 .put("--cache-off-heap-size", cacheOffHeapSize)
+                 .put("--prefetch-depth", prefetchDepth)
+                 .put("--snapshot-interval", snapshotInterval)
                  .put("--enable-tls", tlsEnabled)
                  .put("<port>", port);
         return new ServerContext(builder.build(), serverRouter);
@@ -12,7 +12,9 @@ import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
 import org.corfudb.runtime.clients.TestChannelContext;
 import org.corfudb.runtime.clients.TestRule;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -51,7 +53,12 @@ public class TestServerRouter implements IServerRouter {
     }
 
     public void reset() {
-        this.responseMessages = new ArrayList<>();
+        if (this.responseMessages != null) {
+            synchronized (this.responseMessages) {
+                this.responseMessages.forEach(CorfuMsg::release);
+            }
+        }
+        this.responseMessages = Collections.synchronizedList(new ArrayList<>());
         this.requestCounter = new AtomicLong();
         this.handlerMap = new ConcurrentHashMap<>();
         this.rules = new ArrayList<>();
@@ -66,12 +73,37 @@ public class TestServerRouter implements IServerRouter {
                 .allMatch(x -> x)) {
             if (ctx != null && ctx instanceof TestChannelContext) {
                 ctx.writeAndFlush(outMsg);
+                outMsg.release();
             } else {
                 this.responseMessages.add(outMsg);
             }
+        } else {
+            outMsg.release();
         }
     }
 
+    /**
+     * Wait for the response to a request, for handlers which respond asynchronously.
+     *
+     * @param requestId The ID of the request.
+     * @param timeout   The maximum time to wait for the response.
+     * @return The response, or null if none was sent before the timeout.
+     */
+    public CorfuMsg awaitResponse(long requestId, Duration timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        do {
+            synchronized (responseMessages) {
+                for (CorfuMsg msg : responseMessages) {
+                    if (msg.getRequestID() == requestId) {
+                        return msg;
+                    }
+                }
+            }
+            Thread.sleep(1);
+        } while (System.nanoTime() < deadline);
+        return null;
+    }
+
     /**
      * Register a server to route messages to
      *
@@ -0,0 +1,73 @@
+package org.corfudb.infrastructure.log;
+
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AddressBitmapTest extends AbstractCorfuTest {
+
+    private static final long FIRST_ADDRESS = 1000L;
+    private static final int CAPACITY = 130;
+
+    @Test
+    public void addAndContains() {
+        AddressBitmap bitmap = new AddressBitmap(FIRST_ADDRESS, CAPACITY);
+        final long lastAddress = FIRST_ADDRESS + CAPACITY - 1;
+
+        assertThat(bitmap.add(FIRST_ADDRESS)).isTrue();
+        assertThat(bitmap.add(FIRST_ADDRESS)).isFalse();
+        assertThat(bitmap.add(lastAddress)).isTrue();
+
+        assertThat(bitmap.contains(FIRST_ADDRESS)).isTrue();
+        assertThat(bitmap.contains(lastAddress)).isTrue();
+        assertThat(bitmap.contains(FIRST_ADDRESS + 1)).isFalse();
+        assertThat(bitmap.contains(lastAddress + 1)).isFalse();
+        assertThat(bitmap).hasSize(2);
+        assertThat(bitmap).containsExactly(FIRST_ADDRESS, lastAddress);
+
+        assertThatThrownBy(() -> bitmap.add(FIRST_ADDRESS - 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void andNot() {
+        AddressBitmap pending = new AddressBitmap(FIRST_ADDRESS, CAPACITY);
+        AddressBitmap trimmed = new AddressBitmap(FIRST_ADDRESS, CAPACITY);
+
+        for (long x = FIRST_ADDRESS; x < FIRST_ADDRESS + CAPACITY; x++) {
+            pending.add(x);
+            if (x % 2 == 0) {
+                trimmed.add(x);
+            }
+        }
+
+        AddressBitmap remaining = pending.andNot(trimmed);
+        assertThat(remaining).hasSize(CAPACITY / 2);
+        for (long address : remaining) {
+            assertThat(address % 2).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void metaDataMap() {
+        AddressMetaDataMap map = new AddressMetaDataMap(FIRST_ADDRESS, CAPACITY);
+        final long offset = 100L;
+        final int length = 20;
+        final int checksum = -5;
+
+        assertThat(map.getMaxAddress()).isEqualTo(-1L);
+        map.put(FIRST_ADDRESS + 1, new AddressMetaData(checksum, length, offset));
+        map.put(FIRST_ADDRESS + 1, new AddressMetaData(checksum, length, offset + length));
+
+        AddressMetaData metaData = map.get(FIRST_ADDRESS + 1);
+        assertThat(metaData.checksum).isEqualTo(checksum);
+        assertThat(metaData.length).isEqualTo(length);
+        assertThat(metaData.offset).isEqualTo(offset + length);
+        assertThat(map.size()).isEqualTo(1);
+        assertThat(map.getMaxAddress()).isEqualTo(FIRST_ADDRESS + 1);
+        assertThat(map.get(FIRST_ADDRESS)).isNull();
+        assertThat(map.containsKey(FIRST_ADDRESS + CAPACITY)).isFalse();
+    }
+}
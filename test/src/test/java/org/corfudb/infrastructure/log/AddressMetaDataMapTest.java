@@ -0,0 +1,92 @@
+package org.corfudb.infrastructure.log;
+
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AddressMetaDataMapTest extends AbstractCorfuTest {
+
+    private static final long FIRST_ADDRESS = 1000L;
+    private static final int CAPACITY = 130;
+
+    /**
+     * The length and checksum of a record are derived from its offset, so that
+     * readers can tell whether the metadata they read belongs to a single record.
+     */
+    private static AddressMetaData metaData(long offset) {
+        final int checksumFactor = 31;
+        final int maxLength = 1000;
+        return new AddressMetaData((int) (offset * checksumFactor), (int) (offset % maxLength) + 1, offset);
+    }
+
+    private static void assertConsistent(AddressMetaData actual) {
+        AddressMetaData expected = metaData(actual.offset);
+        assertThat(actual.checksum).isEqualTo(expected.checksum);
+        assertThat(actual.length).isEqualTo(expected.length);
+    }
+
+    @Test
+    public void overwriteReplacesTheRecord() {
+        AddressMetaDataMap map = new AddressMetaDataMap(FIRST_ADDRESS, CAPACITY);
+        final long offset = 100L;
+        final long overwriteOffset = 200L;
+        final long lastAddress = FIRST_ADDRESS + CAPACITY - 1;
+
+        map.put(FIRST_ADDRESS, metaData(offset));
+        map.put(FIRST_ADDRESS, metaData(overwriteOffset));
+        assertThat(map.get(FIRST_ADDRESS).offset).isEqualTo(overwriteOffset);
+        assertConsistent(map.get(FIRST_ADDRESS));
+        assertThat(map.size()).isEqualTo(1);
+
+        map.put(lastAddress, metaData(offset));
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.getMaxAddress()).isEqualTo(lastAddress);
+        assertThat(map.containsKey(lastAddress)).isTrue();
+        assertThat(map.containsKey(FIRST_ADDRESS + 1)).isFalse();
+
+        assertThat(map.get(FIRST_ADDRESS - 1)).isNull();
+        assertThat(map.get(lastAddress + 1)).isNull();
+        assertThatThrownBy(() -> map.put(lastAddress + 1, metaData(offset)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void concurrentReadersSeeConsistentRecords() throws Exception {
+        AddressMetaDataMap map = new AddressMetaDataMap(FIRST_ADDRESS, CAPACITY);
+        final int numRounds = PARAMETERS.NUM_ITERATIONS_LOW;
+        final int numReaders = PARAMETERS.CONCURRENCY_SOME;
+
+        // A single writer maps every address, then overwrites each of them with
+        // records at growing offsets, as in the ranked address space
+        scheduleConcurrently(t -> {
+            for (long round = 1; round <= numRounds; round++) {
+                for (int index = 0; index < CAPACITY; index++) {
+                    map.put(FIRST_ADDRESS + index, metaData(round * CAPACITY + index));
+                }
+            }
+        });
+
+        scheduleConcurrently(numReaders, t -> {
+            long[] lastOffsets = new long[CAPACITY];
+            for (int round = 0; round < numRounds; round++) {
+                for (int index = 0; index < CAPACITY; index++) {
+                    AddressMetaData metaData = map.get(FIRST_ADDRESS + index);
+                    if (metaData != null) {
+                        assertConsistent(metaData);
+                        assertThat(metaData.offset).isGreaterThanOrEqualTo(lastOffsets[index]);
+                        lastOffsets[index] = metaData.offset;
+                    }
+                }
+            }
+        });
+
+        executeScheduled(numReaders + 1, PARAMETERS.TIMEOUT_NORMAL);
+
+        assertThat(map.size()).isEqualTo(CAPACITY);
+        for (int index = 0; index < CAPACITY; index++) {
+            assertThat(map.get(FIRST_ADDRESS + index).offset).isEqualTo((long) numRounds * CAPACITY + index);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.corfudb.infrastructure.log;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the throughput of the checksums of log records with the byte-at-a-time
+ * Guava hasher they replaced. It isn't part of the unit tests, which only run classes
+ * named *Test, and is run on demand with:
+ * <p>
+ * mvn -pl test test -Dtest=Crc32cBenchmark -DfailIfNoTests=false
+ * <p>
+ * The throughput of each implementation, in MB per second, is reported in the test status.
+ */
+public class Crc32cBenchmark extends AbstractCorfuTest {
+
+    private static final int BENCHMARK_BYTES = 1024 * 1024;
+
+    private static int guavaChecksum(byte[] bytes) {
+        Hasher hasher = Hashing.crc32c().newHasher();
+        for (byte b : bytes) {
+            hasher.putByte(b);
+        }
+        return hasher.hash().asInt();
+    }
+
+    @Test
+    public void fasterThanGuava() {
+        byte[] bytes = new byte[BENCHMARK_BYTES];
+        new Random(0).nextBytes(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(BENCHMARK_BYTES);
+        direct.put(bytes);
+        direct.flip();
+        final int iterations = PARAMETERS.NUM_ITERATIONS_MODERATE;
+
+        // Warm up both implementations, so that they are compared once compiled
+        for (int i = 0; i < iterations; i++) {
+            guavaChecksum(bytes);
+            StreamLogFiles.getChecksum(bytes);
+            StreamLogFiles.getChecksum(direct);
+        }
+
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < iterations; i++) {
+            guavaChecksum(bytes);
+        }
+        long guavaTime = System.currentTimeMillis() - startTime;
+        calculateRequestsPerSecond("Guava MBPS", iterations, startTime);
+
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < iterations; i++) {
+            StreamLogFiles.getChecksum(bytes);
+        }
+        long heapTime = System.currentTimeMillis() - startTime;
+        calculateRequestsPerSecond("Crc32c MBPS", iterations, startTime);
+
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < iterations; i++) {
+            StreamLogFiles.getChecksum(direct);
+        }
+        long directTime = System.currentTimeMillis() - startTime;
+        calculateRequestsPerSecond("Crc32c direct MBPS", iterations, startTime);
+
+        assertThat(heapTime).isLessThan(guavaTime);
+        assertThat(directTime).isLessThan(guavaTime);
+    }
+}
@@ -0,0 +1,55 @@
+package org.corfudb.infrastructure.log;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Crc32cTest extends AbstractCorfuTest {
+
+    private static final int MAX_LENGTH = 300;
+
+    private static int guavaChecksum(byte[] bytes) {
+        Hasher hasher = Hashing.crc32c().newHasher();
+        for (byte b : bytes) {
+            hasher.putByte(b);
+        }
+        return hasher.hash().asInt();
+    }
+
+    @Test
+    public void matchesKnownValue() {
+        final int checkValue = 0xE3069283;
+        assertThat(StreamLogFiles.getChecksum("123456789".getBytes())).isEqualTo(checkValue);
+    }
+
+    @Test
+    public void compatibleWithGuava() {
+        Random random = new Random(0);
+
+        for (int i = 0; i < PARAMETERS.NUM_ITERATIONS_LOW; i++) {
+            byte[] bytes = new byte[random.nextInt(MAX_LENGTH)];
+            random.nextBytes(bytes);
+            int expected = guavaChecksum(bytes);
+
+            assertThat(StreamLogFiles.getChecksum(bytes)).isEqualTo(expected);
+
+            // Direct buffers which don't start at a word boundary
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 1);
+            direct.position(1);
+            direct.put(bytes);
+            direct.position(1);
+            assertThat(StreamLogFiles.getChecksum(direct)).isEqualTo(expected);
+            assertThat(direct.position()).isEqualTo(1);
+
+            long num = random.nextLong();
+            assertThat(StreamLogFiles.getChecksum(num))
+                    .isEqualTo(Hashing.crc32c().newHasher().putLong(num).hash().asInt());
+        }
+    }
+}
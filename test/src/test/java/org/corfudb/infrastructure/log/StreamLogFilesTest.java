@@ -4,15 +4,25 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.corfudb.infrastructure.log.StreamLogFiles.METADATA_SIZE;
 
+import com.codahale.metrics.Counter;
 import io.netty.buffer.ByteBuf;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import io.netty.buffer.Unpooled;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
@@ -170,7 +180,7 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         file2.writeInt(OVERWRITE_DELIMITER);
         file2.close();
 
-        assertThatThrownBy(() -> new StreamLogFiles(getContext(), false))
+        assertThatThrownBy(() -> new StreamLogFiles(getContext(), false).read(address1))
                 .isInstanceOf(DataCorruptionException.class);
     }
 
@@ -326,6 +336,136 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         }
     }
 
+    @Test
+    public void testCompactionOfClosedSegments() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final int logChunk = StreamLogFiles.RECORDS_PER_LOG_FILE / 2;
+        final long secondSegment = StreamLogFiles.RECORDS_PER_LOG_FILE;
+
+        for (long x = 0; x < StreamLogFiles.RECORDS_PER_LOG_FILE * 2; x++) {
+            writeToLog(log, x);
+        }
+
+        // The second segment doesn't have enough pending trims, which must not
+        // prevent the first one from being compacted
+        for (long x = 0; x < logChunk; x++) {
+            log.trim(x);
+        }
+        log.trim(secondSegment);
+        log.close();
+
+        StreamLogFiles restarted = new StreamLogFiles(getContext(), false);
+        restarted.compact();
+
+        assertThat(restarted.getSegmentHandleForAddress(0L).getTrimmedAddresses().size()).isEqualTo(logChunk);
+        assertThat(restarted.getSegmentHandleForAddress(secondSegment).getTrimmedAddresses().size()).isEqualTo(0);
+        assertThatThrownBy(() -> restarted.read(0L)).isInstanceOf(TrimmedException.class);
+        assertThat(restarted.read(logChunk)).isNotNull();
+        restarted.close();
+    }
+
+    @Test
+    public void testThrottledCompaction() throws Exception {
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setCompactionRate("64M")
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+        final int logChunk = StreamLogFiles.RECORDS_PER_LOG_FILE / 2;
+
+        for (long x = 0; x < logChunk * 2; x++) {
+            writeToLog(log, x);
+        }
+        for (long x = 0; x < logChunk; x++) {
+            log.trim(x);
+        }
+        log.compact();
+
+        // The records copied by the compaction are served after a restart
+        log.close();
+        log = new StreamLogFiles(context, false);
+        assertThat(log.getSegmentHandleForAddress(0L).getKnownAddresses().size()).isEqualTo(logChunk);
+        for (long x = logChunk; x < logChunk * 2; x++) {
+            assertThat(log.read(x).getPayload(null)).isEqualTo("Payload".getBytes());
+        }
+        log.close();
+    }
+
+    @Test
+    public void testSegmentEviction() throws Exception {
+        final int maxOpenSegments = 2;
+        final int numSegments = 5;
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setMaxOpenSegments(Integer.toString(maxOpenSegments))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+
+        for (long segment = 0; segment < numSegments; segment++) {
+            writeToLog(log, segment * StreamLogFiles.RECORDS_PER_LOG_FILE);
+        }
+        assertThat(log.getOpenSegmentCount()).isLessThanOrEqualTo(maxOpenSegments);
+
+        // Evicted segments are reopened on access
+        for (long segment = 0; segment < numSegments; segment++) {
+            assertThat(log.read(segment * StreamLogFiles.RECORDS_PER_LOG_FILE).getPayload(null))
+                    .isEqualTo("Payload".getBytes());
+        }
+        writeToLog(log, 1L);
+        assertThat(log.getOpenSegmentCount()).isLessThanOrEqualTo(maxOpenSegments);
+        log.sync(true);
+        log.close();
+
+        log = new StreamLogFiles(context, false);
+        assertThat(log.read(1L).getPayload(null)).isEqualTo("Payload".getBytes());
+        log.close();
+    }
+
+    @Test
+    public void testSegmentsOpenDuringCompaction() throws Exception {
+        final long compactionRate = 100_000;
+        final int numSegments = 2;
+        final int logChunk = StreamLogFiles.RECORDS_PER_LOG_FILE / 2;
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setCompactionRate(Long.toString(compactionRate))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+
+        // Fill and half trim two segments, and seal them
+        for (long x = 0; x < StreamLogFiles.RECORDS_PER_LOG_FILE * numSegments; x++) {
+            writeToLog(log, x);
+        }
+        writeToLog(log, StreamLogFiles.RECORDS_PER_LOG_FILE * numSegments);
+        for (int segment = 0; segment < numSegments; segment++) {
+            for (long x = 0; x < logChunk; x++) {
+                log.trim(segment * StreamLogFiles.RECORDS_PER_LOG_FILE + x);
+            }
+        }
+
+        // The copy of the second segment is throttled by the copy of the first one
+        Counter bytesCopied = context.getMetrics().counter("corfu.server.logunit.compaction.bytes-copied");
+        final long bytesCopiedBefore = bytesCopied.getCount();
+        CompletableFuture<Void> compaction = CompletableFuture.runAsync(log::compact);
+        long deadline = System.currentTimeMillis() + PARAMETERS.TIMEOUT_NORMAL.toMillis();
+        while (bytesCopied.getCount() == bytesCopiedBefore && System.currentTimeMillis() < deadline) {
+            Thread.sleep(PARAMETERS.TIMEOUT_VERY_SHORT.toMillis() / 10);
+        }
+        assertThat(bytesCopied.getCount()).isGreaterThan(bytesCopiedBefore);
+
+        // A segment which isn't open can be written while the compaction runs
+        final long newSegmentAddress = StreamLogFiles.RECORDS_PER_LOG_FILE * (numSegments + 2);
+        writeToLog(log, newSegmentAddress);
+        assertThat(compaction.isDone()).isFalse();
+
+        compaction.get(PARAMETERS.TIMEOUT_LONG.toMillis(), TimeUnit.MILLISECONDS);
+        assertThat(log.read(newSegmentAddress).getPayload(null)).isEqualTo("Payload".getBytes());
+        log.close();
+    }
+
     @Test
     public void testWritingFileHeader() throws Exception {
         StreamLogFiles log = new StreamLogFiles(getContext(), false);
@@ -375,7 +515,7 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
 
         // Write 50 segments and trim the first 25
         final long numSegments = 50;
-        final long filesPerSegment = 3;
+        final long filesPerSegment = 5;
         for(long x = 0; x < numSegments * StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
             writeToLog(log, x);
         }
@@ -398,10 +538,14 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
             String logFile = Long.toString(x) + ".log";
             String trimmedLogFile = StreamLogFiles.getTrimmedFilePath(logFile);
             String pendingLogFile = StreamLogFiles.getPendingTrimsFilePath(logFile);
+            String indexFile = StreamLogFiles.getIndexFilePath(logFile);
+            String streamIndexFile = StreamLogFiles.getStreamIndexFilePath(logFile);
 
             assertThat(fileNames).contains(logFile);
             assertThat(fileNames).contains(trimmedLogFile);
             assertThat(fileNames).contains(pendingLogFile);
+            assertThat(fileNames).contains(indexFile);
+            assertThat(fileNames).contains(streamIndexFile);
         }
 
         // Try to trim an address that is less than the new starting address
@@ -423,6 +567,177 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         assertThat(trimmedExceptions).isEqualTo(trimAddress + 1);
     }
 
+    @Test
+    public void testAddressSpaceRecovery() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+        for (long x = 0; x < numEntries; x++) {
+            writeToLog(log, x);
+        }
+        String indexFile = StreamLogFiles.getIndexFilePath(log.getSegmentHandleForAddress(0L).getFileName());
+        log.close();
+
+        // Restart from the index
+        log = new StreamLogFiles(getContext(), false);
+        assertThat(log.getGlobalTail()).isEqualTo(numEntries - 1);
+        assertThat(log.getSegmentHandleForAddress(0L).getKnownAddresses().size()).isEqualTo(numEntries);
+        log.close();
+
+        // Lose the second half of the index and tear its last entry, the
+        // missing records should be recovered from the segment itself
+        final int indexedEntries = numEntries / 2;
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+            file.setLength(indexedEntries * StreamLogFiles.INDEX_ENTRY_SIZE - 1);
+        }
+
+        log = new StreamLogFiles(getContext(), false);
+        assertThat(log.getGlobalTail()).isEqualTo(numEntries - 1);
+        for (long x = 0; x < numEntries; x++) {
+            assertThat(log.read(x)).isNotNull();
+        }
+        log.close();
+
+        assertThat(new File(indexFile).length()).isEqualTo(numEntries * StreamLogFiles.INDEX_ENTRY_SIZE);
+    }
+
+    @Test
+    public void testPreallocatedSegmentRecovery() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+        for (long x = 0; x < numEntries; x++) {
+            writeToLog(log, x);
+        }
+        String segmentFile = log.getSegmentHandleForAddress(0L).getFileName();
+        log.close();
+
+        assertThat(new File(segmentFile).length()).isGreaterThan(StreamLogFiles.SEGMENT_PREALLOCATION_SIZE);
+
+        // Without an index, the records are scanned up to the preallocated space,
+        // and appending resumes right after them
+        assertThat(new File(StreamLogFiles.getIndexFilePath(segmentFile)).delete()).isTrue();
+        log = new StreamLogFiles(getContext(), false);
+        assertThat(log.getGlobalTail()).isEqualTo(numEntries - 1);
+        for (long x = numEntries; x < numEntries * 2; x++) {
+            writeToLog(log, x);
+        }
+        log.close();
+
+        log = new StreamLogFiles(getContext(), false);
+        assertThat(log.getGlobalTail()).isEqualTo(numEntries * 2 - 1);
+        for (long x = 0; x < numEntries * 2; x++) {
+            assertThat(log.read(x).getPayload(null)).isEqualTo("Payload".getBytes());
+        }
+        log.close();
+    }
+
+    @Test
+    public void testMappedReads() {
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setMmapReads(true)
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+        byte[] streamEntry = "Payload".getBytes();
+
+        // Write to the first two segments, which seals the first one
+        final long address0 = 0;
+        final long address1 = 1;
+        final long address2 = StreamLogFiles.RECORDS_PER_LOG_FILE;
+        writeToLog(log, address0);
+        writeToLog(log, address2);
+
+        LogData mapped = log.read(address0);
+        assertThat(mapped.getPayload(null)).isEqualTo(streamEntry);
+        assertThat(mapped.getData()).isNotNull();
+
+        // An entry appended to the segment after it has been mapped
+        // is not covered by the mapping, but can still be read
+        writeToLog(log, address1);
+        assertThat(log.read(address1).getPayload(null)).isEqualTo(streamEntry);
+
+        // The mapping stays valid after the entry is released, as long
+        // as the segment is open
+        log.release(address0, mapped);
+        assertThat(log.read(address0).getPayload(null)).isEqualTo(streamEntry);
+        assertThat(log.read(address2).getPayload(null)).isEqualTo(streamEntry);
+        log.close();
+    }
+
+    @Test
+    public void testBatchedReads() {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+        final int largePayloadSize = 300 * 1024;
+        final long firstAddress = StreamLogFiles.RECORDS_PER_LOG_FILE - numEntries / 2;
+
+        // Leave holes in the range, and write large entries which
+        // don't fit in a single read span
+        List<Long> range = new ArrayList<>();
+        for (long address = firstAddress; address < firstAddress + numEntries; address++) {
+            range.add(address);
+            if (address % 3 == 0) {
+                continue;
+            }
+            byte[] payload = address % 5 == 0 ? new byte[largePayloadSize] : Long.toString(address).getBytes();
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(payload, b);
+            log.append(address, new LogData(DataType.DATA, b));
+        }
+
+        Map<Long, LogData> entries = log.read(range);
+        for (long address : range) {
+            LogData entry = log.read(address);
+            if (entry == null) {
+                assertThat(entries).doesNotContainKey(address);
+            } else {
+                assertThat(entries.get(address).getPayload(null)).isEqualTo(entry.getPayload(null));
+            }
+        }
+
+        long written = range.stream().filter(address -> address % 3 != 0).findFirst().get();
+        log.trim(written);
+        assertThatThrownBy(() -> log.read(range)).isInstanceOf(TrimmedException.class);
+        log.close();
+    }
+
+    @Test
+    public void testStreamIndexRecovery() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        UUID stream = UUID.randomUUID();
+        final long numEntries = 10;
+        for (long address = 0; address < numEntries; address++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize("Payload".getBytes(), b);
+            LogData data = new LogData(DataType.DATA, b);
+            if (address % 2 == 0) {
+                data.setBackpointerMap(Collections.singletonMap(stream, address - 2));
+            }
+            log.append(address, data);
+        }
+
+        final List<Long> expected = Arrays.asList(2L, 4L, 6L);
+        final long first = 1;
+        final long last = 7;
+        assertThat(log.getStreamAddresses(stream, first, last)).isEqualTo(expected);
+        log.close();
+
+        // A segment without a stream index has it rebuilt from its records
+        String segmentPath = getDirPath() + File.separator + "0.log";
+        Files.delete(Paths.get(StreamLogFiles.getStreamIndexFilePath(segmentPath)));
+        log = new StreamLogFiles(getContext(), false);
+        assertThat(log.getStreamAddresses(stream, first, last)).isEqualTo(expected);
+        log.close();
+
+        // The rebuilt stream index is persisted
+        log = new StreamLogFiles(getContext(), false);
+        assertThat(new File(StreamLogFiles.getStreamIndexFilePath(segmentPath)).length())
+                .isEqualTo(numEntries * StreamLogFiles.STREAM_INDEX_ENTRY_SIZE);
+        log.trim(4L);
+        assertThat(log.getStreamAddresses(stream, first, last)).containsExactly(2L, 6L);
+        log.close();
+    }
+
     @Test
     public void testPrefixTrimAndStartUp() {
         StreamLog log = new StreamLogFiles(getContext(), false);
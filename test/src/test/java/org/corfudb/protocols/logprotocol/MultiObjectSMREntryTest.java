@@ -0,0 +1,76 @@
+package org.corfudb.protocols.logprotocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.corfudb.AbstractCorfuTest;
+import org.corfudb.runtime.CorfuRuntime;
+import org.corfudb.util.serializer.ICorfuSerializable;
+import org.corfudb.util.serializer.Serializers;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MultiObjectSMREntryTest extends AbstractCorfuTest {
+
+    private MultiObjectSMREntry reserialize(MultiObjectSMREntry entry) {
+        ByteBuf buf = Unpooled.buffer();
+        Serializers.CORFU.serialize(entry, buf);
+        return (MultiObjectSMREntry) Serializers.CORFU.deserialize(buf, new CorfuRuntime());
+    }
+
+    @Test
+    public void deserializesOnlyTheRequestedStreams() {
+        UUID streamA = UUID.nameUUIDFromBytes("stream A".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("stream B".getBytes());
+        MultiObjectSMREntry entry = new MultiObjectSMREntry();
+        entry.addTo(streamA, new SMREntry("put", new Object[]{"a", "1"}, Serializers.JSON));
+        entry.addTo(streamB, new SMREntry("put", new Object[]{"b", "2"}, Serializers.JSON));
+        entry.addTo(streamB, new SMREntry("remove", new Object[]{"b"}, Serializers.JSON));
+
+        MultiObjectSMREntry read = reserialize(entry);
+        assertThat(read.getStreamIDs()).containsExactlyInAnyOrder(streamA, streamB);
+        assertThat(read.getSMRUpdates(streamA)).hasSize(1);
+        assertThat(read.getSMRUpdates(streamA).get(0).getSMRArguments())
+                .containsExactly("a", "1");
+        assertThat(read.isDeserialized(streamA)).isTrue();
+        assertThat(read.isDeserialized(streamB)).isFalse();
+        assertThat(read.getSMRUpdates(UUID.randomUUID())).isEmpty();
+
+        // The updates which weren't deserialized are copied as they are
+        MultiObjectSMREntry copy = reserialize(read);
+        assertThat(copy.getSMRUpdates(streamB)).hasSize(2);
+        assertThat(copy.getSMRUpdates(streamB).get(1).getSMRMethod())
+                .isEqualTo("remove");
+        assertThat(copy.getEntryMap()).containsOnlyKeys(streamA, streamB);
+    }
+
+    @Test
+    public void readsEntriesWithoutSections() {
+        UUID streamA = UUID.nameUUIDFromBytes("stream A".getBytes());
+        MultiSMREntry updates = new MultiSMREntry();
+        updates.addTo(new SMREntry("put", new Object[]{"a", "1"}, Serializers.JSON));
+
+        // An entry in the format without sections
+        ICorfuSerializable legacy = b -> {
+            b.writeByte(LogEntry.LogEntryType.MULTIOBJSMR.asByte());
+            b.writeShort(1);
+            b.writeLong(streamA.getMostSignificantBits());
+            b.writeLong(streamA.getLeastSignificantBits());
+            Serializers.CORFU.serialize(updates, b);
+        };
+        ByteBuf buf = Unpooled.buffer();
+        Serializers.CORFU.serialize(legacy, buf);
+        MultiObjectSMREntry read = (MultiObjectSMREntry) Serializers.CORFU.deserialize(buf, new CorfuRuntime());
+        assertThat(read.getType()).isEqualTo(LogEntry.LogEntryType.MULTIOBJSMR);
+        assertThat(read.getSMRUpdates(streamA).get(0).getSMRArguments())
+                .containsExactly("a", "1");
+
+        // It is written back in the sectioned format
+        MultiObjectSMREntry copy = reserialize(read);
+        assertThat(copy.getType()).isEqualTo(LogEntry.LogEntryType.MULTIOBJSMR_SECTIONED);
+        assertThat(copy.getSMRUpdates(streamA).get(0).getSMRArguments())
+                .containsExactly("a", "1");
+    }
+}
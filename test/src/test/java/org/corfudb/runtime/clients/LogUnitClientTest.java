@@ -2,17 +2,20 @@ package org.corfudb.runtime.clients;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
 import org.corfudb.format.Types;
 import org.corfudb.infrastructure.AbstractServer;
 import org.corfudb.infrastructure.LogUnitServer;
 import org.corfudb.infrastructure.ServerContext;
 import org.corfudb.infrastructure.ServerContextBuilder;
 import org.corfudb.infrastructure.log.StreamLogFiles;
+import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.DataType;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.protocols.wireprotocol.IToken;
 import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.protocols.wireprotocol.LogEntryMetadata;
 import org.corfudb.protocols.wireprotocol.ReadResponse;
 import org.corfudb.runtime.CorfuRuntime;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
@@ -20,15 +23,22 @@ import org.corfudb.runtime.exceptions.DataOutrankedException;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.TrimmedException;
 import org.corfudb.runtime.exceptions.ValueAdoptedException;
+import org.corfudb.runtime.view.Address;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -84,6 +94,74 @@ public class LogUnitClientTest extends AbstractClientTest {
                 .isEqualTo(testString);
     }
 
+    @Test
+    public void canReadScatteredAddresses()
+            throws Exception {
+        byte[] testString = "hello world".getBytes();
+        final long missingAddress = 1L;
+        final long lastAddress = 5L;
+        client.write(0, Collections.<UUID>emptySet(), null, testString, Collections.emptyMap()).get();
+        client.write(lastAddress, Collections.<UUID>emptySet(), null, testString, Collections.emptyMap()).get();
+
+        ReadResponse r = client.read(Arrays.asList(0L, missingAddress, lastAddress)).get();
+        assertThat(r.getReadSet()).containsOnlyKeys(0L, missingAddress, lastAddress);
+        assertThat(r.getReadSet().get(0L).getPayload(new CorfuRuntime()))
+                .isEqualTo(testString);
+        assertThat(r.getReadSet().get(missingAddress).getType())
+                .isEqualTo(DataType.EMPTY);
+        assertThat(r.getReadSet().get(lastAddress).getPayload(new CorfuRuntime()))
+                .isEqualTo(testString);
+    }
+
+    @Test
+    public void canReadMoreAddressesThanABatch()
+            throws Exception {
+        byte[] testString = "hello world".getBytes();
+        final long lastAddress = LogUnitClient.MAX_READ_BATCH_SIZE;
+        client.write(lastAddress, Collections.<UUID>emptySet(), null, testString, Collections.emptyMap()).get();
+
+        AtomicInteger requests = new AtomicInteger();
+        router.rules.add(new TestRule()
+                .matches(m -> m.getMsgType() == CorfuMsgType.MULTIPLE_READ_REQUEST)
+                .transform(m -> requests.incrementAndGet()));
+
+        // The addresses are split into two requests
+        List<Long> addresses = LongStream.rangeClosed(0L, lastAddress).boxed().collect(Collectors.toList());
+        ReadResponse r = client.read(addresses).get();
+        assertThat(requests.get()).isEqualTo(2);
+        assertThat(r.getReadSet()).hasSize(addresses.size());
+        assertThat(r.getReadSet().get(0L).getType())
+                .isEqualTo(DataType.EMPTY);
+        assertThat(r.getReadSet().get(lastAddress).getPayload(new CorfuRuntime()))
+                .isEqualTo(testString);
+    }
+
+    @Test
+    public void canReadMetadataWithoutPayloads()
+            throws Exception {
+        byte[] testString = "hello world".getBytes();
+        final long missingAddress = 1L;
+        final long lastAddress = 2L;
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        client.write(0, Collections.singleton(streamA), null, testString,
+                Collections.singletonMap(streamA, Address.NON_EXIST)).get();
+        client.write(lastAddress, Collections.singleton(streamA), null, testString,
+                Collections.singletonMap(streamA, 0L)).get();
+
+        Map<Long, LogEntryMetadata> r = client.readMetadata(Range.closed(0L, lastAddress)).get();
+        assertThat(r).containsOnlyKeys(0L, missingAddress, lastAddress);
+        assertThat(r.get(0L).getType())
+                .isEqualTo(DataType.DATA);
+        assertThat(r.get(0L).getBackpointer(streamA))
+                .isEqualTo(Address.NON_EXIST);
+        assertThat(r.get(missingAddress).isEmpty())
+                .isTrue();
+        assertThat(r.get(lastAddress).containsStream(streamA))
+                .isTrue();
+        assertThat(r.get(lastAddress).getBackpointer(streamA))
+                .isEqualTo(0L);
+    }
+
     @Test
     public void readingTrimmedAddress() throws Exception {
         byte[] testString = "hello world".getBytes();
@@ -127,6 +205,34 @@ public class LogUnitClientTest extends AbstractClientTest {
         assertThat(server2.getDataCache().asMap().size()).isEqualTo(1);
     }
 
+    @Test
+    public void canGetStreamAddresses() throws Exception {
+        UUID streamA = CorfuRuntime.getStreamID("a");
+        UUID streamB = CorfuRuntime.getStreamID("b");
+        byte[] testString = "hello world".getBytes();
+        final long numEntries = 10;
+        for (long address = 0; address < numEntries; address++) {
+            UUID stream = address % 2 == 0 ? streamA : streamB;
+            client.write(address, Collections.singleton(stream), null, testString,
+                    Collections.singletonMap(stream, address - 2)).get();
+        }
+
+        final long first = 2;
+        final long last = 7;
+        assertThat(client.getStreamAddresses(streamA, Range.closed(first, last)).get())
+                .containsExactly(2L, 4L, 6L);
+
+        // The stream index is persisted with the log
+        LogUnitServer server2 = new LogUnitServer(serverContext);
+        serverRouter.reset();
+        serverRouter.addServer(server2);
+
+        assertThat(client.getStreamAddresses(streamB, Range.closed(first, last)).get())
+                .containsExactly(3L, 5L, 7L);
+        assertThat(client.getStreamAddresses(CorfuRuntime.getStreamID("c"), Range.closed(0L, numEntries)).get())
+                .isEmpty();
+    }
+
     @Test
     public void canReadWriteRanked()
             throws Exception {
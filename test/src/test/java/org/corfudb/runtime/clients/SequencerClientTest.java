@@ -4,11 +4,16 @@ import com.google.common.collect.ImmutableSet;
 import org.corfudb.infrastructure.AbstractServer;
 import org.corfudb.infrastructure.SequencerServer;
 import org.corfudb.protocols.wireprotocol.Token;
+import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.junit.Test;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -79,4 +84,27 @@ public class SequencerClientTest extends AbstractClientTest {
         assertThat(tokenA3)
                 .isEqualTo(tokenA2);
     }
+
+    @Test
+    public void concurrentTokenRequestsAreServed()
+            throws Exception {
+        final int numThreads = PARAMETERS.CONCURRENCY_SOME;
+        final int numRequests = PARAMETERS.NUM_ITERATIONS_LOW;
+        List<CompletableFuture<TokenResponse>> futures = new CopyOnWriteArrayList<>();
+
+        // Requests issued while another is in flight are batched together
+        scheduleConcurrently(numThreads, t -> {
+            for (int i = 0; i < numRequests; i++) {
+                futures.add(client.nextToken(Collections.<UUID>emptySet(), 1));
+            }
+        });
+        executeScheduled(numThreads, PARAMETERS.TIMEOUT_NORMAL);
+
+        List<Long> tokens = futures.stream()
+                .map(f -> f.join().getToken().getTokenValue())
+                .collect(Collectors.toList());
+        assertThat(tokens)
+                .doesNotHaveDuplicates()
+                .hasSize(numThreads * numRequests);
+    }
 }
@@ -55,7 +55,7 @@ public class WriteAfterWriteTransactionContextTest extends AbstractTransactionCo
         List<ILogData> txns = txStream.remainingUpTo(Long.MAX_VALUE);
         assertThat(txns).hasSize(1);
         assertThat(txns.get(0).getLogEntry(getRuntime()).getType()).isEqualTo
-            (LogEntry.LogEntryType.MULTIOBJSMR);
+            (LogEntry.LogEntryType.MULTIOBJSMR_SECTIONED);
 
         MultiObjectSMREntry tx1 = (MultiObjectSMREntry)txns.get(0).getLogEntry
             (getRuntime());
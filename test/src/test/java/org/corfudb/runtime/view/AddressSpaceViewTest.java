@@ -1,5 +1,6 @@
 package org.corfudb.runtime.view;
 
+import com.codahale.metrics.Gauge;
 import org.corfudb.infrastructure.LogUnitServerAssertions;
 import org.corfudb.infrastructure.TestLayoutBuilder;
 import org.corfudb.protocols.wireprotocol.*;
@@ -138,4 +139,95 @@ public class AddressSpaceViewTest extends AbstractViewTest {
         assertThat(m.get(ADDRESS_2).getPayload(getRuntime()))
                 .isEqualTo("3".getBytes());
     }
-}
\ No newline at end of file
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void readAllFetchesUncachedAddresses()
+            throws Exception {
+        CorfuRuntime r = getDefaultRuntime();
+        final long numAddresses = PARAMETERS.NUM_ITERATIONS_LOW;
+        final long holeAddress = numAddresses;
+
+        List<Long> addresses = new ArrayList<>();
+        for (long address = 0; address < numAddresses; address++) {
+            r.getAddressSpaceView().write(new Token(address, r.getLayoutView().getLayout().getEpoch()),
+                    Long.toString(address).getBytes());
+            addresses.add(address);
+        }
+        addresses.add(holeAddress);
+
+        // Read the entries from the log unit, the unwritten address being hole filled
+        r.getAddressSpaceView().invalidateClientCache();
+        Map<Long, ILogData> m = r.getAddressSpaceView().read(addresses);
+
+        assertThat(m).hasSize(addresses.size());
+        for (long address = 0; address < numAddresses; address++) {
+            assertThat(m.get(address).getPayload(getRuntime()))
+                    .isEqualTo(Long.toString(address).getBytes());
+        }
+        assertThat(m.get(holeAddress).isHole())
+                .isTrue();
+    }
+
+    @Test
+    public void readsEntriesEvictedOffHeap()
+            throws Exception {
+        getDefaultRuntime();
+        final long numAddresses = PARAMETERS.NUM_ITERATIONS_LOW;
+        final long maxOffHeapCacheSize = 16_000_000L;
+
+        // A heap tier too small to hold any entry, which spills everything off-heap
+        CorfuRuntime r = new CorfuRuntime(getDefaultEndpoint());
+        r.setMaxCacheSize(1L);
+        r.setMaxOffHeapCacheSize(maxOffHeapCacheSize);
+        r.connect();
+
+        for (long address = 0; address < numAddresses; address++) {
+            r.getAddressSpaceView().write(new Token(address, r.getLayoutView().getLayout().getEpoch()),
+                    Long.toString(address).getBytes());
+        }
+
+        final String offHeapHits = String.format("%s0x%x.cache.off-heap.hits", r.getMpASV(),
+                r.getAddressSpaceView().hashCode());
+        Gauge hits = r.getMetrics().getGauges().get(offHeapHits);
+
+        // The entries are read either from the log unit or from the off-heap tier
+        for (long address = 0; address < numAddresses; address++) {
+            assertThat(r.getAddressSpaceView().read(address).getPayload(r))
+                    .isEqualTo(Long.toString(address).getBytes());
+        }
+
+        // Every entry is now off-heap, so each read hits the off-heap tier
+        final long hitsBefore = (Long) hits.getValue();
+        for (long address = 0; address < numAddresses; address++) {
+            assertThat(r.getAddressSpaceView().read(address).getPayload(r))
+                    .isEqualTo(Long.toString(address).getBytes());
+        }
+        assertThat((Long) hits.getValue() - hitsBefore).isEqualTo(numAddresses);
+        r.shutdown();
+    }
+
+    private static long getHeapWeight(CorfuRuntime r) {
+        r.getAddressSpaceView().readCache.cleanUp();
+        return r.getAddressSpaceView().readCache.policy().eviction().get().weightedSize().getAsLong();
+    }
+
+    @Test
+    public void reweighsEntriesOnceDeserialized()
+            throws Exception {
+        CorfuRuntime writer = getDefaultRuntime();
+        final long address = 0;
+        writer.getAddressSpaceView().write(new Token(address, writer.getLayoutView().getLayout().getEpoch()),
+                "Payload".getBytes());
+
+        // A runtime which caches the entry as it is read from the log unit, still serialized
+        CorfuRuntime r = new CorfuRuntime(getDefaultEndpoint());
+        r.connect();
+        ILogData data = r.getAddressSpaceView().read(address);
+        final long serializedWeight = getHeapWeight(r);
+
+        assertThat(data.getPayload(r)).isEqualTo("Payload".getBytes());
+        assertThat(getHeapWeight(r)).isGreaterThan(serializedWeight);
+        r.shutdown();
+    }
+}
@@ -145,7 +145,7 @@ public class ObjectsViewTest extends AbstractViewTest {
         List<ILogData> txns = txStream.remainingUpTo(Long.MAX_VALUE);
         assertThat(txns).hasSize(1);
         assertThat(txns.get(0).getLogEntry(getRuntime()).getType())
-                .isEqualTo(LogEntry.LogEntryType.MULTIOBJSMR);
+                .isEqualTo(LogEntry.LogEntryType.MULTIOBJSMR_SECTIONED);
 
         MultiObjectSMREntry tx1 = (MultiObjectSMREntry)txns.get(0).getLogEntry
                 (getRuntime());
@@ -225,4 +225,40 @@ public class ObjectsViewTest extends AbstractViewTest {
                 .containsEntry("b", "b");
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void canSyncManyObjects()
+            throws Exception {
+        CorfuRuntime r = getDefaultRuntime();
+        Map<String, String> smrMapA = r.getObjectsView().build()
+                .setStreamName("map a")
+                .setTypeToken(new TypeToken<SMRMap<String, String>>() {})
+                .open();
+        Map<String, String> smrMapB = r.getObjectsView().build()
+                .setStreamName("map b")
+                .setTypeToken(new TypeToken<SMRMap<String, String>>() {})
+                .open();
+        smrMapA.put("a", "a");
+        smrMapB.put("b", "b");
+        smrMapA.put("c", "c");
+
+        // Open the maps from another runtime, which hasn't seen the updates
+        CorfuRuntime r2 = new CorfuRuntime(getDefaultEndpoint()).connect();
+        Map<String, String> otherMapA = r2.getObjectsView().build()
+                .setStreamName("map a")
+                .setTypeToken(new TypeToken<SMRMap<String, String>>() {})
+                .open();
+        Map<String, String> otherMapB = r2.getObjectsView().build()
+                .setStreamName("map b")
+                .setTypeToken(new TypeToken<SMRMap<String, String>>() {})
+                .open();
+
+        r2.getObjectsView().syncObject(otherMapA, otherMapB, "not a corfu object");
+        assertThat(otherMapA)
+                .containsEntry("a", "a")
+                .containsEntry("c", "c");
+        assertThat(otherMapB)
+                .containsEntry("b", "b");
+    }
+
 }
@@ -91,6 +91,36 @@ public class StreamViewTest extends AbstractViewTest {
     }
 
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void canReadInterleavedStreamsFromTheLog()
+            throws Exception {
+        UUID streamA = UUID.nameUUIDFromBytes("stream A".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("stream B".getBytes());
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+
+        // Stream A is dense at first, then sparse, so the walk reads ahead of it
+        // with windows of several sizes
+        IStreamView svA = r.getStreamsView().get(streamA);
+        IStreamView svB = r.getStreamsView().get(streamB);
+        for (int i = 0; i < numEntries; i++) {
+            svA.append(Integer.toString(i).getBytes());
+            if (i > numEntries / 2) {
+                svB.append("b".getBytes());
+                svB.append("b".getBytes());
+            }
+        }
+        r.getAddressSpaceView().invalidateClientCache();
+
+        IStreamView reader = r.getStreamsView().get(streamA);
+        for (int i = 0; i < numEntries; i++) {
+            assertThat(reader.next().getPayload(getRuntime()))
+                    .isEqualTo(Integer.toString(i).getBytes());
+        }
+        assertThat(reader.next())
+                .isEqualTo(null);
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void canReadWriteFromCachedStream()
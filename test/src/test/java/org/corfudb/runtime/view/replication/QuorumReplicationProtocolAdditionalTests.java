@@ -303,12 +303,13 @@ public class QuorumReplicationProtocolAdditionalTests extends AbstractViewTest {
 
 
 
-    public void sendMessage(LogUnitServer s, CorfuMsg message) {
+    public void sendMessage(LogUnitServer s, CorfuMsg message) throws InterruptedException {
         TestServerRouter router = new TestServerRouter();
         router.addServer(s);
         message.setClientID(testClientId);
         message.setRequestID(requestCounter.getAndIncrement());
         router.sendServerMessage(message);
+        router.awaitResponse(message.getRequestID(), PARAMETERS.TIMEOUT_NORMAL);
     }
 
     private AtomicInteger requestCounter = new AtomicInteger(0);
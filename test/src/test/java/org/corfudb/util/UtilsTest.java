@@ -0,0 +1,28 @@
+package org.corfudb.util;
+
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class UtilsTest extends AbstractCorfuTest {
+
+    @Test
+    public void parsesNumbersWithSuffixes() {
+        final long kilo = 1_000L;
+        final long mega = 1_000_000L;
+        final long giga = 1_000_000_000L;
+        final long value = 16;
+
+        assertThat(Utils.parseLong("16777216")).isEqualTo(16L * 1024 * 1024);
+        assertThat(Utils.parseLong("16K")).isEqualTo(value * kilo);
+        assertThat(Utils.parseLong("16M")).isEqualTo(value * mega);
+        assertThat(Utils.parseLong("1m")).isEqualTo(mega);
+        assertThat(Utils.parseLong("160G")).isEqualTo(value * giga * 10);
+        assertThat(Utils.parseLong(value)).isEqualTo(value);
+        assertThat(Utils.parseLong(null)).isEqualTo(0L);
+        assertThatThrownBy(() -> Utils.parseLong("16X"))
+                .isInstanceOf(NumberFormatException.class);
+    }
+}